@@ -0,0 +1,68 @@
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// Compiles a context phrase list into the context_<key>.fst cache the runtime
+// maps instead of building the graph, e.g. to ship it next to the model.
+
+#include <fstream>
+#include <map>
+#include <string>
+#include <vector>
+
+#include "decoder/context_graph.h"
+#include "utils/flags.h"
+#include "utils/log.h"
+#include "utils/string.h"
+
+DEFINE_string(unit_path, "", "units.txt of the model");
+DEFINE_string(context_path, "", "context phrases, one per line");
+DEFINE_double(context_score, 12.0, "boost per character of every phrase");
+DEFINE_string(output_dir, "", "dir the compiled graph is written to");
+
+int main(int argc, char* argv[]) {
+  gflags::ParseCommandLineFlags(&argc, &argv, false);
+  google::InitGoogleLogging(argv[0]);
+  CHECK(!FLAGS_unit_path.empty() && !FLAGS_context_path.empty() &&
+        !FLAGS_output_dir.empty());
+
+  auto symbol_table = std::shared_ptr<fst::SymbolTable>(
+      fst::SymbolTable::ReadText(FLAGS_unit_path));
+  // same table as the runtime, which adds the context tag on load
+  symbol_table->AddSymbol("@");
+
+  // sorted and deduplicated like the phrase map of the runtime
+  std::map<std::string, float> contexts;
+  std::ifstream infile(FLAGS_context_path);
+  std::string line;
+  while (getline(infile, line)) {
+    std::string context = wenet::Trim(line);
+    if (!context.empty()) {
+      contexts[context] = FLAGS_context_score;
+    }
+  }
+  std::vector<std::string> phrases;
+  std::vector<float> scores;
+  for (const auto& context : contexts) {
+    phrases.push_back(context.first);
+    scores.push_back(context.second);
+  }
+
+  wenet::ContextConfig config;
+  config.context_score = FLAGS_context_score;
+  wenet::ContextGraph graph(config);
+  graph.BuildContextGraph(phrases, scores, symbol_table);
+  std::string path = FLAGS_output_dir + "/context_" +
+                     graph.CacheKey(phrases, scores, symbol_table) + ".fst";
+  CHECK(graph.Write(path)) << "Can't write " << path;
+  LOG(INFO) << "Compiled " << phrases.size() << " contexts to " << path;
+  return 0;
+}
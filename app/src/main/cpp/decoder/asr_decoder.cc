@@ -57,6 +57,7 @@ void AsrDecoder::Reset() {
   start_ = false;
   result_.clear();
   num_frames_ = 0;
+  decode_time_us_ = 0;
   global_frame_offset_ = 0;
   model_->Reset();
   searcher_->Reset();
@@ -73,6 +74,16 @@ void AsrDecoder::ResetContinuousDecoding() {
   ctc_endpointer_->Reset();
 }
 
+void AsrDecoder::SetContextGraph(std::shared_ptr<ContextGraph> context_graph) {
+  if (nullptr == fst_) {
+    searcher_.reset(new CtcPrefixBeamSearch(opts_.ctc_prefix_search_opts,
+                                            context_graph));
+  } else {
+    searcher_.reset(new CtcWfstBeamSearch(*fst_, opts_.ctc_wfst_search_opts,
+                                          context_graph));
+  }
+}
+
 DecodeState AsrDecoder::Decode(bool block) {
   return this->AdvanceDecoding(block);
 }
@@ -81,6 +92,7 @@ void AsrDecoder::Rescoring() {
   // Do attention rescoring
   Timer timer;
   AttentionRescoring();
+  decode_time_us_ += timer.ElapsedUs();
   VLOG(2) << "Rescoring cost latency: " << timer.Elapsed() << "ms.";
 }
 
@@ -106,12 +118,13 @@ DecodeState AsrDecoder::AdvanceDecoding(bool block) {
   Timer timer;
   std::vector<std::vector<float>> ctc_log_probs;
   model_->ForwardEncoder(chunk_feats, &ctc_log_probs);
-  int forward_time = timer.Elapsed();
+  int64_t forward_time = timer.ElapsedUs();
   timer.Reset();
   searcher_->Search(ctc_log_probs);
-  int search_time = timer.Elapsed();
-  VLOG(3) << "forward takes " << forward_time << " ms, search takes "
-          << search_time << " ms";
+  int64_t search_time = timer.ElapsedUs();
+  decode_time_us_ += forward_time + search_time;
+  VLOG(3) << "forward takes " << forward_time / 1000 << " ms, search takes "
+          << search_time / 1000 << " ms";
   UpdateResult();
 
   if (state != DecodeState::kEndFeats) {
@@ -109,6 +109,9 @@ class AsrDecoder {
   void Rescoring();
   void Reset();
   void ResetContinuousDecoding();
+  // Replaces the context graph of the searcher. Hypotheses hold states of the
+  // old graph, so only call it right after Reset() or ResetContinuousDecoding().
+  void SetContextGraph(std::shared_ptr<ContextGraph> context_graph);
   bool DecodedSomething() const {
     return !result_.empty() && !result_[0].sentence.empty();
   }
@@ -127,6 +130,9 @@ class AsrDecoder {
            feature_pipeline_->config().sample_rate;
   }
   const std::vector<DecodeResult>& result() const { return result_; }
+  // Encoder, search and rescoring time since Reset(), waiting for features
+  // not included, for the real time factor
+  int64_t decode_time_us() const { return decode_time_us_; }
 
  private:
   DecodeState AdvanceDecoding(bool block = true);
@@ -148,6 +154,7 @@ class AsrDecoder {
   bool start_ = false;
   // For continuous decoding
   int num_frames_ = 0;
+  int64_t decode_time_us_ = 0;
   int global_frame_offset_ = 0;
   const int time_stamp_gap_ = 100;  // timestamp gap between words in a sentence
 
@@ -15,6 +15,11 @@
 
 #include "decoder/context_graph.h"
 
+#include <unistd.h>
+
+#include <atomic>
+#include <cstdio>
+#include <fstream>
 #include <utility>
 
 #include "fst/determinize.h"
@@ -28,7 +33,17 @@ ContextGraph::ContextGraph(ContextConfig config) : config_(config) {}
 void ContextGraph::BuildContextGraph(
     const std::vector<std::string>& query_contexts,
     const std::shared_ptr<fst::SymbolTable>& symbol_table) {
+  std::vector<float> context_scores(query_contexts.size(),
+                                    config_.context_score);
+  BuildContextGraph(query_contexts, context_scores, symbol_table);
+}
+
+void ContextGraph::BuildContextGraph(
+    const std::vector<std::string>& query_contexts,
+    const std::vector<float>& context_scores,
+    const std::shared_ptr<fst::SymbolTable>& symbol_table) {
   CHECK(symbol_table != nullptr) << "Symbols table should not be nullptr!";
+  CHECK_EQ(query_contexts.size(), context_scores.size());
   start_tag_id_ = symbol_table->AddSymbol("@");
   end_tag_id_ = symbol_table->AddSymbol("@");
   symbol_table_ = symbol_table;
@@ -45,7 +60,8 @@ void ContextGraph::BuildContextGraph(
 
   LOG(INFO) << "Contexts count size: " << query_contexts.size();
   int count = 0;
-  for (const auto& context : query_contexts) {
+  for (size_t c = 0; c < query_contexts.size(); ++c) {
+    const auto& context = query_contexts[c];
     if (context.size() > config_.max_context_length) {
       LOG(INFO) << "Skip long context: " << context;
       continue;
@@ -65,7 +81,7 @@ void ContextGraph::BuildContextGraph(
     float escape_score = 0;
     for (size_t i = 0; i < words.size(); ++i) {
       int word_id = symbol_table_->Find(words[i]);
-      float score = config_.context_score * UTF8StringLength(words[i]);
+      float score = context_scores[c] * UTF8StringLength(words[i]);
       next_state = (i < words.size() - 1) ? ofst->AddState() : start_state;
       ofst->AddArc(prev_state,
                    fst::StdArc(word_id, word_id, score, next_state));
@@ -83,6 +99,67 @@ void ContextGraph::BuildContextGraph(
   graph_ = std::move(det_fst);
 }
 
+bool ContextGraph::Write(const std::string& path) const {
+  if (graph_ == nullptr) return false;
+  fst::StdConstFst const_fst(*graph_);
+  // unique per writer, engines sharing the cache dir may write the same graph
+  static std::atomic<int> writes(0);
+  std::string tmp_path = path + ".tmp." + std::to_string(getpid()) + "." +
+                         std::to_string(writes++);
+  {
+    std::ofstream strm(tmp_path, std::ios_base::out | std::ios_base::binary);
+    // aligned so the arcs can be used straight from the mapped file
+    fst::FstWriteOptions opts(tmp_path);
+    opts.align = true;
+    if (!strm || !const_fst.Write(strm, opts) || !strm.flush()) {
+      std::remove(tmp_path.c_str());
+      return false;
+    }
+  }
+  return std::rename(tmp_path.c_str(), path.c_str()) == 0;
+}
+
+bool ContextGraph::Read(const std::string& path,
+                        const std::shared_ptr<fst::SymbolTable>& symbol_table) {
+  std::ifstream strm(path, std::ios_base::in | std::ios_base::binary);
+  if (!strm) return false;
+  fst::FstReadOptions opts(path);
+  opts.mode = fst::FstReadOptions::MAP;
+  std::unique_ptr<fst::StdConstFst> const_fst(
+      fst::StdConstFst::Read(strm, opts));
+  if (const_fst == nullptr) return false;
+  start_tag_id_ = symbol_table->AddSymbol("@");
+  end_tag_id_ = symbol_table->AddSymbol("@");
+  symbol_table_ = symbol_table;
+  graph_ = std::move(const_fst);
+  return true;
+}
+
+std::string ContextGraph::CacheKey(
+    const std::vector<std::string>& query_contexts,
+    const std::vector<float>& context_scores,
+    const std::shared_ptr<fst::SymbolTable>& symbol_table) const {
+  // 64 bit FNV-1a, stable across runs and builds unlike std::hash
+  uint64_t hash = 14695981039346656037ULL;
+  auto update = [&hash](const void* data, size_t size) {
+    const auto* bytes = static_cast<const unsigned char*>(data);
+    for (size_t i = 0; i < size; ++i) {
+      hash = (hash ^ bytes[i]) * 1099511628211ULL;
+    }
+  };
+  std::string units = symbol_table->LabeledCheckSum();
+  update(units.data(), units.size());
+  update(&config_.max_contexts, sizeof(config_.max_contexts));
+  update(&config_.max_context_length, sizeof(config_.max_context_length));
+  for (size_t i = 0; i < query_contexts.size(); ++i) {
+    update(query_contexts[i].data(), query_contexts[i].size() + 1);
+    update(&context_scores[i], sizeof(float));
+  }
+  char key[17];
+  snprintf(key, sizeof(key), "%016llx", static_cast<unsigned long long>(hash));
+  return key;
+}
+
 int ContextGraph::GetNextState(int cur_state, int word_id, float* score,
                                bool* is_start_boundary, bool* is_end_boundary) {
   int next_state = 0;
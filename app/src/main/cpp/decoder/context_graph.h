@@ -21,6 +21,7 @@
 #include <vector>
 
 #include "fst/compose.h"
+#include "fst/const-fst.h"
 #include "fst/fst.h"
 #include "fst/vector-fst.h"
 
@@ -39,6 +40,19 @@ class ContextGraph {
   explicit ContextGraph(ContextConfig config);
   void BuildContextGraph(const std::vector<std::string>& query_context,
                          const std::shared_ptr<fst::SymbolTable>& symbol_table);
+  // Same with a boost per context instead of config.context_score.
+  void BuildContextGraph(const std::vector<std::string>& query_context,
+                         const std::vector<float>& context_scores,
+                         const std::shared_ptr<fst::SymbolTable>& symbol_table);
+  // Compiled graph as an aligned ConstFst, Read() maps it instead of building.
+  bool Write(const std::string& path) const;
+  bool Read(const std::string& path,
+            const std::shared_ptr<fst::SymbolTable>& symbol_table);
+  // Key of a compiled graph: phrases, scores, config and the units table.
+  std::string CacheKey(const std::vector<std::string>& query_context,
+                       const std::vector<float>& context_scores,
+                       const std::shared_ptr<fst::SymbolTable>& symbol_table)
+      const;
   int GetNextState(int cur_state, int word_id, float* score,
                    bool* is_start_boundary, bool* is_end_boundary);
 
@@ -50,7 +64,8 @@ class ContextGraph {
   int end_tag_id_ = -1;
   ContextConfig config_;
   std::shared_ptr<fst::SymbolTable> symbol_table_ = nullptr;
-  std::unique_ptr<fst::StdVectorFst> graph_ = nullptr;
+  // a built StdVectorFst or a mapped StdConstFst
+  std::unique_ptr<fst::StdFst> graph_ = nullptr;
   DISALLOW_COPY_AND_ASSIGN(ContextGraph);
 };
 
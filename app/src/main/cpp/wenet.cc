@@ -11,7 +11,17 @@
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
 // limitations under the License.
+#include <dirent.h>
 #include <jni.h>
+#include <sys/stat.h>
+#include <utime.h>
+
+#include <algorithm>
+#include <chrono>
+#include <condition_variable>
+#include <ctime>
+#include <map>
+#include <mutex>
 
 #include "torch/script.h"
 #include "torch/torch.h"
@@ -26,82 +36,575 @@
 
 namespace wenet {
 
-std::shared_ptr<DecodeOptions> decode_config;
-std::shared_ptr<FeaturePipelineConfig> feature_config;
-std::shared_ptr<FeaturePipeline> feature_pipeline;
-std::shared_ptr<AsrDecoder> decoder;
-std::shared_ptr<DecodeResource> resource;
-DecodeState state = kEndBatch;
-std::string total_result;  // NOLINT
+// result callback into Recognize.onNativeResult, cached in JNI_OnLoad
+enum ResultType { kPartialResult = 0, kEndpointResult = 1, kFinalResult = 2 };
+JavaVM* java_vm = nullptr;
+jclass recognize_class = nullptr;
+jmethodID on_result_method = nullptr;
 
-void init(JNIEnv* env, jobject, jstring jModelDir, jboolean jDoContext) {
-  const char* pModelDir = env->GetStringUTFChars(jModelDir, nullptr);
-  std::string modelPath = std::string(pModelDir) + "/final.zip";
-  std::string dictPath = std::string(pModelDir) + "/units.txt";
-  std::string contextPath = std::string(pModelDir) + "/context.txt";
+struct Engine;
+
+// Loaded model and dictionary of a model dir, shared by all engines on that dir.
+struct CachedModel {
+  std::shared_ptr<AsrModel> model;
+  std::shared_ptr<fst::SymbolTable> symbol_table;
+};
+
+std::mutex model_cache_mutex;
+std::map<std::string, CachedModel> model_cache;  // NOLINT
+
+const float kDefaultContextScore = 12.0;
+// longest wait of a new utterance for a context graph still being built
+const int kContextWaitMs = 1000;
+// compiled context graphs kept in a cache dir, the least recently used go first
+const int kContextCacheFiles = 8;
+// temp files of a cache write older than this were left by a crash
+const int kStaleTempSeconds = 600;
+
+// Context phrases of an engine and the graph built from them. Graphs are built
+// on a background thread and published with a new version, sessions switch to
+// the latest one when a segment starts. Shared with the build thread.
+struct ContextPhrases {
+  std::shared_ptr<fst::SymbolTable> symbol_table;
+  // compiled graphs are cached here as context_<key>.fst, other engines on the
+  // same model share them
+  std::string cache_dir;
+  // only used by the one thread building at a time
+  std::string cache_path;
+  std::mutex mutex;
+  std::map<std::string, float> phrases;  // phrase -> boost
+  bool enabled = false;
+  bool dirty = false;
+  bool building = false;
+  std::condition_variable built;
+  std::shared_ptr<ContextGraph> graph;
+  int version = 0;
+};
+
+// One recognition stream: its own feature pipeline, decoder and results, the
+// model weights and graphs come from the engine.
+struct Session {
+  Engine* engine = nullptr;
+  std::shared_ptr<FeaturePipeline> feature_pipeline;
+  std::shared_ptr<AsrDecoder> decoder;
+  // version of the context graph the searcher uses
+  int context_version = -1;
+  DecodeState state = kEndBatch;
+  std::string total_result;
+  // int16 -> float conversion buffer reused across calls, audio is fed by one thread
+  std::vector<float> pcm_buffer;
+
+  // text shown by getResult, written by the decode thread
+  std::mutex result_mutex;
+  std::string current_result;
+
+  std::mutex finished_mutex;
+  std::condition_variable finished_cv;
+  bool decode_finished = true;
+};
 
+// Loaded model shared by a bounded pool of sessions. Closed sessions are kept
+// and reused, so a new session doesn't rebuild the decoder.
+struct Engine {
+  std::shared_ptr<DecodeResource> resource;
+  std::shared_ptr<ContextPhrases> context;
+  std::shared_ptr<FeaturePipelineConfig> feature_config;
+  std::shared_ptr<DecodeOptions> decode_config;
+
+  std::mutex pool_mutex;
+  int max_sessions = 1;
+  int open_sessions = 0;
+  std::vector<Session*> idle_sessions;
+  bool released = false;
+};
+
+Engine* to_engine(jlong handle) { return reinterpret_cast<Engine*>(handle); }
+Session* to_session(jlong handle) { return reinterpret_cast<Session*>(handle); }
+
+// Model files are read once per model dir, the weights are shared by all
+// decoders and stay loaded for the lifetime of the process.
+CachedModel load_model(const std::string& model_dir) {
+  std::lock_guard<std::mutex> lock(model_cache_mutex);
+  auto it = model_cache.find(model_dir);
+  if (it != model_cache.end()) {
+    return it->second;
+  }
+  std::string modelPath = model_dir + "/final.zip";
+  std::string dictPath = model_dir + "/units.txt";
+
+  CachedModel cached;
   auto model = std::make_shared<TorchAsrModel>();
   model->Read(modelPath);
+  cached.model = model;
   LOG(INFO) << "model path: " << modelPath;
-
-  resource = std::make_shared<DecodeResource>();
-  resource->model = model;
   // load word dictionary to fst
-  resource->symbol_table = std::shared_ptr<fst::SymbolTable>(
+  cached.symbol_table = std::shared_ptr<fst::SymbolTable>(
           fst::SymbolTable::ReadText(dictPath));
+  // context tag, added before the table is shared so graph builds only read it
+  cached.symbol_table->AddSymbol("@");
   LOG(INFO) << "dict path: " << dictPath;
+  model_cache[model_dir] = cached;
+  return cached;
+}
+
+std::vector<std::string> read_context_file(const std::string& model_dir) {
+  std::string contextPath = model_dir + "/context.txt";
+  std::vector<std::string> contexts;
+  std::ifstream infile(contextPath);
+  std::string context;
+  while (getline(infile, context)) {
+      contexts.emplace_back(Trim(context));
+  }
+  return contexts;
+}
+
+// Trims the graph cache to the kContextCacheFiles most recently used graphs.
+// A graph another engine has mapped stays valid when its file is removed, the
+// engine only builds it again on its next switch to it.
+void prune_context_cache(const std::string& cache_dir) {
+  DIR* dir = opendir(cache_dir.c_str());
+  if (dir == nullptr) {
+    return;
+  }
+  std::vector<std::pair<time_t, std::string>> graphs;
+  time_t now = time(nullptr);
+  while (dirent* entry = readdir(dir)) {
+    std::string name = entry->d_name;
+    if (name.compare(0, 8, "context_") != 0) {
+      continue;
+    }
+    std::string path = cache_dir + "/" + name;
+    struct stat st;
+    if (stat(path.c_str(), &st) != 0) {
+      continue;
+    }
+    if (name.find(".tmp") != std::string::npos) {
+      if (now - st.st_mtime > kStaleTempSeconds) {
+        std::remove(path.c_str());
+      }
+    } else if (name.size() > 4 && name.compare(name.size() - 4, 4, ".fst") == 0) {
+      graphs.emplace_back(st.st_mtime, path);
+    }
+  }
+  closedir(dir);
+  if (graphs.size() <= static_cast<size_t>(kContextCacheFiles)) {
+    return;
+  }
+  std::sort(graphs.begin(), graphs.end());
+  for (size_t i = 0; i < graphs.size() - kContextCacheFiles; ++i) {
+    std::remove(graphs[i].second.c_str());
+  }
+}
+
+// Maps the compiled graph of the phrases from the cache dir, only builds and
+// writes it when the phrases, the boosts or the units table changed.
+std::shared_ptr<ContextGraph> load_context_graph(
+    const std::vector<std::string>& phrases, const std::vector<float>& boosts,
+    ContextPhrases* context) {
+  if (phrases.empty()) {
+    return nullptr;
+  }
+  ContextConfig config;
+  config.context_score = kDefaultContextScore;
+  auto graph = std::make_shared<ContextGraph>(config);
+  std::string path = context->cache_dir + "/context_" +
+      graph->CacheKey(phrases, boosts, context->symbol_table) + ".fst";
+  if (graph->Read(path, context->symbol_table)) {
+    // a cache hit counts as a use for the pruning
+    utime(path.c_str(), nullptr);
+  } else {
+    graph->BuildContextGraph(phrases, boosts, context->symbol_table);
+    if (!graph->Write(path)) {
+      LOG(WARNING) << "Can't write context graph cache " << path;
+    }
+  }
+  if (context->cache_path != path) {
+    context->cache_path = path;
+    prune_context_cache(context->cache_dir);
+  }
+  return graph;
+}
 
-  if (jDoContext != 0) {
-      std::vector<std::string> contexts;
-      std::ifstream infile(contextPath);
-      std::string context;
-      while (getline(infile, context)) {
-          contexts.emplace_back(Trim(context));
+void context_build_thread(std::shared_ptr<ContextPhrases> context) {
+  while (true) {
+    std::vector<std::string> phrases;
+    std::vector<float> boosts;
+    {
+      std::lock_guard<std::mutex> lock(context->mutex);
+      if (!context->dirty) {
+        context->building = false;
+        context->built.notify_all();
+        return;
       }
-      ContextConfig config;
-      config.context_score = 12.0;
-      resource->context_graph = std::make_shared<ContextGraph>(config);
-      resource->context_graph->BuildContextGraph(contexts, resource->symbol_table);
+      context->dirty = false;
+      if (context->enabled) {
+        for (const auto& phrase : context->phrases) {
+          phrases.push_back(phrase.first);
+          boosts.push_back(phrase.second);
+        }
+      }
+    }
+    // no lock held, decoding and further updates go on during the build
+    std::shared_ptr<ContextGraph> graph =
+        load_context_graph(phrases, boosts, context.get());
+    std::lock_guard<std::mutex> lock(context->mutex);
+    context->graph = graph;
+    ++context->version;
   }
+}
+
+// Call with context->mutex held. Changes made during a build are picked up by
+// the next round of the running build thread.
+void schedule_context_build(const std::shared_ptr<ContextPhrases>& context) {
+  context->dirty = true;
+  if (context->building) {
+    return;
+  }
+  context->building = true;
+  std::thread build_thread(context_build_thread, context);
+  build_thread.detach();
+}
+
+// Switches the searcher to the latest context graph. Hypotheses hold states of
+// the graph, so this only runs when a segment starts.
+void update_context(Session* session) {
+  std::shared_ptr<ContextPhrases>& context = session->engine->context;
+  std::shared_ptr<ContextGraph> graph;
+  {
+    std::lock_guard<std::mutex> lock(context->mutex);
+    if (context->version == session->context_version) {
+      return;
+    }
+    graph = context->graph;
+    session->context_version = context->version;
+  }
+  session->decoder->SetContextGraph(graph);
+}
+
+// A context switch right before an utterance, e.g. the hotword toggle, is
+// still building at its reset. The first chunk waits for it, so the utterance
+// decodes with the new graph and not from its first endpoint on.
+void wait_context_built(Session* session) {
+  std::shared_ptr<ContextPhrases>& context = session->engine->context;
+  std::unique_lock<std::mutex> lock(context->mutex);
+  if (!context->built.wait_for(lock, std::chrono::milliseconds(kContextWaitMs),
+                               [&context] { return !context->building; })) {
+    LOG(WARNING) << "Context graph not built in " << kContextWaitMs
+                 << " ms, the utterance starts with the previous one";
+  }
+}
+
+jlong create_engine(JNIEnv* env, jobject, jstring jModelDir,
+                    jboolean jDoContext, jint jMaxSessions) {
+  const char* pModelDir = env->GetStringUTFChars(jModelDir, nullptr);
+  std::string model_dir(pModelDir);
+  env->ReleaseStringUTFChars(jModelDir, pModelDir);
+
+  auto* engine = new Engine();
+  engine->max_sessions = std::max(1, static_cast<int>(jMaxSessions));
+
+  CachedModel cached = load_model(model_dir);
+  auto resource = std::make_shared<DecodeResource>();
+  resource->model = cached.model;
+  resource->symbol_table = cached.symbol_table;
+
+  // context.txt is the initial phrase list, the graph is set per session
+  auto context = std::make_shared<ContextPhrases>();
+  context->symbol_table = cached.symbol_table;
+  context->cache_dir = model_dir;
+  for (const auto& phrase : read_context_file(model_dir)) {
+    if (!phrase.empty()) {
+      context->phrases[phrase] = kDefaultContextScore;
+    }
+  }
+  context->enabled = jDoContext != 0;
+  if (context->enabled) {
+    // usually mapped from the cache, startup doesn't grow with the phrase list
+    std::vector<std::string> phrases;
+    std::vector<float> boosts;
+    for (const auto& phrase : context->phrases) {
+      phrases.push_back(phrase.first);
+      boosts.push_back(phrase.second);
+    }
+    context->graph = load_context_graph(phrases, boosts, context.get());
+  }
+  engine->context = context;
 
   PostProcessOptions post_process_opts;
   resource->post_processor =
     std::make_shared<PostProcessor>(post_process_opts);
+  engine->resource = resource;
 
-  feature_config = std::make_shared<FeaturePipelineConfig>(80, 16000);
-  feature_pipeline = std::make_shared<FeaturePipeline>(*feature_config);
+  engine->feature_config = std::make_shared<FeaturePipelineConfig>(80, 16000);
+  engine->decode_config = std::make_shared<DecodeOptions>();
+  engine->decode_config->chunk_size = 16;
+  LOG(INFO) << "Finished resource loading";
+  return reinterpret_cast<jlong>(engine);
+}
+
+// Turns context biasing on or off without touching the model.
+void set_context(JNIEnv*, jobject, jlong jEngine, jboolean jDoContext) {
+  std::shared_ptr<ContextPhrases>& context = to_engine(jEngine)->context;
+  std::lock_guard<std::mutex> lock(context->mutex);
+  if (context->enabled == (jDoContext != 0)) {
+    return;
+  }
+  context->enabled = jDoContext != 0;
+  schedule_context_build(context);
+}
 
-  decode_config = std::make_shared<DecodeOptions>();
-  decode_config->chunk_size = 16;
+std::vector<std::string> to_strings(JNIEnv* env, jobjectArray jStrings) {
+  std::vector<std::string> strings;
+  jsize count = env->GetArrayLength(jStrings);
+  for (jsize i = 0; i < count; ++i) {
+    auto jString = reinterpret_cast<jstring>(env->GetObjectArrayElement(jStrings, i));
+    const char* pString = env->GetStringUTFChars(jString, nullptr);
+    strings.emplace_back(Trim(pString));
+    env->ReleaseStringUTFChars(jString, pString);
+    env->DeleteLocalRef(jString);
+  }
+  return strings;
+}
 
-  decoder = std::make_shared<AsrDecoder>(feature_pipeline, resource,
-                                              *decode_config);
-  LOG(INFO) << "Finished resource loading";
+void put_context_phrases(JNIEnv* env, jlong jEngine, jobjectArray jPhrases,
+                         jfloatArray jBoosts, bool replace) {
+  std::vector<std::string> phrases = to_strings(env, jPhrases);
+  std::vector<float> boosts(phrases.size());
+  env->GetFloatArrayRegion(jBoosts, 0, phrases.size(), boosts.data());
+  std::shared_ptr<ContextPhrases>& context = to_engine(jEngine)->context;
+  std::lock_guard<std::mutex> lock(context->mutex);
+  if (replace) {
+    context->phrases.clear();
+  }
+  for (size_t i = 0; i < phrases.size(); ++i) {
+    if (!phrases[i].empty()) {
+      context->phrases[phrases[i]] = boosts[i];
+    }
+  }
+  schedule_context_build(context);
+}
+
+void add_context_phrases(JNIEnv* env, jobject, jlong jEngine,
+                         jobjectArray jPhrases, jfloatArray jBoosts) {
+  put_context_phrases(env, jEngine, jPhrases, jBoosts, false);
+}
+
+void replace_context_phrases(JNIEnv* env, jobject, jlong jEngine,
+                             jobjectArray jPhrases, jfloatArray jBoosts) {
+  put_context_phrases(env, jEngine, jPhrases, jBoosts, true);
+}
+
+void remove_context_phrases(JNIEnv* env, jobject, jlong jEngine,
+                            jobjectArray jPhrases) {
+  std::vector<std::string> phrases = to_strings(env, jPhrases);
+  std::shared_ptr<ContextPhrases>& context = to_engine(jEngine)->context;
+  std::lock_guard<std::mutex> lock(context->mutex);
+  for (const auto& phrase : phrases) {
+    context->phrases.erase(phrase);
+  }
+  schedule_context_build(context);
+}
+
+void release_engine(JNIEnv*, jobject, jlong jEngine) {
+  Engine* engine = to_engine(jEngine);
+  std::vector<Session*> idle;
+  bool unused;
+  {
+    std::lock_guard<std::mutex> lock(engine->pool_mutex);
+    engine->released = true;
+    idle.swap(engine->idle_sessions);
+    unused = engine->open_sessions == 0;
+  }
+  for (Session* session : idle) {
+    delete session;
+  }
+  // otherwise the last closed session deletes the engine
+  if (unused) {
+    delete engine;
+  }
+}
+
+jlong create_session(JNIEnv*, jobject, jlong jEngine) {
+  Engine* engine = to_engine(jEngine);
+  Session* session = nullptr;
+  {
+    std::lock_guard<std::mutex> lock(engine->pool_mutex);
+    if (engine->released || engine->open_sessions >= engine->max_sessions) {
+      return 0;
+    }
+    ++engine->open_sessions;
+    if (!engine->idle_sessions.empty()) {
+      session = engine->idle_sessions.back();
+      engine->idle_sessions.pop_back();
+    }
+  }
+  if (session == nullptr) {
+    session = new Session();
+    session->engine = engine;
+    session->feature_pipeline =
+        std::make_shared<FeaturePipeline>(*engine->feature_config);
+    session->decoder = std::make_shared<AsrDecoder>(
+        session->feature_pipeline, engine->resource, *engine->decode_config);
+  }
+  update_context(session);
+  return reinterpret_cast<jlong>(session);
+}
+
+void wait_decode_finished(Session* session) {
+  std::unique_lock<std::mutex> lock(session->finished_mutex);
+  session->finished_cv.wait(lock, [session] { return session->decode_finished; });
+}
+
+void reset(JNIEnv*, jobject, jlong jSession) {
+  Session* session = to_session(jSession);
+  // the decode thread of the last utterance may still be shutting down
+  wait_decode_finished(session);
+  session->decoder->Reset();
+  update_context(session);
+  session->state = kEndBatch;
+  session->total_result = "";
+  std::lock_guard<std::mutex> lock(session->result_mutex);
+  session->current_result = "";
+}
+
+void close_session(JNIEnv* env, jobject obj, jlong jSession) {
+  Session* session = to_session(jSession);
+  {
+    std::lock_guard<std::mutex> lock(session->finished_mutex);
+    if (!session->decode_finished &&
+        !session->feature_pipeline->input_finished()) {
+      // let a running decode thread drain and exit
+      session->feature_pipeline->set_input_finished();
+    }
+  }
+  reset(env, obj, jSession);
+
+  Engine* engine = session->engine;
+  bool delete_engine = false;
+  {
+    std::lock_guard<std::mutex> lock(engine->pool_mutex);
+    --engine->open_sessions;
+    if (engine->released) {
+      delete_engine = engine->open_sessions == 0;
+    } else {
+      engine->idle_sessions.push_back(session);
+      session = nullptr;
+    }
+  }
+  delete session;
+  if (delete_engine) {
+    delete engine;
+  }
 }
 
-void reset(JNIEnv *env, jobject) {
-  LOG(INFO) << "wenet reset";
-  decoder->Reset();
-  state = kEndBatch;
-  total_result = "";
+void append_pcm(Session* session, const int16_t* pcm, int size, int pos) {
+  for (int i = 0; i < size; ++i) {
+    session->pcm_buffer[pos + i] = static_cast<float>(pcm[i]);
+  }
 }
 
-void accept_waveform(JNIEnv *env, jobject, jshortArray jWaveform) {
-  jsize size = env->GetArrayLength(jWaveform);
-  int16_t* waveform = env->GetShortArrayElements(jWaveform, 0);
-  feature_pipeline->AcceptWaveform(waveform, size);
-  LOG(INFO) << "wenet accept waveform in ms: " << int(size / 16);
+void accept_waveform_region(JNIEnv *env, jobject, jlong jSession,
+                            jshortArray jWaveform, jint offset, jint length) {
+  Session* session = to_session(jSession);
+  session->pcm_buffer.resize(length);
+  // critical section is just the conversion, the array is never written back
+  auto* waveform = static_cast<int16_t*>(
+      env->GetPrimitiveArrayCritical(jWaveform, nullptr));
+  append_pcm(session, waveform + offset, length, 0);
+  env->ReleasePrimitiveArrayCritical(jWaveform, waveform, JNI_ABORT);
+  session->feature_pipeline->AcceptWaveform(session->pcm_buffer.data(), length);
 }
 
-void set_input_finished() {
-  LOG(INFO) << "wenet input finished";
-  feature_pipeline->set_input_finished();
+// direct buffers of native order int16 samples, offset and length in samples
+const int16_t* direct_pcm(JNIEnv* env, jobject jBuffer) {
+  auto* pcm = static_cast<const int16_t*>(env->GetDirectBufferAddress(jBuffer));
+  if (pcm == nullptr) {
+    // a heap buffer, or a view the checks on the java side let through
+    jclass c = env->FindClass("java/lang/IllegalArgumentException");
+    env->ThrowNew(c, "Samples must be in a direct buffer");
+  }
+  return pcm;
 }
 
-void decode_thread_func() {
+void accept_waveform_direct(JNIEnv *env, jobject, jlong jSession,
+                            jobject jBuffer, jint offset, jint length) {
+  Session* session = to_session(jSession);
+  const int16_t* pcm = direct_pcm(env, jBuffer);
+  if (pcm == nullptr) {
+    return;
+  }
+  session->pcm_buffer.resize(length);
+  append_pcm(session, pcm + offset, length, 0);
+  session->feature_pipeline->AcceptWaveform(session->pcm_buffer.data(), length);
+}
+
+void accept_waveform_frames(JNIEnv *env, jobject, jlong jSession, jobject jBuffer,
+                            jintArray jOffsets, jintArray jLengths) {
+  Session* session = to_session(jSession);
+  const int16_t* pcm = direct_pcm(env, jBuffer);
+  if (pcm == nullptr) {
+    return;
+  }
+  jsize count = env->GetArrayLength(jOffsets);
+  jint* offsets = env->GetIntArrayElements(jOffsets, nullptr);
+  jint* lengths = env->GetIntArrayElements(jLengths, nullptr);
+  int total = 0;
+  for (jsize i = 0; i < count; ++i) {
+    total += lengths[i];
+  }
+  // all frames go through the fbank and the feature queue in one step
+  session->pcm_buffer.resize(total);
+  int pos = 0;
+  for (jsize i = 0; i < count; ++i) {
+    append_pcm(session, pcm + offsets[i], lengths[i], pos);
+    pos += lengths[i];
+  }
+  env->ReleaseIntArrayElements(jOffsets, offsets, JNI_ABORT);
+  env->ReleaseIntArrayElements(jLengths, lengths, JNI_ABORT);
+  session->feature_pipeline->AcceptWaveform(session->pcm_buffer.data(), total);
+}
+
+void set_input_finished(JNIEnv*, jobject, jlong jSession) {
+  VLOG(1) << "wenet input finished";
+  to_session(jSession)->feature_pipeline->set_input_finished();
+}
+
+void notify_result(JNIEnv* env, Session* session, ResultType type,
+                   const std::string& text) {
+  {
+    std::lock_guard<std::mutex> lock(session->result_mutex);
+    session->current_result = text;
+  }
+  if (env == nullptr) {
+    return;
+  }
+  jstring jText = env->NewStringUTF(text.c_str());
+  env->CallStaticVoidMethod(recognize_class, on_result_method,
+                            reinterpret_cast<jlong>(session),
+                            static_cast<jint>(type), jText);
+  if (env->ExceptionCheck()) {
+    // a throwing listener must not kill the decode thread
+    env->ExceptionDescribe();
+    env->ExceptionClear();
+  }
+  env->DeleteLocalRef(jText);
+}
+
+void decode_thread_func(Session* session) {
+  JNIEnv* env = nullptr;
+  if (java_vm->AttachCurrentThread(&env, nullptr) != JNI_OK) {
+    LOG(ERROR) << "wenet decode thread can't attach to jvm";
+    env = nullptr;
+  }
+
+  auto& decoder = session->decoder;
+  // nothing is decoded yet, the searcher can still switch graphs
+  wait_context_built(session);
+  update_context(session);
+  std::string last_partial;
   while (true) {
-    state = decoder->Decode();  // first pass
-    if (state == kEndFeats || state == kEndpoint) {
+    session->state = decoder->Decode();  // first pass
+    if (session->state == kEndFeats || session->state == kEndpoint) {
       decoder->Rescoring();  // second pass final
     }
 
@@ -110,42 +613,71 @@ void decode_thread_func() {
       result = decoder->result()[0].sentence;
     }
 
-    if (state == kEndFeats) {
-      LOG(INFO) << "wenet endfeats final result: " << result;
-      total_result += result;
+    if (session->state == kEndFeats) {
+      VLOG(1) << "wenet endfeats final result: " << result;
+      session->total_result += result;
+      notify_result(env, session, kFinalResult, session->total_result);
       break;
-    } else if (state == kEndpoint) {
-      LOG(INFO) << "wenet endpoint final result: " << result;
-      total_result += result + "，";
+    } else if (session->state == kEndpoint) {
+      VLOG(1) << "wenet endpoint final result: " << result;
+      session->total_result += result + "，";
       decoder->ResetContinuousDecoding();
-    } else {
-      if (decoder->DecodedSomething()) {
-        LOG(INFO) << "wenet partial result: " << result;
-      }
+      update_context(session);  // phrase updates apply from the next segment
+      last_partial.clear();
+      notify_result(env, session, kEndpointResult, session->total_result);
+    } else if (result != last_partial) {
+      // most chunks don't change the hypothesis
+      last_partial = result;
+      notify_result(env, session, kPartialResult, session->total_result + result);
     }
   }
+
+  if (env != nullptr) {
+    java_vm->DetachCurrentThread();
+  }
+  std::lock_guard<std::mutex> lock(session->finished_mutex);
+  session->decode_finished = true;
+  session->finished_cv.notify_all();
 }
 
-void start_decode() {
-  std::thread decode_thread(decode_thread_func);
+void start_decode(JNIEnv*, jobject, jlong jSession) {
+  Session* session = to_session(jSession);
+  {
+    std::lock_guard<std::mutex> lock(session->finished_mutex);
+    session->decode_finished = false;
+  }
+  std::thread decode_thread(decode_thread_func, session);
   decode_thread.detach();
 }
 
-jboolean get_finished(JNIEnv *env, jobject) {
-  if (state == kEndFeats) {
-    LOG(INFO) << "wenet recognize finished";
+jboolean get_finished(JNIEnv*, jobject, jlong jSession) {
+  Session* session = to_session(jSession);
+  std::lock_guard<std::mutex> lock(session->finished_mutex);
+  return session->decode_finished ? JNI_TRUE : JNI_FALSE;
+}
+
+jboolean wait_finished(JNIEnv*, jobject, jlong jSession, jlong jTimeoutMs) {
+  Session* session = to_session(jSession);
+  if (jTimeoutMs <= 0) {
+    wait_decode_finished(session);
     return JNI_TRUE;
   }
-  return JNI_FALSE;
+  std::unique_lock<std::mutex> lock(session->finished_mutex);
+  return session->finished_cv.wait_for(
+      lock, std::chrono::milliseconds(jTimeoutMs),
+      [session] { return session->decode_finished; }) ? JNI_TRUE : JNI_FALSE;
 }
 
-jstring get_result(JNIEnv *env, jobject) {
-  std::string result;
-  if (decoder->DecodedSomething()) {
-    result = decoder->result()[0].sentence;
-  }
-  LOG(INFO) << "wenet ui result: " << total_result + result;
-  return env->NewStringUTF((total_result + result).c_str());
+// decoder time of the session since reset, read it on the decode thread,
+// e.g. in the listener of the final result
+jlong get_decode_micros(JNIEnv*, jobject, jlong jSession) {
+  return to_session(jSession)->decoder->decode_time_us();
+}
+
+jstring get_result(JNIEnv *env, jobject, jlong jSession) {
+  Session* session = to_session(jSession);
+  std::lock_guard<std::mutex> lock(session->result_mutex);
+  return env->NewStringUTF(session->current_result.c_str());
 }
 }  // namespace wenet
 
@@ -160,18 +692,44 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *) {  // vm -> DVM vitrual machine
     return JNI_ERR;
   }
 
+  // native threads can't find app classes, keep what the decode thread calls
+  wenet::java_vm = vm;
+  wenet::recognize_class = reinterpret_cast<jclass>(env->NewGlobalRef(c));
+  wenet::on_result_method = env->GetStaticMethodID(
+      c, "onNativeResult", "(JILjava/lang/String;)V");
+  if (wenet::on_result_method == nullptr) {
+    return JNI_ERR;
+  }
+
   static const JNINativeMethod methods[] = {
-    {"init", "(Ljava/lang/String;Ljava/lang/Boolean;)V",
-     reinterpret_cast<void *>(wenet::init)},
-    {"reset", "()V", reinterpret_cast<void *>(wenet::reset)},
-    {"acceptWaveform", "([S)V",
-     reinterpret_cast<void *>(wenet::accept_waveform)},
-    {"setInputFinished", "()V",
+    {"createEngine", "(Ljava/lang/String;ZI)J",
+     reinterpret_cast<void *>(wenet::create_engine)},
+    {"releaseEngine", "(J)V", reinterpret_cast<void *>(wenet::release_engine)},
+    {"setContext", "(JZ)V", reinterpret_cast<void *>(wenet::set_context)},
+    {"addContextPhrasesNative", "(J[Ljava/lang/String;[F)V",
+     reinterpret_cast<void *>(wenet::add_context_phrases)},
+    {"replaceContextPhrasesNative", "(J[Ljava/lang/String;[F)V",
+     reinterpret_cast<void *>(wenet::replace_context_phrases)},
+    {"removeContextPhrases", "(J[Ljava/lang/String;)V",
+     reinterpret_cast<void *>(wenet::remove_context_phrases)},
+    {"createSessionNative", "(J)J", reinterpret_cast<void *>(wenet::create_session)},
+    {"releaseSession", "(J)V", reinterpret_cast<void *>(wenet::close_session)},
+    {"reset", "(J)V", reinterpret_cast<void *>(wenet::reset)},
+    {"acceptWaveformRegion", "(J[SII)V",
+     reinterpret_cast<void *>(wenet::accept_waveform_region)},
+    {"acceptWaveformDirect", "(JLjava/nio/Buffer;II)V",
+     reinterpret_cast<void *>(wenet::accept_waveform_direct)},
+    {"acceptWaveformFrames", "(JLjava/nio/Buffer;[I[I)V",
+     reinterpret_cast<void *>(wenet::accept_waveform_frames)},
+    {"setInputFinished", "(J)V",
      reinterpret_cast<void *>(wenet::set_input_finished)},
-    {"getFinished", "()Z", reinterpret_cast<void *>(wenet::get_finished)},
-    {"startDecode", "()V", reinterpret_cast<void *>(wenet::start_decode)},
-    {"getResult", "()Ljava/lang/String;",
+    {"getFinished", "(J)Z", reinterpret_cast<void *>(wenet::get_finished)},
+    {"waitFinished", "(JJ)Z", reinterpret_cast<void *>(wenet::wait_finished)},
+    {"startDecode", "(J)V", reinterpret_cast<void *>(wenet::start_decode)},
+    {"getResult", "(J)Ljava/lang/String;",
      reinterpret_cast<void *>(wenet::get_result)},
+    {"getDecodeMicros", "(J)J",
+     reinterpret_cast<void *>(wenet::get_decode_micros)},
   };
   int rc = env->RegisterNatives(c, methods,
                                 sizeof(methods) / sizeof(JNINativeMethod));
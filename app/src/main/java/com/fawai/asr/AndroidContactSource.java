@@ -0,0 +1,74 @@
+package com.fawai.asr;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Phone numbers of the address book. Changes are found by the last updated and deleted
+ * timestamps of the contacts provider, so a refresh only reads the edited contacts.
+ */
+public class AndroidContactSource implements ContactSource {
+    private static final String[] PHONE_COLUMNS = {
+            Phone.CONTACT_ID, Phone.DISPLAY_NAME, Phone.NUMBER, Phone.CONTACT_LAST_UPDATED_TIMESTAMP};
+    // preferred number of a contact first
+    private static final String PHONE_ORDER =
+            Phone.CONTACT_ID + ", " + Phone.IS_SUPER_PRIMARY + " DESC, " + Phone.IS_PRIMARY + " DESC";
+
+    private final ContentResolver resolver;
+
+    public AndroidContactSource(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public Changes changesSince(long sinceMillis) {
+        long syncedUntil = sinceMillis;
+        List<ContactIndex.Contact> changed = new ArrayList<>();
+        Set<Long> withNumber = new HashSet<>();
+        try (Cursor cursor = resolver.query(Phone.CONTENT_URI, PHONE_COLUMNS,
+                Phone.CONTACT_LAST_UPDATED_TIMESTAMP + ">?",
+                new String[]{Long.toString(sinceMillis)}, PHONE_ORDER)) {
+            while (cursor != null && cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                changed.add(new ContactIndex.Contact(id, cursor.getString(1), cursor.getString(2)));
+                withNumber.add(id);
+                syncedUntil = Math.max(syncedUntil, cursor.getLong(3));
+            }
+        }
+
+        List<Long> deleted = new ArrayList<>();
+        if (sinceMillis > 0) {
+            try (Cursor cursor = resolver.query(ContactsContract.DeletedContacts.CONTENT_URI,
+                    new String[]{ContactsContract.DeletedContacts.CONTACT_ID,
+                            ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP},
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?",
+                    new String[]{Long.toString(sinceMillis)}, null)) {
+                while (cursor != null && cursor.moveToNext()) {
+                    deleted.add(cursor.getLong(0));
+                    syncedUntil = Math.max(syncedUntil, cursor.getLong(1));
+                }
+            }
+            // edited contacts whose last number was removed
+            try (Cursor cursor = resolver.query(ContactsContract.Contacts.CONTENT_URI,
+                    new String[]{ContactsContract.Contacts._ID,
+                            ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP},
+                    ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + ">?",
+                    new String[]{Long.toString(sinceMillis)}, null)) {
+                while (cursor != null && cursor.moveToNext()) {
+                    if (!withNumber.contains(cursor.getLong(0))) {
+                        deleted.add(cursor.getLong(0));
+                    }
+                    syncedUntil = Math.max(syncedUntil, cursor.getLong(1));
+                }
+            }
+        }
+        return new Changes(changed, deleted, syncedUntil);
+    }
+}
@@ -0,0 +1,46 @@
+package com.fawai.asr;
+
+import android.icu.text.Transliterator;
+import android.os.Build;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Toneless pinyin of Chinese characters through the ICU transliterator of the platform,
+ * which is available from Android 10. On older devices every character is its own
+ * syllable, homophones then don't match but near misses still do.
+ */
+public class AndroidSyllableMapper implements ContactIndex.SyllableMapper {
+    private final Map<Integer, String> cache = new ConcurrentHashMap<>();
+    private final ContactIndex.SyllableMapper mapper;
+
+    public AndroidSyllableMapper() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mapper = new Pinyin();
+        } else {
+            mapper = ContactIndex.CHARACTERS;
+        }
+    }
+
+    @Override
+    public String toSyllable(int codePoint) {
+        String syllable = cache.get(codePoint);
+        if (syllable == null) {
+            syllable = mapper.toSyllable(codePoint);
+            cache.put(codePoint, syllable);
+        }
+        return syllable;
+    }
+
+    // only loaded on Android 10 and newer
+    private static class Pinyin implements ContactIndex.SyllableMapper {
+        private final Transliterator transliterator =
+                Transliterator.getInstance("Han-Latin; Latin-ASCII; Lower");
+
+        @Override
+        public synchronized String toSyllable(int codePoint) {
+            return transliterator.transliterate(new String(Character.toChars(codePoint))).trim();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.fawai.asr;
+
+import android.view.Choreographer;
+
+/**
+ * Runs result callbacks on the ui thread at the next vsync. Create it on the ui thread,
+ * callbacks can be posted from any thread.
+ */
+public class ChoreographerScheduler implements ResultPublisher.FrameScheduler {
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    @Override
+    public void postFrame(Runnable callback) {
+        choreographer.postFrameCallback(frameTimeNanos -> callback.run());
+    }
+}
@@ -7,13 +7,17 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
-import android.database.Cursor;
+import android.database.ContentObserver;
+import android.graphics.Color;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 import android.os.Bundle;
 import android.os.Process;
 import android.provider.ContactsContract;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
 import android.util.Log;
 import android.widget.Button;
 import android.widget.CompoundButton;
@@ -29,9 +33,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import ai.onnxruntime.OrtException;
 
@@ -41,21 +49,55 @@ public class MainActivity extends AppCompatActivity {
   private final int MY_PERMISSIONS_READ_CONTACT = 2;
   private static final String LOG_TAG = "FAWASR";
   private static final int SAMPLE_RATE = 16000;  // The sampling rate
-  private static final int MAX_QUEUE_SIZE = 2500;  // 100 seconds audio, 1 / 0.04 * 100
+  private static final int RING_CAPACITY = 4096;  // 163 seconds audio, 4096 * 0.04
+  private static final int PRE_ROLL_CHUNKS = 10;  // 400 ms audio before speech start
+  private static final int TRACE_EVERY_FRAMES = 125;  // one traced frame per 5 seconds
   private static final List<String> resource = Arrays.asList(
-          "final.zip", "units.txt", "ctc.ort", "decoder.ort", "encoder.ort", "context.txt"
+          "final.zip", "units.txt", "ctc.ort", "decoder.ort", "encoder.ort", "context.txt",
+          VadModel.MODEL_FILE, VadModel.BASIS_FILE, VadModel.MEL_TEXT_FILE, VadModel.DCT_TEXT_FILE
   );
 
-  private boolean startRecord = false;
+  private volatile boolean startRecord = false;
   private AudioRecord record = null;
   private int miniBufferSize = 0;  // 1280 bytes 648 byte 40ms, 0.04s
-  private final BlockingQueue<short[]> asrBufferQueue = new ArrayBlockingQueue<>(MAX_QUEUE_SIZE);
-  private final BlockingQueue<short[]> vadBufferQueue = new ArrayBlockingQueue<>(MAX_QUEUE_SIZE);
+  // capture frames shared in place by the vad, asr and level meter threads
+  private AudioRing audioRing = null;
+  private PipelineMetrics metrics = null;
+  // results of the decode thread, shown at most once a frame
+  private ResultPublisher resultPublisher = null;
+  private volatile boolean recording = false;
 
-  private boolean vadBufferClean = false;
-  private final BlockingQueue<short[]> vadPreBufferQueue = new ArrayBlockingQueue<>(640 * 3);
+  private VadModel vadModel = null;
+  private VoiceDetector voiceDetector = null;
+  private volatile boolean voiceDetected = false;
+  private volatile boolean vadFinished = true;
+  // ring sequence numbers of the speech segment, the asr thread reads [start, end)
+  private volatile long speechStartSeq = 0;
+  private volatile long speechEndSeq = Long.MAX_VALUE;
 
-  private boolean voiceDetected = false;
+  private static final float CONTACT_MAX_DISTANCE = 1.0F;  // syllables
+  private volatile ContactIndex contactIndex = null;
+  // contact index refreshes, one at a time off the ui thread
+  private final ExecutorService contactExecutor = Executors.newSingleThreadExecutor();
+  private final ContentObserver contactObserver = new ContentObserver(null) {
+    @Override
+    public void onChange(boolean selfChange) {
+      refreshContacts();
+    }
+  };
+
+  private static final String CALL_ACTION = "call";
+  private static final Map<String, String> COMMANDS = new HashMap<>();
+  static {
+    COMMANDS.put("打电话", CALL_ACTION);
+    COMMANDS.put("拨打", CALL_ACTION);
+    COMMANDS.put("呼叫", CALL_ACTION);
+    COMMANDS.put("打给", CALL_ACTION);
+  }
+  // follows the partial results, the dial intent is ready once the contact is confident
+  private volatile IntentMatcher intentMatcher = new IntentMatcher(COMMANDS, null);
+  private volatile Intent preparedDial = null;
+  private volatile String preparedNumber = null;
 
   public static void assetsInit(Context context) throws IOException {
     AssetManager assetMgr = context.getAssets();
@@ -91,6 +133,10 @@ public class MainActivity extends AppCompatActivity {
         Button button = findViewById(R.id.button);
         button.setEnabled(false);
       }
+    } else if (requestCode == MY_PERMISSIONS_READ_CONTACT) {
+      if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+        initContactIndex();
+      }
     }
   }
 
@@ -105,17 +151,42 @@ public class MainActivity extends AppCompatActivity {
 
     try {
       assetsInit(this);
-      VoiceDetector.init(getApplicationContext());
+      vadModel = VadModel.load(getFilesDir());
+      voiceDetector = new VoiceDetector(vadModel);
+      Log.i(LOG_TAG, "Vad ort env init success");
     } catch (IOException | OrtException e) {
       Log.e(LOG_TAG, "Error process asset files to file path");
     }
 
     TextView textView = findViewById(R.id.textView);  // get textView controller
     textView.setText("");  // clear textView
+    resultPublisher = new ResultPublisher(new ChoreographerScheduler(), result -> showResult(textView, result));
 
     CheckBox hotWordCheckBox = findViewById(R.id.hotWordCheckBox);  // get hotWordCheckBox controller
 
     Recognize.init(getFilesDir().getPath(), false);
+    Recognize.setListener(new Recognize.Listener() {
+      @Override
+      public void onPartialResult(String text) {
+        metrics.onPartialResult();
+        resultPublisher.publishPartial(text);
+        onAsrPartial(text);
+      }
+
+      @Override
+      public void onEndpoint(String text) {
+        metrics.onPartialResult();
+        resultPublisher.publishEndpoint(text);
+        onAsrPartial(text);
+      }
+
+      @Override
+      public void onFinalResult(String text) {
+        metrics.onFinalResult(Recognize.getDecodeMicros());
+        Log.i(LOG_TAG, "Pipeline metrics\n" + metrics);
+        onAsrFinished(text);
+      }
+    });
 
     final boolean[] updateRecognize = {false};
 
@@ -139,22 +210,54 @@ public class MainActivity extends AppCompatActivity {
 
       if (!startRecord) {
         startRecord = true;  // set recording flag
+        recording = true;
+        voiceDetected = false;
+        vadFinished = false;
+        speechEndSeq = Long.MAX_VALUE;
         Recognize.reset();  // reset ASR engine
+        resultPublisher.reset();
+        intentMatcher.reset();
+        preparedDial = null;
+        preparedNumber = null;
+        voiceDetector.reset();  // drop audio of the last recording
+        // consumer cursors start at the first frame of this recording
+        AudioRing.Cursor vadCursor = audioRing.newCursor();
+        AudioRing.Cursor meterCursor = audioRing.newCursor();
         startRecordThread();  // start recorder
         startAsrThread();  // start the engine
-        startVadThread();
+        startVadThread(vadCursor);
+        startMeterThread(meterCursor);
         Recognize.startDecode();  // start ASR decoding
         button.setText("Stop Record");  // set button text
       } else {
-        vadBufferClean = false;
-        startRecord = false;  // set recording flag
-        Recognize.setInputFinished();  // stop ASR engine
+        startRecord = false;  // set recording flag, asr thread finishes input once drained
         button.setText("Start Record");  // set button text
       }
       button.setEnabled(false);
     });
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    Recognize.setListener(null);
+    if (contactIndex != null) {
+      getContentResolver().unregisterContentObserver(contactObserver);
+    }
+    contactExecutor.shutdownNow();
+    try {
+      // close native vad handles
+      if (voiceDetector != null) {
+        voiceDetector.close();
+      }
+      if (vadModel != null) {
+        vadModel.close();
+      }
+    } catch (OrtException e) {
+      Log.e(LOG_TAG, e.getMessage());
+    }
+  }
+
   private void requestAudioPermissions() {
     if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
         != PackageManager.PERMISSION_GRANTED) {
@@ -172,9 +275,28 @@ public class MainActivity extends AppCompatActivity {
       ActivityCompat.requestPermissions(this,
               new String[]{Manifest.permission.READ_CONTACTS},
               MY_PERMISSIONS_READ_CONTACT);
+    } else {
+      initContactIndex();
     }
   }
 
+  private void initContactIndex() {
+    // contacts are loaded once and then follow the changes of the address book
+    contactIndex = new ContactIndex(new AndroidContactSource(getContentResolver()),
+        new AndroidSyllableMapper(), CONTACT_MAX_DISTANCE);
+    intentMatcher = new IntentMatcher(COMMANDS, contactIndex);
+    refreshContacts();
+    getContentResolver().registerContentObserver(
+        ContactsContract.Contacts.CONTENT_URI, true, contactObserver);
+  }
+
+  private void refreshContacts() {
+    contactExecutor.execute(() -> {
+      int changes = contactIndex.refresh();
+      Log.i(LOG_TAG, "Contact index " + contactIndex.size() + " names, " + changes + " changes");
+    });
+  }
+
   private void initRecorder() {
     // buffer size in bytes 1280
     miniBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE,
@@ -193,34 +315,22 @@ public class MainActivity extends AppCompatActivity {
       Log.e(LOG_TAG, "Audio Record can't initialize!");
       return;
     }
+    audioRing = new AudioRing(RING_CAPACITY, miniBufferSize / 2);
+    metrics = new PipelineMetrics(RING_CAPACITY, SAMPLE_RATE, TRACE_EVERY_FRAMES);
+    metrics.setTraceSink(line -> Log.d(LOG_TAG, line));
     Log.i(LOG_TAG, "Record init okay");
   }
 
   private void startRecordThread() {
     new Thread(() -> {
-      VoiceRectView voiceView = findViewById(R.id.voiceRectView);
       record.startRecording();
       Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
       while (startRecord) {
-        short[] buffer = new short[miniBufferSize / 2]; // 640 samples
+        short[] buffer = audioRing.claim(); // preallocated slot, 640 samples
         int read = record.read(buffer, 0, buffer.length);
-        voiceView.add(calculateDb(buffer));
-        try {
-          if (AudioRecord.ERROR_INVALID_OPERATION != read) {
-            if (voiceDetected) {
-              if (vadPreBufferQueue.size() > 0) {
-                asrBufferQueue.put(vadPreBufferQueue.take()); // put last buffer before voiceDetected
-                asrBufferQueue.put(vadBufferQueue.take()); // put buffer in vad
-                vadBufferClean = true;
-              }
-
-              asrBufferQueue.put(buffer);
-            } else {
-              vadBufferQueue.put(buffer);
-            }
-          }
-        } catch (InterruptedException e) {
-          Log.e(LOG_TAG, e.getMessage());
+        if (read > 0) {
+          metrics.onCaptured(audioRing.getPublished());
+          audioRing.publish(read);  // consumers read the slot in place
         }
         Button button = findViewById(R.id.button);
         if (!button.isEnabled() && startRecord) {
@@ -228,139 +338,147 @@ public class MainActivity extends AppCompatActivity {
         }
       }
       record.stop();
+      recording = false;
+    }).start();
+  }
+
+  private void startMeterThread(AudioRing.Cursor cursor) {
+    new Thread(() -> {
+      VoiceRectView voiceView = findViewById(R.id.voiceRectView);
+      while (recording || cursor.available()) {
+        if (cursor.await(100, TimeUnit.MILLISECONDS)) {
+          metrics.onConsumed(PipelineMetrics.Queue.METER, cursor);
+          voiceView.add(AudioLevel.calculateDb(cursor.frame(), cursor.length()));
+          cursor.advance();
+        }
+      }
       voiceView.zero();
     }).start();
   }
 
-  private void startVadThread() {
+  private void startVadThread(AudioRing.Cursor cursor) {
     new Thread(() -> {
-      while (startRecord || vadBufferQueue.size() > 0 || !voiceDetected) {
-        try {
-          short[] data = vadBufferQueue.take();
-          voiceDetected = VoiceDetector.vadDetect(data);
-          if (voiceDetected) {
-            vadPreBufferQueue.put(data);
-            runOnUiThread(() -> {
-              TextView textView = findViewById(R.id.textView);
-              textView.setText("VoiceDetected");
-            });
-            break;
-          }
-        } catch (InterruptedException | OrtException e) {
-          Log.e(LOG_TAG, e.getMessage());
+      long firstSeq = cursor.sequence();  // the ring still holds the last recording before it
+      while (recording || cursor.available()) {
+        if (!cursor.await(100, TimeUnit.MILLISECONDS)) {
+          continue;
         }
-        if (!startRecord) {
-          if (!voiceDetected) {
-            // enable button if voice not detected
+        metrics.onConsumed(PipelineMetrics.Queue.VAD, cursor);
+        try {
+          VadStateMachine.VadEvent event = voiceDetector.vadStream(cursor.frame(), cursor.length());
+          metrics.onVadDecision(cursor.sequence(), cursor.lag());
+          if (event == VadStateMachine.VadEvent.SPEECH_START) {
+            // the vad decision lags behind the onset, asr starts a bit earlier
+            Log.i(LOG_TAG, "Speech start");
+            metrics.onSpeechStart(cursor.sequence());
+            speechStartSeq = Math.max(firstSeq, cursor.sequence() - PRE_ROLL_CHUNKS);
+            voiceDetected = true;
+            resultPublisher.publishFinal("VoiceDetected");
+          } else if (event == VadStateMachine.VadEvent.SPEECH_END) {
+            // stop recording, the asr thread finishes the input and waits for the final result
+            Log.i(LOG_TAG, "Speech end");
+            speechEndSeq = cursor.sequence() + 1;
+            startRecord = false;
             runOnUiThread(() -> {
               Button button = findViewById(R.id.button);
-              button.setEnabled(true);
+              button.setText("Start Record");
+              button.setEnabled(false);
             });
           }
-          break;
+        } catch (OrtException e) {
+          Log.e(LOG_TAG, e.getMessage());
         }
+        cursor.advance();
       }
+      vadFinished = true;
     }).start();
   }
 
   private void startAsrThread() {
     new Thread(() -> {
-      // Send all data
-      while (startRecord || vadBufferClean || asrBufferQueue.size() > 0) {
-        try {
-          short[] data = asrBufferQueue.take();
-          // 1. add data to C++ interface
-          Recognize.acceptWaveform(data);
-          // 2. get partial result
-          runOnUiThread(() -> {
-            TextView textView = findViewById(R.id.textView);
-            textView.setText(Recognize.getResult());
-          });
-        } catch (InterruptedException e) {
-          Log.e(LOG_TAG, e.getMessage());
-        }
-      }
-
-      // Wait for final result
+      // Send all speech data
+      AudioRing.Cursor cursor = null;
       while (true) {
-        // get result
-        if (!Recognize.getFinished()) {
-          runOnUiThread(() -> {
-            TextView textView = findViewById(R.id.textView);
-            textView.setText(Recognize.getResult());
-          });
-        } else {
-          runOnUiThread(() -> {
-            Button button = findViewById(R.id.button);
-            button.setEnabled(true);
-          });
-          String asrResult = Recognize.getResult();
-          boolean callPhoneStatus = asrResult.contains("打电话");
-          if (callPhoneStatus) {
-            TextView textView = findViewById(R.id.textView);
-            int contactBE = asrResult.indexOf("@");
-            int contactED = asrResult.lastIndexOf("@");
-
-            if (contactBE == -1 | contactED == -1) {
-              Log.i(LOG_TAG, "Not contact intent ");
-              textView.setText("未匹配到联系人实体");
-            } else {
-              String contactName = asrResult.substring(contactBE+1, contactED);
-              Log.i(LOG_TAG, "Contact name: " + contactName);
-              String number = getContact(contactName);
-              if (!number.equals("")) {
-                Intent intent = new Intent(Intent.ACTION_DIAL, Uri.parse("tel:" + number));
-                startActivity(intent);
-              } else {
-                Log.i(LOG_TAG, "Not contact name " + contactName);
-                textView.setText("未找到所述联系人");
-              }
-            }
+        if (cursor == null) {
+          if (voiceDetected) {
+            cursor = audioRing.newCursor(speechStartSeq);
+          } else if (vadFinished) {
+            break;  // no speech in this recording
+          } else {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            continue;
           }
+        }
+        if (cursor.sequence() >= speechEndSeq) {
           break;
         }
+        if (!cursor.await(100, TimeUnit.MILLISECONDS)) {
+          if (!recording) {
+            break;
+          }
+          continue;
+        }
+        // add data to C++ interface, results come back through the Recognize listener
+        metrics.onConsumed(PipelineMetrics.Queue.ASR, cursor);
+        Recognize.acceptWaveform(cursor.frame(), 0, cursor.length());
+        metrics.onAsrAccepted(cursor.sequence(), cursor.length(), cursor.lag());
+        cursor.advance();
       }
+      metrics.onInputFinished();
+      Recognize.setInputFinished();  // stop ASR engine, the final result follows
       voiceDetected = false;
 
     }).start();
   }
 
-  String getContact(String nameStr) {
-    String[] SQL_COLUMN = new String[]{
-            ContactsContract.CommonDataKinds.Identity.RAW_CONTACT_ID,
-            ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
-            ContactsContract.CommonDataKinds.Phone.NUMBER};
-    String mSelectClaus = ContactsContract.Contacts.DISPLAY_NAME+"=?";
-    String[] mSelectionArgs = new String[]{nameStr};
-    Log.i(LOG_TAG, "Start query contact");
-    Cursor cursor = getContentResolver().query(
-            ContactsContract.CommonDataKinds.Phone.CONTENT_URI, SQL_COLUMN, mSelectClaus, mSelectionArgs, null);
-    Log.i(LOG_TAG, "Finished query contact");
-    if (cursor != null) {
-      String ID = "";
-      String contactName = "";
-      String phoneNumber = "";
-
-      while (cursor.moveToNext()) {
-        ID = cursor.getString(0);
-        contactName = cursor.getString(1);
-        phoneNumber = cursor.getString(2);
-        Log.i(LOG_TAG, "Contact name: " + contactName + " Phone number: " + phoneNumber);
-      }
-      return phoneNumber;
-    } else {
-      return "";
+  // partial results on the decode thread, the contact is resolved before the utterance ends
+  private void onAsrPartial(String text) {
+    IntentMatcher.Match match = intentMatcher.accept(text);
+    if (match != null && match.isConfident() && preparedDial == null) {
+      preparedNumber = match.contact.number;
+      preparedDial = new Intent(Intent.ACTION_DIAL, Uri.parse("tel:" + preparedNumber));
+      Log.i(LOG_TAG, "Early " + match.action + " intent, contact name: " + match.contact.name);
+    }
+  }
+
+  // the unstable suffix of a partial result is grayed out
+  private void showResult(TextView textView, ResultPublisher.Result result) {
+    if (result.stableLength == result.text.length()) {
+      textView.setText(result.text);
+      return;
     }
+    SpannableString text = new SpannableString(result.text);
+    text.setSpan(new ForegroundColorSpan(Color.GRAY), result.stableLength, result.text.length(),
+            Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    textView.setText(text);
   }
 
-  private double calculateDb(short[] buffer) {
-    double energy = 0.0;
-    for (short value : buffer) {
-      energy += value * value;
+  // final result of the utterance, on the decode thread, the contact lookup stays off the ui thread
+  private void onAsrFinished(String asrResult) {
+    resultPublisher.publishFinal(asrResult);
+    runOnUiThread(() -> {
+      Button button = findViewById(R.id.button);
+      button.setEnabled(true);
+    });
+
+    IntentMatcher.Match match = intentMatcher.accept(asrResult);
+    if (match == null || !CALL_ACTION.equals(match.action)) {
+      return;
+    }
+    if (match.entity == null) {
+      Log.i(LOG_TAG, "Not contact intent ");
+      resultPublisher.publishFinal("未匹配到联系人实体");
+    } else if (match.contact == null) {
+      Log.i(LOG_TAG, "Not contact name " + match.entity);
+      resultPublisher.publishFinal("未找到所述联系人");
+    } else {
+      Log.i(LOG_TAG, "Contact name: " + match.contact.name + " Phone number: " + match.contact.number);
+      Intent intent = preparedDial;
+      if (intent == null || !match.contact.number.equals(preparedNumber)) {
+        // the final result changed the contact
+        intent = new Intent(Intent.ACTION_DIAL, Uri.parse("tel:" + match.contact.number));
+      }
+      startActivity(intent);
     }
-    energy /= buffer.length;
-    energy = (10 * Math.log10(1 + energy)) / 100;
-    energy = Math.min(energy, 1.0);
-    return energy;
   }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.fawai.asr;
+
+/**
+ * {@link Recognizer} over the sessions of a native engine. Each utterance runs on the
+ * decode thread of the session, {@link Session#finish} waits for it.
+ */
+public class NativeRecognizer implements Recognizer {
+    private final long engine;
+
+    /**
+     * @param engine from {@link Recognize#createEngine}, with as many sessions as the
+     *               threads that decode concurrently
+     */
+    public NativeRecognizer(long engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public Session openSession() {
+        final long session = Recognize.createSession(engine);
+        return new Session() {
+            @Override
+            public void start() {
+                Recognize.reset(session);
+                Recognize.startDecode(session);
+            }
+
+            @Override
+            public void acceptWaveform(short[] samples, int offset, int length) {
+                Recognize.acceptWaveform(session, samples, offset, length);
+            }
+
+            @Override
+            public String getResult() {
+                return Recognize.getResult(session);
+            }
+
+            @Override
+            public String finish() {
+                Recognize.setInputFinished(session);
+                Recognize.waitFinished(session, 0);
+                return Recognize.getResult(session);
+            }
+
+            @Override
+            public void close() {
+                Recognize.closeSession(session);
+            }
+        };
+    }
+}
@@ -1,16 +1,292 @@
 package com.fawai.asr;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Native recognizer. An engine holds one loaded model and a bounded pool of sessions,
+ * each session decodes one stream on its own thread. Models are cached by model dir,
+ * engines on the same dir share the weights. The static methods without a
+ * session handle work on a default session of the engine loaded by {@link #init}.
+ */
 public class Recognize {
 
   static {
     System.loadLibrary("wenet");
   }
 
-  public static native void init(String modelDir, Boolean doContext);
-  public static native void reset();
-  public static native void acceptWaveform(short[] waveform);
-  public static native void setInputFinished();
-  public static native boolean getFinished();
-  public static native void startDecode();
-  public static native String getResult();
+  /**
+   * Results of the native decoder, called on the decode thread. The text is the whole
+   * transcript so far. Do not call reset or waitFinished from a callback.
+   */
+  public interface Listener {
+    /** The hypothesis of the current segment changed. */
+    void onPartialResult(String text);
+    /** An endpoint closed the current segment, decoding goes on. */
+    void onEndpoint(String text);
+    /** All input is decoded, no more callbacks for this utterance. */
+    void onFinalResult(String text);
+  }
+
+  // result types of onNativeResult, see ResultType in wenet.cc
+  private static final int RESULT_PARTIAL = 0;
+  private static final int RESULT_ENDPOINT = 1;
+  private static final int RESULT_FINAL = 2;
+
+  // sessions of the default engine, e.g. more microphones next to the default one
+  private static final int DEFAULT_MAX_SESSIONS = 4;
+
+  /** Boost per character of the phrases in context.txt. */
+  public static final float DEFAULT_CONTEXT_BOOST = 12.0f;
+
+  private static String defaultModelDir = null;
+  private static long defaultEngine = 0;
+  private static volatile long defaultSession = 0;
+  private static volatile Listener defaultListener = null;
+  private static final Map<Long, Listener> listeners = new ConcurrentHashMap<>();
+
+  /** Loads the default engine, calling it again on the same dir only switches the context. */
+  public static synchronized void init(String modelDir, Boolean doContext) {
+    if (defaultSession != 0 && modelDir.equals(defaultModelDir)) {
+      setContext(defaultEngine, doContext);
+      return;
+    }
+    if (defaultSession != 0) {
+      closeSession(defaultSession);
+      releaseEngine(defaultEngine);
+    }
+    defaultEngine = createEngine(modelDir, doContext, DEFAULT_MAX_SESSIONS);
+    defaultSession = createSession(defaultEngine);
+    defaultModelDir = modelDir;
+  }
+
+  /** Engine loaded by {@link #init}, to open more sessions on the same model. */
+  public static long getDefaultEngine() {
+    return defaultEngine;
+  }
+
+  public static void setListener(Listener l) {
+    defaultListener = l;
+  }
+
+  public static void setListener(long session, Listener l) {
+    if (l == null) {
+      listeners.remove(session);
+    } else {
+      listeners.put(session, l);
+    }
+  }
+
+  // called by the native decode thread of a session
+  private static void onNativeResult(long session, int type, String text) {
+    Listener l = session == defaultSession ? defaultListener : listeners.get(session);
+    if (l == null) {
+      return;
+    }
+    switch (type) {
+      case RESULT_PARTIAL:
+        l.onPartialResult(text);
+        break;
+      case RESULT_ENDPOINT:
+        l.onEndpoint(text);
+        break;
+      case RESULT_FINAL:
+        l.onFinalResult(text);
+        break;
+      default:
+        break;
+    }
+  }
+
+  public static void reset() {
+    reset(defaultSession);
+  }
+
+  public static void acceptWaveform(short[] waveform) {
+    acceptWaveform(defaultSession, waveform, 0, waveform.length);
+  }
+
+  public static void acceptWaveform(short[] waveform, int offset, int length) {
+    acceptWaveform(defaultSession, waveform, offset, length);
+  }
+
+  public static void acceptWaveform(ShortBuffer buffer, int offset, int length) {
+    acceptWaveform(defaultSession, buffer, offset, length);
+  }
+
+  public static void acceptWaveform(ByteBuffer buffer, int offset, int length) {
+    acceptWaveform(defaultSession, buffer, offset, length);
+  }
+
+  public static void acceptWaveform(ShortBuffer buffer, int[] offsets, int[] lengths) {
+    acceptWaveform(defaultSession, buffer, offsets, lengths);
+  }
+
+  public static void setInputFinished() {
+    setInputFinished(defaultSession);
+  }
+
+  public static boolean getFinished() {
+    return getFinished(defaultSession);
+  }
+
+  /** Blocks until the decode thread is done, timeoutMs <= 0 waits forever. */
+  public static boolean waitFinished(long timeoutMs) {
+    return waitFinished(defaultSession, timeoutMs);
+  }
+
+  public static void startDecode() {
+    startDecode(defaultSession);
+  }
+
+  public static String getResult() {
+    return getResult(defaultSession);
+  }
+
+  public static long getDecodeMicros() {
+    return getDecodeMicros(defaultSession);
+  }
+
+  public static void addContextPhrases(String[] phrases, float[] boosts) {
+    addContextPhrases(defaultEngine, phrases, boosts);
+  }
+
+  public static void removeContextPhrases(String[] phrases) {
+    removeContextPhrases(defaultEngine, phrases);
+  }
+
+  public static void replaceContextPhrases(String[] phrases, float[] boosts) {
+    replaceContextPhrases(defaultEngine, phrases, boosts);
+  }
+
+  /**
+   * Loads the model once for up to {@code maxSessions} concurrent sessions. Release it
+   * with {@link #releaseEngine}, it is freed when its last session is closed.
+   */
+  public static native long createEngine(String modelDir, boolean doContext, int maxSessions);
+  public static native void releaseEngine(long engine);
+  /**
+   * Switches context biasing of all sessions of the engine, the model stays loaded.
+   * The next utterance of each session waits for the new graph before it decodes.
+   */
+  public static native void setContext(long engine, boolean doContext);
+
+  /**
+   * Adds phrases or changes their boost, {@code boosts} may be null for
+   * {@link #DEFAULT_CONTEXT_BOOST}. The context graph is rebuilt in the background, sessions
+   * use it from the start of their next segment (reset or endpoint).
+   */
+  public static void addContextPhrases(long engine, String[] phrases, float[] boosts) {
+    addContextPhrasesNative(engine, phrases, checkBoosts(phrases, boosts));
+  }
+
+  /** Replaces all phrases of the engine, including the ones from context.txt. */
+  public static void replaceContextPhrases(long engine, String[] phrases, float[] boosts) {
+    replaceContextPhrasesNative(engine, phrases, checkBoosts(phrases, boosts));
+  }
+
+  public static native void removeContextPhrases(long engine, String[] phrases);
+
+  /** Opens a session on the engine, reusing a closed one if possible. */
+  public static long createSession(long engine) {
+    long session = createSessionNative(engine);
+    if (session == 0) {
+      throw new IllegalStateException("All sessions of the engine are in use");
+    }
+    return session;
+  }
+
+  /** Stops a running decode and returns the session to the pool of its engine. */
+  public static void closeSession(long session) {
+    releaseSession(session);
+    listeners.remove(session);
+  }
+
+  public static void acceptWaveform(long session, short[] waveform, int offset, int length) {
+    checkRange(offset, length, waveform.length);
+    acceptWaveformRegion(session, waveform, offset, length);
+  }
+
+  /**
+   * Feeds {@code length} samples starting at sample {@code offset} of a direct, native order
+   * buffer. The samples are read in place, position and limit are ignored.
+   */
+  public static void acceptWaveform(long session, ShortBuffer buffer, int offset, int length) {
+    checkDirect(buffer, buffer.order());
+    checkRange(offset, length, buffer.capacity());
+    acceptWaveformDirect(session, buffer, offset, length);
+  }
+
+  /** Like {@link #acceptWaveform(long, ShortBuffer, int, int)}, offset and length are in samples. */
+  public static void acceptWaveform(long session, ByteBuffer buffer, int offset, int length) {
+    checkDirect(buffer, buffer.order());
+    checkRange(offset, length, buffer.capacity() / 2);
+    acceptWaveformDirect(session, buffer, offset, length);
+  }
+
+  /**
+   * Feeds many frames of one direct buffer in a single call, e.g. a whole file or the
+   * backlog of a ring. Frame i is {@code lengths[i]} samples at sample {@code offsets[i]}.
+   */
+  public static void acceptWaveform(long session, ShortBuffer buffer, int[] offsets, int[] lengths) {
+    checkDirect(buffer, buffer.order());
+    if (offsets.length != lengths.length) {
+      throw new IllegalArgumentException("Got " + offsets.length + " offsets and "
+          + lengths.length + " lengths");
+    }
+    for (int i = 0; i < offsets.length; i++) {
+      checkRange(offsets[i], lengths[i], buffer.capacity());
+    }
+    acceptWaveformFrames(session, buffer, offsets, lengths);
+  }
+
+  public static native void reset(long session);
+  public static native void setInputFinished(long session);
+  public static native boolean getFinished(long session);
+  /** Blocks until the decode thread is done, timeoutMs <= 0 waits forever. */
+  public static native boolean waitFinished(long session, long timeoutMs);
+  public static native void startDecode(long session);
+  public static native String getResult(long session);
+  /**
+   * Encoder, search and rescoring time since the last reset, waiting for audio not
+   * included. Call it on the decode thread, e.g. in {@link Listener#onFinalResult}.
+   */
+  public static native long getDecodeMicros(long session);
+
+  private static float[] checkBoosts(String[] phrases, float[] boosts) {
+    if (boosts == null) {
+      boosts = new float[phrases.length];
+      Arrays.fill(boosts, DEFAULT_CONTEXT_BOOST);
+    } else if (boosts.length != phrases.length) {
+      throw new IllegalArgumentException("Got " + phrases.length + " phrases and "
+          + boosts.length + " boosts");
+    }
+    return boosts;
+  }
+
+  private static void checkDirect(Buffer buffer, ByteOrder order) {
+    if (!buffer.isDirect() || order != ByteOrder.nativeOrder()) {
+      throw new IllegalArgumentException("Waveform must be a direct buffer in native order");
+    }
+  }
+
+  private static void checkRange(int offset, int length, int capacity) {
+    if (offset < 0 || length < 0 || offset > capacity - length) {
+      throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+          + ", capacity " + capacity);
+    }
+  }
+
+  private static native long createSessionNative(long engine);
+  private static native void addContextPhrasesNative(long engine, String[] phrases, float[] boosts);
+  private static native void replaceContextPhrasesNative(long engine, String[] phrases, float[] boosts);
+  private static native void releaseSession(long session);
+  private static native void acceptWaveformRegion(long session, short[] waveform, int offset, int length);
+  private static native void acceptWaveformDirect(long session, Buffer buffer, int offset, int length);
+  private static native void acceptWaveformFrames(long session, Buffer buffer, int[] offsets, int[] lengths);
 }
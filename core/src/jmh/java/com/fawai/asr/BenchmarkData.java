@@ -0,0 +1,90 @@
+package com.fawai.asr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/** Inputs of the benchmarks, the feature basis is computed like librosa builds it. */
+final class BenchmarkData {
+    static final int SAMPLE_RATE = 16000;
+    static final int CHUNK_SAMPLES = 640;
+
+    private BenchmarkData() {
+    }
+
+    /** Slaney mel filterbank, [numMels][nFft / 2 + 1]. */
+    static double[][] melBasis(int numMels, int nFft) {
+        int bins = nFft / 2 + 1;
+        double[] melPoints = new double[numMels + 2];
+        double low = hzToMel(0);
+        double high = hzToMel(SAMPLE_RATE / 2.0);
+        for (int i = 0; i < melPoints.length; i++) {
+            melPoints[i] = melToHz(low + (high - low) * i / (numMels + 1));
+        }
+        double[][] basis = new double[numMels][bins];
+        for (int m = 0; m < numMels; m++) {
+            double norm = 2.0 / (melPoints[m + 2] - melPoints[m]);
+            for (int k = 0; k < bins; k++) {
+                double hz = (double) k * SAMPLE_RATE / nFft;
+                double lower = (hz - melPoints[m]) / (melPoints[m + 1] - melPoints[m]);
+                double upper = (melPoints[m + 2] - hz) / (melPoints[m + 2] - melPoints[m + 1]);
+                basis[m][k] = Math.max(0, Math.min(lower, upper)) * norm;
+            }
+        }
+        return basis;
+    }
+
+    /** Orthonormal DCT-II, [numCoeffs][numMels]. */
+    static double[][] dctBasis(int numCoeffs, int numMels) {
+        double[][] basis = new double[numCoeffs][numMels];
+        for (int c = 0; c < numCoeffs; c++) {
+            double scale = Math.sqrt((c == 0 ? 1.0 : 2.0) / numMels);
+            for (int m = 0; m < numMels; m++) {
+                basis[c][m] = scale * Math.cos(Math.PI * c * (2 * m + 1) / (2.0 * numMels));
+            }
+        }
+        return basis;
+    }
+
+    private static double hzToMel(double hz) {
+        return hz < 1000 ? hz / (200.0 / 3) : 15 + Math.log(hz / 1000) / (Math.log(6.4) / 27);
+    }
+
+    private static double melToHz(double mel) {
+        return mel < 15 ? mel * (200.0 / 3) : 1000 * Math.exp((Math.log(6.4) / 27) * (mel - 15));
+    }
+
+    static MfccKernel mfccKernel() {
+        int numMels = AudioFeatureExtraction.getFeatureDim();
+        return new MfccKernel(melBasis(numMels, AudioFeatureExtraction.getFftSize()),
+                dctBasis(AudioFeatureExtraction.getFeatureDim(), numMels));
+    }
+
+    /** Speech level noise, the same for every run. */
+    static short[] noise(int samples) {
+        Random random = new Random(42);
+        short[] pcm = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            pcm[i] = (short) (random.nextGaussian() * 3000);
+        }
+        return pcm;
+    }
+
+    static File writeWav(short[] pcm) throws IOException {
+        File file = File.createTempFile("bench", ".wav");
+        file.deleteOnExit();
+        ByteBuffer buffer = ByteBuffer.allocate(44 + pcm.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x46464952).putInt(36 + pcm.length * 2).putInt(0x45564157)
+                .putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2).putShort((short) 2).putShort((short) 16)
+                .putInt(0x61746164).putInt(pcm.length * 2);
+        buffer.asShortBuffer().put(pcm);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,42 @@
+package com.fawai.asr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Fbank of the Java recognizer, the streaming step of a 40 ms chunk. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(2)
+public class FbankBenchmark {
+    private static final int NUM_BINS = 80;
+
+    private Fbank fbank;
+    private short[] chunk;
+    private float[] features;
+
+    @Setup
+    public void setup() {
+        fbank = new Fbank(NUM_BINS, BenchmarkData.SAMPLE_RATE);
+        chunk = BenchmarkData.noise(BenchmarkData.CHUNK_SAMPLES);
+        features = new float[8 * NUM_BINS];
+    }
+
+    @Benchmark
+    public int streamingChunk() {
+        fbank.acceptWaveform(chunk, 0, chunk.length);
+        return fbank.compute(features, 0, 8);
+    }
+}
@@ -0,0 +1,110 @@
+package com.fawai.asr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a pcm frame to a consumer thread and back, through {@link AudioRing}s
+ * and through blocking queues of pooled frames.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(2)
+public class HandoffBenchmark {
+    private static final int FRAMES = 64;
+
+    @State(Scope.Thread)
+    public static class Rings {
+        AudioRing forward;
+        AudioRing back;
+        AudioRing.Cursor cursor;
+        volatile boolean running;
+        Thread echo;
+
+        @Setup
+        public void setup() {
+            forward = new AudioRing(FRAMES, BenchmarkData.CHUNK_SAMPLES);
+            back = new AudioRing(FRAMES, BenchmarkData.CHUNK_SAMPLES);
+            cursor = back.newCursor();
+            final AudioRing.Cursor echoCursor = forward.newCursor();
+            running = true;
+            echo = new Thread(() -> {
+                while (running) {
+                    if (echoCursor.await(10, TimeUnit.MILLISECONDS)) {
+                        short[] frame = back.claim();
+                        frame[0] = echoCursor.frame()[0];
+                        echoCursor.advance();
+                        back.publish(BenchmarkData.CHUNK_SAMPLES);
+                    }
+                }
+            });
+            echo.start();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            running = false;
+            echo.join();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Queues {
+        final BlockingQueue<short[]> forward = new ArrayBlockingQueue<>(FRAMES);
+        final BlockingQueue<short[]> back = new ArrayBlockingQueue<>(FRAMES);
+        final short[] frame = new short[BenchmarkData.CHUNK_SAMPLES];
+        Thread echo;
+
+        @Setup
+        public void setup() {
+            echo = new Thread(() -> {
+                try {
+                    while (true) {
+                        back.put(forward.take());
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            echo.start();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            echo.interrupt();
+            echo.join();
+        }
+    }
+
+    @Benchmark
+    public int ring(Rings rings) {
+        short[] frame = rings.forward.claim();
+        frame[0] = 1;
+        rings.forward.publish(BenchmarkData.CHUNK_SAMPLES);
+        while (!rings.cursor.await(10, TimeUnit.MILLISECONDS)) {
+        }
+        int value = rings.cursor.frame()[0];
+        rings.cursor.advance();
+        return value;
+    }
+
+    @Benchmark
+    public int queue(Queues queues) throws InterruptedException {
+        queues.forward.put(queues.frame);
+        return queues.back.take()[0];
+    }
+}
@@ -0,0 +1,62 @@
+package com.fawai.asr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** MFCC of the VAD input: one frame, one 400 ms window, and the streaming step of a chunk. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(2)
+public class MfccBenchmark {
+    private AudioFeatureExtraction engine;
+    private StreamingFeatureExtraction streaming;
+    private float[] window;
+    private float[] features;
+    private float[] mfcc;
+    private short[] chunk;
+
+    @Setup
+    public void setup() {
+        engine = new AudioFeatureExtraction(BenchmarkData.mfccKernel());
+        streaming = new StreamingFeatureExtraction(
+                new AudioFeatureExtraction(BenchmarkData.mfccKernel()), VoiceDetector.FEAT_FRAME_SIZE);
+        short[] pcm = BenchmarkData.noise(VoiceDetector.INPUT_SIZE);
+        window = new float[pcm.length];
+        for (int i = 0; i < pcm.length; i++) {
+            window[i] = pcm[i] / 32768.0F;
+        }
+        features = new float[AudioFeatureExtraction.getFeatureDim() * AudioFeatureExtraction.getNumFrames(window.length)];
+        mfcc = new float[AudioFeatureExtraction.getFeatureDim()];
+        chunk = BenchmarkData.noise(BenchmarkData.CHUNK_SAMPLES);
+    }
+
+    @Benchmark
+    public float[] frame() {
+        engine.generateFrameMFCC(window, 0, mfcc);
+        return mfcc;
+    }
+
+    @Benchmark
+    public float[] window() {
+        engine.generateMFCCFeatures(window, features);
+        return features;
+    }
+
+    @Benchmark
+    public int streamingChunk() {
+        return streaming.acceptWaveform(chunk);
+    }
+}
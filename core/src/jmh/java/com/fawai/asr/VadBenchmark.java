@@ -0,0 +1,85 @@
+package com.fawai.asr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * One 40 ms chunk through the streaming VAD on the ORT CPU provider, every second step
+ * runs the model. By default the model is generated, of the shape of the shipped one,
+ * [N, FEAT_DIM, FEAT_FRAME_SIZE] to [N, 1, 1], so the baseline covers features, tensors
+ * and the runtime call without the model file; -PvadModelDir runs the real model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(2)
+public class VadBenchmark {
+    /** "generated", or the dir of {@link VadModel#MODEL_FILE}. */
+    @Param({"generated"})
+    public String model;
+
+    private VadModel vadModel;
+    private VoiceDetector detector;
+    private short[] chunk;
+
+    @Setup
+    public void setup() throws Exception {
+        if (model.equals("generated")) {
+            vadModel = generatedModel();
+        } else if (new File(model, VadModel.MODEL_FILE).exists()) {
+            vadModel = VadModel.load(new File(model));
+        } else {
+            throw new IllegalStateException(model + " is not a dir of " + VadModel.MODEL_FILE);
+        }
+        detector = new VoiceDetector(vadModel);
+        chunk = BenchmarkData.noise(BenchmarkData.CHUNK_SAMPLES);
+    }
+
+    // sigmoid of the window mean, a speech probability per window
+    private static VadModel generatedModel() throws OrtException {
+        byte[] bytes = OnnxModels.model(
+                new byte[][]{
+                        OnnxModels.node("ReduceMean", new String[]{"x"}, new String[]{"mean"},
+                                OnnxModels.intsAttribute("axes", 1, 2), OnnxModels.intAttribute("keepdims", 1)),
+                        OnnxModels.node("Sigmoid", new String[]{"mean"}, new String[]{"y"})},
+                new byte[][]{OnnxModels.tensorInfo("x", OnnxModels.FLOAT,
+                        "N", VoiceDetector.FEAT_DIM, VoiceDetector.FEAT_FRAME_SIZE)},
+                new byte[][]{OnnxModels.tensorInfo("y", OnnxModels.FLOAT, "N", 1, 1)},
+                null);
+        OrtEnvironment environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            return new VadModel(environment, environment.createSession(bytes, options),
+                    BenchmarkData.mfccKernel());
+        }
+    }
+
+    @Benchmark
+    public VadStateMachine.VadEvent step() throws OrtException {
+        return detector.vadStream(chunk);
+    }
+
+    @TearDown
+    public void tearDown() throws OrtException {
+        detector.close();
+        vadModel.close();
+    }
+}
@@ -0,0 +1,60 @@
+package com.fawai.asr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Decoding a minute of 16 kHz 16 bit mono audio, in one buffer and in VAD chunks. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(2)
+public class WavBenchmark {
+    private static final int SECONDS = 60;
+
+    private File wav;
+    private short[] samples;
+    private short[] chunk;
+
+    @Setup
+    public void setup() throws IOException {
+        wav = BenchmarkData.writeWav(BenchmarkData.noise(SECONDS * BenchmarkData.SAMPLE_RATE));
+        samples = new short[SECONDS * BenchmarkData.SAMPLE_RATE];
+        chunk = new short[BenchmarkData.CHUNK_SAMPLES];
+    }
+
+    @Benchmark
+    public int wavFile() throws IOException, WavFileException {
+        WavFile file = WavFile.openWavFile(wav);
+        try {
+            return file.readFrames(samples, samples.length);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Benchmark
+    public long wavReaderChunks() throws IOException, WavFileException {
+        long total = 0;
+        try (WavReader reader = WavReader.open(wav, BenchmarkData.SAMPLE_RATE)) {
+            int read;
+            while ((read = reader.read(chunk)) > 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
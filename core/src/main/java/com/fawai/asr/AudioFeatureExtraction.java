@@ -0,0 +1,136 @@
+package com.fawai.asr;
+
+public class AudioFeatureExtraction {
+    private static final String LOG_TAG = "AUDIO_FEATURE";
+
+    private static final int n_fft = 512;
+    private static final int n_mfcc = 64;
+    private static final int hop_length = 160;
+    private static final int win_length = 400;
+    private static final float[] fftWindow = createWindow();
+
+    private final MfccKernel mfccKernel;
+
+    // fft engine and work buffers, reused across calls
+    private final RealFFT fft = new RealFFT(n_fft);
+    private final float[] framePower = new float[1 + n_fft / 2];
+    private final float[] frameLogMel;
+    private float[] paddedBuffer = new float[0];
+
+    public AudioFeatureExtraction(double[][] fb, double[][] dct) {
+        this(new MfccKernel(fb, dct));
+    }
+
+    public AudioFeatureExtraction(MfccKernel kernel) {
+        if (kernel.getNumBins() != 1 + n_fft / 2 || kernel.getNumCoeffs() != n_mfcc) {
+            throw new IllegalArgumentException("MFCC kernel does not match n_fft " + n_fft
+                    + " and n_mfcc " + n_mfcc);
+        }
+        mfccKernel = kernel;
+        frameLogMel = new float[kernel.getNumFilters()];
+    }
+
+    public static int getFftSize() {
+        return n_fft;
+    }
+
+    public static int getHopLength() {
+        return hop_length;
+    }
+
+    public static int getFeatureDim() {
+        return n_mfcc;
+    }
+
+    public static int getNumFrames(int numSamples) {
+        return 1 + numSamples / hop_length;
+    }
+
+    public float[] generateMFCCFeatures(float[] magValues) {
+        float[] mfccSpecTro = new float[n_mfcc * getNumFrames(magValues.length)];
+        this.generateMFCCFeatures(magValues, mfccSpecTro);
+        return mfccSpecTro;
+    }
+
+    /**
+     * Writes the [n_mfcc][n_frames] MFCC matrix of {@code y} straight into {@code out},
+     * e.g. the model input buffer.
+     */
+    public void generateMFCCFeatures(float[] y, float[] out) {
+        float[] ypad = this.padSignal(y);
+        int n_frames = getNumFrames(y.length);
+
+        for (int k = 0; k < n_frames; ++k) {
+            fft.powerSpectrum(ypad, k * hop_length, fftWindow, framePower);
+            mfccKernel.compute(framePower, frameLogMel, out, k, n_frames);
+        }
+    }
+
+    /**
+     * Computes the MFCC vector of one n_fft long frame starting at {@code offset},
+     * same as one column of {@link #generateMFCCFeatures(float[])}.
+     */
+    public void generateFrameMFCC(float[] samples, int offset, float[] mfcc) {
+        fft.powerSpectrum(samples, offset, fftWindow, framePower);
+        mfccKernel.compute(framePower, frameLogMel, mfcc, 0, 1);
+    }
+
+    public double[][] extractSTFTFeatures(float[] y) {
+        float[] ypad = this.padSignal(y);
+        int n_frames = getNumFrames(y.length);
+        double[][] fftmagSpec = new double[1 + n_fft / 2][n_frames];
+
+        for(int k = 0; k < n_frames; ++k) {
+            fft.powerSpectrum(ypad, k * hop_length, fftWindow, framePower);
+            for(int i = 0; i < 1 + n_fft / 2; ++i) {
+                fftmagSpec[i][k] = framePower[i];
+            }
+        }
+
+        return fftmagSpec;
+    }
+
+    public double[][] melSpectrogram(float[] y) {
+        float[] ypad = this.padSignal(y);
+        int n_frames = getNumFrames(y.length);
+        double[][] melS = new double[mfccKernel.getNumFilters()][n_frames];
+
+        for (int k = 0; k < n_frames; ++k) {
+            fft.powerSpectrum(ypad, k * hop_length, fftWindow, framePower);
+            mfccKernel.applyFilterbank(framePower, frameLogMel);
+            for (int m = 0; m < melS.length; ++m) {
+                melS[m][k] = frameLogMel[m];
+            }
+        }
+        return melS;
+    }
+
+    private static float[] createWindow() {
+        float[] win = new float[n_fft];
+        int pad_len = (int) ((n_fft - win_length) / 2);
+        for(int i = pad_len; i < win_length + pad_len; ++i) {
+            win[i] = (float) (0.5D - 0.5D * Math.cos(6.283185307179586D * (double)(i-pad_len) / (double) win_length));
+        }
+
+        return win;
+    }
+
+    // reflect pads n_fft / 2 samples on both sides into a reused buffer
+    private float[] padSignal(float[] yValues) {
+        int length = n_fft + yValues.length;
+        if (paddedBuffer.length < length) {
+            paddedBuffer = new float[length];
+        }
+        float[] ypad = paddedBuffer;
+        int j;
+
+        for(j = 0; j < n_fft / 2; ++j) {
+            ypad[n_fft / 2 - j - 1] = yValues[j + 1];
+            ypad[n_fft / 2 + yValues.length + j] = yValues[yValues.length - 2 - j];
+        }
+
+        System.arraycopy(yValues, 0, ypad, n_fft / 2, yValues.length);
+
+        return ypad;
+    }
+}
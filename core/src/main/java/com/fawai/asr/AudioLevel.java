@@ -0,0 +1,19 @@
+package com.fawai.asr;
+
+/** Level of a pcm frame for the volume meter. */
+public final class AudioLevel {
+    private AudioLevel() {
+    }
+
+    /** Energy of the first {@code length} samples on a log scale, 0 for silence up to 1. */
+    public static double calculateDb(short[] buffer, int length) {
+        double energy = 0.0;
+        for (int i = 0; i < length; i++) {
+            energy += buffer[i] * buffer[i];
+        }
+        energy /= length;
+        energy = (10 * Math.log10(1 + energy)) / 100;
+        energy = Math.min(energy, 1.0);
+        return energy;
+    }
+}
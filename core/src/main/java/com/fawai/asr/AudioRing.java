@@ -0,0 +1,229 @@
+package com.fawai.asr;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single producer / multi consumer ring of pcm frames. The producer fills
+ * the slot returned by {@link #claim()} and publishes it with the next sequence number,
+ * consumers read slots in place through their own {@link Cursor}. There are no locks and
+ * no copies; the producer never waits, a consumer that falls more than the capacity
+ * behind loses the overwritten frames and counts them as dropped. A consumer waiting for
+ * a frame parks in a waiter slot and the producer unparks it, publishing checks a single
+ * counter when nobody waits.
+ */
+public class AudioRing {
+    private static final int MAX_WAITERS = 8;
+    // poll interval of consumers beyond MAX_WAITERS
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // Unsafe.loadFence, looked up once; the field is theUnsafe on the JDK and THE_ONE on old Android
+    private static final Object UNSAFE;
+    private static final Method LOAD_FENCE;
+
+    static {
+        Object unsafe = null;
+        Method loadFence = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field;
+            try {
+                field = type.getDeclaredField("theUnsafe");
+            } catch (NoSuchFieldException e) {
+                field = type.getDeclaredField("THE_ONE");
+            }
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            loadFence = type.getMethod("loadFence");
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            loadFence = null;
+        }
+        UNSAFE = unsafe;
+        LOAD_FENCE = loadFence;
+    }
+
+    private final short[][] frames;
+    private final int[] lengths;
+    private final int mask;
+    // sequence number of the next frame to publish, i.e. the number of published frames
+    private final AtomicLong published = new AtomicLong(0);
+    // threads parked in Cursor.await, the count is nonzero while any slot may be set
+    private final AtomicReferenceArray<Thread> waiters = new AtomicReferenceArray<>(MAX_WAITERS);
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    // written by Cursor.isValid where there is no loadFence, see loadFence()
+    private final AtomicInteger fence = new AtomicInteger(0);
+
+    public AudioRing(int capacity, int frameSize) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2, got " + capacity);
+        }
+        frames = new short[capacity][frameSize];
+        lengths = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    /** Sequence number the next published frame gets. */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /** Producer: the slot of the next frame, valid until {@link #publish(int)}. */
+    public short[] claim() {
+        return frames[(int) (published.get() & mask)];
+    }
+
+    /** Producer: makes the claimed slot, holding {@code length} samples, visible to consumers. */
+    public long publish(int length) {
+        long seq = published.get();
+        lengths[(int) (seq & mask)] = length;
+        // a full volatile write, ordered before the read of the waiter count
+        published.set(seq + 1);
+        if (waiting.get() != 0) {
+            for (int i = 0; i < MAX_WAITERS; i++) {
+                Thread waiter = waiters.get(i);
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+        return seq;
+    }
+
+    // slot of the current thread in waiters, -1 when all are taken
+    private int addWaiter() {
+        waiting.incrementAndGet();
+        Thread thread = Thread.currentThread();
+        for (int i = 0; i < MAX_WAITERS; i++) {
+            if (waiters.get(i) == null && waiters.compareAndSet(i, null, thread)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeWaiter(int slot) {
+        if (slot >= 0) {
+            waiters.set(slot, null);
+        }
+        waiting.decrementAndGet();
+    }
+
+    // keeps the plain reads of a slot before the following read of published: a volatile read
+    // only orders the accesses after it, and the slot may be overwritten right after it was read
+    private void loadFence() {
+        if (LOAD_FENCE != null) {
+            try {
+                LOAD_FENCE.invoke(UNSAFE);
+                return;
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // fall through to the atomic write
+            }
+        }
+        // no access before a volatile write moves after it
+        fence.incrementAndGet();
+    }
+
+    /** Consumer cursor starting at the next frame to be published. */
+    public Cursor newCursor() {
+        return new Cursor(published.get());
+    }
+
+    /** Consumer cursor starting at {@code seq}, clamped to the oldest frame still in the ring. */
+    public Cursor newCursor(long seq) {
+        return new Cursor(Math.max(seq, published.get() - frames.length + 1));
+    }
+
+    /** Read position of one consumer, only used by the consumer thread. */
+    public final class Cursor {
+        private long next;
+        private long dropped = 0;
+
+        private Cursor(long next) {
+            this.next = Math.max(0, next);
+        }
+
+        /** Sequence number of the frame {@link #frame()} returns. */
+        public long sequence() {
+            return next;
+        }
+
+        /**
+         * Waits until the frame at the cursor is published.
+         *
+         * @return false on timeout
+         */
+        public boolean await(long timeout, TimeUnit unit) {
+            if (available()) {
+                return true;
+            }
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            int slot = addWaiter();
+            try {
+                // checked again after the slot is visible, a publish before it is not missed
+                while (!available()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, slot >= 0 ? remaining : Math.min(remaining, PARK_NANOS));
+                }
+                return true;
+            } finally {
+                removeWaiter(slot);
+            }
+        }
+
+        public boolean available() {
+            long head = published.get();
+            if (head - next >= frames.length) {
+                // overrun, the oldest unread frames are being overwritten
+                long oldest = head - frames.length + 1;
+                dropped += oldest - next;
+                next = oldest;
+            }
+            return next < head;
+        }
+
+        /** Slot of the current frame, read it in place and check {@link #isValid()} after. */
+        public short[] frame() {
+            return frames[(int) (next & mask)];
+        }
+
+        public int length() {
+            return lengths[(int) (next & mask)];
+        }
+
+        /**
+         * False if the producer may have overwritten the current frame while it was read. The
+         * reads of the frame are fenced before the check, so true means the samples read are
+         * the published ones.
+         */
+        public boolean isValid() {
+            loadFence();
+            return published.get() - next < frames.length;
+        }
+
+        public void advance() {
+            ++next;
+        }
+
+        /** Published frames not read yet. */
+        public long lag() {
+            return published.get() - next;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.fawai.asr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline transcription of a wav.scp list, like decoder_main with --wav_scp and
+ * --thread_num. Each worker thread keeps one recognizer session and streams its files in
+ * chunks. A file only starts when its samples fit in the memory budget, a file larger
+ * than the whole budget runs alone. Results are written as "key text" lines in the order
+ * the files finish.
+ */
+public class BatchTranscriber {
+    // 1 s at 16 kHz per acceptWaveform
+    private static final int CHUNK_SAMPLES = 16000;
+
+    public static final class Entry {
+        public final String key;
+        public final File wav;
+
+        public Entry(String key, File wav) {
+            this.key = key;
+            this.wav = wav;
+        }
+    }
+
+    public static final class Result {
+        public final String key;
+        /** Null if the file failed. */
+        public final String text;
+        public final String error;
+        public final long samples;
+        /** From the first chunk to the final result. */
+        public final long latencyNanos;
+
+        Result(String key, String text, String error, long samples, long latencyNanos) {
+            this.key = key;
+            this.text = text;
+            this.error = error;
+            this.samples = samples;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    public static final class Report {
+        public final List<Result> results;
+        public final int failed;
+        public final double audioSeconds;
+        public final double wallSeconds;
+        private final double[] latencyMillis;
+        private final double[] rtfs;
+
+        Report(List<Result> results, long wallNanos, int sampleRate) {
+            this.results = results;
+            int failed = 0;
+            long samples = 0;
+            List<Double> latencies = new ArrayList<>();
+            List<Double> rtfs = new ArrayList<>();
+            for (Result result : results) {
+                if (result.text == null) {
+                    failed++;
+                    continue;
+                }
+                samples += result.samples;
+                latencies.add(result.latencyNanos / 1e6);
+                if (result.samples > 0) {
+                    rtfs.add(result.latencyNanos / 1e9 / ((double) result.samples / sampleRate));
+                }
+            }
+            this.failed = failed;
+            this.audioSeconds = (double) samples / sampleRate;
+            this.wallSeconds = wallNanos / 1e9;
+            this.latencyMillis = sorted(latencies);
+            this.rtfs = sorted(rtfs);
+        }
+
+        private static double[] sorted(List<Double> values) {
+            double[] array = new double[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            Arrays.sort(array);
+            return array;
+        }
+
+        // nearest rank
+        private static double percentile(double[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100 * sorted.length);
+            return sorted[Math.max(rank - 1, 0)];
+        }
+
+        /** Seconds of audio decoded per second, over all workers. */
+        public double getThroughput() {
+            return wallSeconds > 0 ? audioSeconds / wallSeconds : 0;
+        }
+
+        public double getLatencyMillis(double percentile) {
+            return percentile(latencyMillis, percentile);
+        }
+
+        /** Real time factor of single files, decode time over audio duration. */
+        public double getRtf(double percentile) {
+            return percentile(rtfs, percentile);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d files, %d failed, %.1f s audio in %.1f s, %.2fx real time, "
+                            + "latency p50/p90/p99 %.0f/%.0f/%.0f ms, rtf p50/p90/p99 %.3f/%.3f/%.3f",
+                    results.size(), failed, audioSeconds, wallSeconds, getThroughput(),
+                    getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99),
+                    getRtf(50), getRtf(90), getRtf(99));
+        }
+    }
+
+    private final Recognizer recognizer;
+    private final int workers;
+    private final int budgetSamples;
+    private final int sampleRate;
+
+    /**
+     * @param workers       concurrent files, the recognizer must allow as many sessions
+     * @param budgetSamples samples of all files decoding at the same time
+     */
+    public BatchTranscriber(Recognizer recognizer, int workers, int budgetSamples, int sampleRate) {
+        if (workers < 1 || budgetSamples < 1) {
+            throw new IllegalArgumentException("workers " + workers + " and budget " + budgetSamples + " must be positive");
+        }
+        this.recognizer = recognizer;
+        this.workers = workers;
+        this.budgetSamples = budgetSamples;
+        this.sampleRate = sampleRate;
+    }
+
+    /** Reads "key path" lines, relative paths are resolved against the dir of the list. */
+    public static List<Entry> readScp(File scp) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(scp), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+", 2);
+                if (fields.length != 2) {
+                    throw new IOException("Bad line in " + scp + ": " + line);
+                }
+                File wav = new File(fields[1]);
+                if (!wav.isAbsolute()) {
+                    wav = new File(scp.getParentFile(), fields[1]);
+                }
+                entries.add(new Entry(fields[0], wav));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Transcribes all entries, failed files are reported but not written.
+     *
+     * @param out gets one line per file as soon as it is done, may be null
+     */
+    public Report run(final List<Entry> entries, final Writer out) throws IOException, InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final Semaphore budget = new Semaphore(budgetSamples, true);
+        final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<Void>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    try (Recognizer.Session session = recognizer.openSession()) {
+                        short[] chunk = new short[CHUNK_SAMPLES];
+                        int index;
+                        while ((index = next.getAndIncrement()) < entries.size()) {
+                            Result result = transcribe(session, entries.get(index), budget, chunk);
+                            results.add(result);
+                            if (out != null && result.text != null) {
+                                synchronized (out) {
+                                    out.write(result.key + " " + result.text + "\n");
+                                    out.flush();
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Report(new ArrayList<>(results), System.nanoTime() - start, sampleRate);
+    }
+
+    private Result transcribe(Recognizer.Session session, Entry entry, Semaphore budget, short[] chunk)
+            throws InterruptedException {
+        WavReader reader;
+        try {
+            reader = WavReader.open(entry.wav, sampleRate);
+        } catch (IOException | WavFileException e) {
+            return new Result(entry.key, null, e.getMessage(), 0, 0);
+        }
+        int permits = (int) Math.min(reader.getNumSamples(), budgetSamples);
+        budget.acquire(permits);
+        try {
+            long start = System.nanoTime();
+            session.start();
+            int read;
+            while ((read = reader.read(chunk)) > 0) {
+                session.acceptWaveform(chunk, 0, read);
+            }
+            String text = session.finish();
+            return new Result(entry.key, text, null, reader.getNumSamples(), System.nanoTime() - start);
+        } catch (IOException | WavFileException e) {
+            session.finish();
+            return new Result(entry.key, null, e.getMessage(), 0, 0);
+        } finally {
+            budget.release(permits);
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.fawai.asr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory contact lookup for the call intent. Names are kept in a trie for exact and
+ * prefix lookups and as syllable sequences for fuzzy lookups, so a homophone or a single
+ * misrecognized character still finds the contact. Lookups read an immutable snapshot
+ * and are thread safe, {@link #refresh()} applies the changes of the source and swaps in
+ * a new snapshot.
+ */
+public class ContactIndex {
+    public static final class Contact {
+        public final long id;
+        public final String name;
+        public final String number;
+
+        public Contact(long id, String name, String number) {
+            this.id = id;
+            this.name = name;
+            this.number = number;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + number;
+        }
+    }
+
+    public interface SyllableMapper {
+        /** Syllable of one character, e.g. its toneless pinyin. */
+        String toSyllable(int codePoint);
+    }
+
+    /** Every character is its own syllable, fuzzy matching then works on characters. */
+    public static final SyllableMapper CHARACTERS =
+            codePoint -> new String(Character.toChars(Character.toLowerCase(codePoint)));
+
+    // cost of substituting syllables that only differ in zh/z, ch/c, sh/s, l/n or ang/an, eng/en, ing/in
+    private static final float FUZZY_COST = 0.5F;
+    // a fuzzy match may change at most this share of the syllables, so a two syllable name
+    // absorbs a fuzzy syllable but not a wrong one: 张三 is another person than 张伟
+    private static final float MAX_DISTANCE_RATIO = 0.4F;
+
+    private final ContactSource source;
+    private final SyllableMapper mapper;
+    private final float maxDistance;
+
+    // contact id -> contact, only used by refresh
+    private final Map<Long, Contact> contacts = new HashMap<>();
+    private long syncedUntil = 0;
+    private volatile Snapshot snapshot;
+
+    public ContactIndex(ContactSource source, SyllableMapper mapper, float maxDistance) {
+        this.source = source;
+        this.mapper = mapper;
+        this.maxDistance = maxDistance;
+        this.snapshot = new Snapshot(new ArrayList<>(), mapper);
+    }
+
+    /**
+     * Reads the changes since the last refresh from the source and rebuilds the lookup
+     * structures if there were any.
+     *
+     * @return number of changed and deleted contacts
+     */
+    public synchronized int refresh() {
+        ContactSource.Changes changes = source.changesSince(syncedUntil);
+        for (Long id : changes.deleted) {
+            contacts.remove(id);
+        }
+        // the first number of a changed contact is its preferred one
+        Set<Long> updated = new HashSet<>();
+        for (Contact contact : changes.changed) {
+            if (contact.name == null || contact.name.trim().isEmpty() || contact.number == null) {
+                // no longer callable by name, unless an earlier row of it is
+                if (!updated.contains(contact.id)) {
+                    contacts.remove(contact.id);
+                }
+                continue;
+            }
+            if (updated.add(contact.id)) {
+                contacts.put(contact.id, contact);
+            }
+        }
+        syncedUntil = changes.syncedUntil;
+        if (!changes.changed.isEmpty() || !changes.deleted.isEmpty()) {
+            snapshot = new Snapshot(contacts.values(), mapper);
+        }
+        return changes.changed.size() + changes.deleted.size();
+    }
+
+    /** Number of distinct names. */
+    public int size() {
+        return snapshot.contacts.length;
+    }
+
+    /**
+     * Contact of the exact name, else the contact with the same syllables, else the closest
+     * one within the edit distance bound. Null if nothing is close enough.
+     */
+    public Contact find(String name) {
+        Snapshot s = snapshot;
+        name = name.trim();
+        int exact = s.findExact(name);
+        if (exact >= 0) {
+            return s.contacts[exact];
+        }
+        int fuzzy = s.findFuzzy(name, mapper, maxDistance);
+        return fuzzy >= 0 ? s.contacts[fuzzy] : null;
+    }
+
+    /** Contact with the longest name {@code text} has at {@code start}, or null. */
+    public Contact findLongestPrefix(CharSequence text, int start) {
+        Snapshot s = snapshot;
+        int index = s.findLongestPrefix(text, start);
+        return index >= 0 ? s.contacts[index] : null;
+    }
+
+    static String fuzzySyllable(String syllable) {
+        if (syllable.length() > 2 && syllable.charAt(1) == 'h'
+                && (syllable.charAt(0) == 'z' || syllable.charAt(0) == 'c' || syllable.charAt(0) == 's')) {
+            syllable = syllable.charAt(0) + syllable.substring(2);
+        } else if (syllable.length() > 1 && syllable.charAt(0) == 'l') {
+            syllable = 'n' + syllable.substring(1);
+        }
+        if (syllable.endsWith("ang") || syllable.endsWith("eng") || syllable.endsWith("ing")) {
+            syllable = syllable.substring(0, syllable.length() - 1);
+        }
+        return syllable;
+    }
+
+    private static final class Snapshot {
+        // one contact per distinct name, sorted by name
+        final Contact[] contacts;
+
+        // trie over the sorted names, children of a node are contiguous and sorted by label
+        final char[] labels;
+        final int[] childStart;
+        final int[] childCount;
+        final int[] contactAt;
+
+        // syllable -> id, fuzzy ids are shared by syllables that only differ by FUZZY_COST
+        final Map<String, Integer> syllableIds = new HashMap<>();
+        final Map<String, Integer> fuzzyIds = new HashMap<>();
+        final int[][] syllables;
+        final int[][] fuzzySyllables;
+        // fuzzy id -> contacts having it
+        final int[][] postings;
+        // lookup buffers of each thread: the ids of the characters it has mapped, the query
+        // and distance rows, and the candidates seen in a lookup, marked with its generation
+        final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+        Snapshot(Collection<Contact> all, SyllableMapper mapper) {
+            List<Contact> sorted = new ArrayList<>(all);
+            Collections.sort(sorted, (a, b) -> {
+                int c = a.name.compareTo(b.name);
+                return c != 0 ? c : Long.compare(a.id, b.id);
+            });
+            List<Contact> distinct = new ArrayList<>();
+            for (Contact contact : sorted) {
+                if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).name.equals(contact.name)) {
+                    distinct.add(contact);
+                }
+            }
+            contacts = distinct.toArray(new Contact[0]);
+
+            int maxNodes = 1;
+            for (Contact contact : contacts) {
+                maxNodes += contact.name.length();
+            }
+            labels = new char[maxNodes];
+            childStart = new int[maxNodes];
+            childCount = new int[maxNodes];
+            contactAt = new int[maxNodes];
+            buildTrie();
+
+            syllables = new int[contacts.length][];
+            fuzzySyllables = new int[contacts.length][];
+            List<List<Integer>> contactsOfFuzzy = new ArrayList<>();
+            for (int i = 0; i < contacts.length; i++) {
+                List<String> parts = toSyllables(contacts[i].name, mapper);
+                syllables[i] = new int[parts.size()];
+                fuzzySyllables[i] = new int[parts.size()];
+                for (int j = 0; j < parts.size(); j++) {
+                    syllables[i][j] = intern(syllableIds, parts.get(j));
+                    int fuzzy = intern(fuzzyIds, fuzzySyllable(parts.get(j)));
+                    fuzzySyllables[i][j] = fuzzy;
+                    if (fuzzy == contactsOfFuzzy.size()) {
+                        contactsOfFuzzy.add(new ArrayList<>());
+                    }
+                    List<Integer> list = contactsOfFuzzy.get(fuzzy);
+                    if (list.isEmpty() || list.get(list.size() - 1) != i) {
+                        list.add(i);
+                    }
+                }
+            }
+            postings = new int[contactsOfFuzzy.size()][];
+            for (int f = 0; f < postings.length; f++) {
+                List<Integer> list = contactsOfFuzzy.get(f);
+                postings[f] = new int[list.size()];
+                for (int k = 0; k < list.size(); k++) {
+                    postings[f][k] = list.get(k);
+                }
+            }
+        }
+
+        private void buildTrie() {
+            // breadth first, so all children of a node get consecutive slots
+            int[] rangeLo = new int[labels.length];
+            int[] rangeHi = new int[labels.length];
+            int[] depth = new int[labels.length];
+            rangeHi[0] = contacts.length;
+            int nodes = 1;
+            for (int node = 0; node < nodes; node++) {
+                int lo = rangeLo[node];
+                int hi = rangeHi[node];
+                int d = depth[node];
+                contactAt[node] = -1;
+                // the name ending here sorts before the longer ones
+                if (lo < hi && contacts[lo].name.length() == d) {
+                    contactAt[node] = lo++;
+                }
+                childStart[node] = nodes;
+                while (lo < hi) {
+                    char c = contacts[lo].name.charAt(d);
+                    int end = lo + 1;
+                    while (end < hi && contacts[end].name.charAt(d) == c) {
+                        end++;
+                    }
+                    labels[nodes] = c;
+                    rangeLo[nodes] = lo;
+                    rangeHi[nodes] = end;
+                    depth[nodes] = d + 1;
+                    nodes++;
+                    lo = end;
+                }
+                childCount[node] = nodes - childStart[node];
+            }
+        }
+
+        private int child(int node, char c) {
+            int lo = childStart[node];
+            int hi = lo + childCount[node] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (labels[mid] < c) {
+                    lo = mid + 1;
+                } else if (labels[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        int findExact(String name) {
+            int node = 0;
+            for (int i = 0; i < name.length() && node >= 0; i++) {
+                node = child(node, name.charAt(i));
+            }
+            return node >= 0 ? contactAt[node] : -1;
+        }
+
+        int findLongestPrefix(CharSequence text, int start) {
+            int node = 0;
+            int found = -1;
+            for (int i = start; i < text.length(); i++) {
+                node = child(node, text.charAt(i));
+                if (node < 0) {
+                    break;
+                }
+                if (contactAt[node] >= 0) {
+                    found = contactAt[node];
+                }
+            }
+            return found;
+        }
+
+        int findFuzzy(String name, SyllableMapper mapper, float maxDistance) {
+            Scratch buffers = scratch.get();
+            if (buffers == null) {
+                buffers = new Scratch(contacts.length);
+                scratch.set(buffers);
+            }
+            // syllable and fuzzy ids of the characters, mapped once per thread and character
+            int length = 0;
+            for (int i = 0; i < name.length(); ) {
+                int codePoint = name.codePointAt(i);
+                i += Character.charCount(codePoint);
+                if (Character.isWhitespace(codePoint)) {
+                    continue;
+                }
+                int slot = buffers.slot(codePoint);
+                if (slot < 0) {
+                    String syllable = mapper.toSyllable(codePoint);
+                    Integer id = syllableIds.get(syllable);
+                    Integer fuzzy = fuzzyIds.get(fuzzySyllable(syllable));
+                    slot = buffers.put(codePoint, id != null ? id : -1, fuzzy != null ? fuzzy : -1);
+                }
+                buffers.ensureQuery(length + 1);
+                buffers.query[length] = buffers.syllableOf[slot];
+                buffers.fuzzyQuery[length] = buffers.fuzzyOf[slot];
+                length++;
+            }
+            if (length == 0) {
+                return -1;
+            }
+            int[] query = buffers.query;
+            int[] fuzzyQuery = buffers.fuzzyQuery;
+
+            // candidates share at least one syllable with the query
+            int[] seen = buffers.seen;
+            int generation = buffers.nextGeneration();
+            float[] prev = buffers.row(0, length + 1);
+            float[] cur = buffers.row(1, length + 1);
+            int best = -1;
+            float bestDistance = Float.MAX_VALUE;
+            int bestLengthDiff = Integer.MAX_VALUE;
+            for (int j = 0; j < length; j++) {
+                int fuzzy = fuzzyQuery[j];
+                if (fuzzy < 0) {
+                    continue;
+                }
+                for (int candidate : postings[fuzzy]) {
+                    if (seen[candidate] == generation) {
+                        continue;
+                    }
+                    seen[candidate] = generation;
+                    int candidateLength = syllables[candidate].length;
+                    float bound = Math.min(maxDistance,
+                            MAX_DISTANCE_RATIO * Math.max(candidateLength, length));
+                    int lengthDiff = Math.abs(candidateLength - length);
+                    if (lengthDiff > bound) {
+                        continue;
+                    }
+                    float distance = distance(query, fuzzyQuery, length, candidate, bound, prev, cur);
+                    if (distance > bound) {
+                        continue;
+                    }
+                    if (distance < bestDistance
+                            || (distance == bestDistance && lengthDiff < bestLengthDiff)) {
+                        best = candidate;
+                        bestDistance = distance;
+                        bestLengthDiff = lengthDiff;
+                    }
+                }
+            }
+            return best;
+        }
+
+        // weighted Levenshtein distance over syllables, stops once it exceeds bound
+        private float distance(int[] query, int[] fuzzyQuery, int length, int candidate, float bound,
+                               float[] prev, float[] cur) {
+            int[] target = syllables[candidate];
+            int[] fuzzyTarget = fuzzySyllables[candidate];
+            for (int j = 0; j <= length; j++) {
+                prev[j] = j;
+            }
+            for (int i = 1; i <= target.length; i++) {
+                cur[0] = i;
+                float rowMin = cur[0];
+                for (int j = 1; j <= length; j++) {
+                    float substitution;
+                    if (query[j - 1] >= 0 && query[j - 1] == target[i - 1]) {
+                        substitution = 0;
+                    } else if (fuzzyQuery[j - 1] >= 0 && fuzzyQuery[j - 1] == fuzzyTarget[i - 1]) {
+                        substitution = FUZZY_COST;
+                    } else {
+                        substitution = 1;
+                    }
+                    float value = Math.min(prev[j - 1] + substitution,
+                            Math.min(prev[j] + 1, cur[j - 1] + 1));
+                    cur[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                if (rowMin > bound) {
+                    return rowMin;
+                }
+                float[] tmp = prev;
+                prev = cur;
+                cur = tmp;
+            }
+            return prev[length];
+        }
+
+        private static final class Scratch {
+            final int[] seen;
+            int generation = 0;
+            final float[][] rows = new float[2][16];
+            int[] query = new int[16];
+            int[] fuzzyQuery = new int[16];
+
+            // open addressing map code point -> ids of its syllable, code point + 1 as key
+            int[] keys = new int[64];
+            int[] syllableOf = new int[64];
+            int[] fuzzyOf = new int[64];
+            int mapped = 0;
+
+            Scratch(int contacts) {
+                seen = new int[contacts];
+            }
+
+            int nextGeneration() {
+                if (++generation == 0) {
+                    Arrays.fill(seen, 0);
+                    generation = 1;
+                }
+                return generation;
+            }
+
+            float[] row(int index, int length) {
+                if (rows[index].length < length) {
+                    rows[index] = new float[Math.max(rows[index].length * 2, length)];
+                }
+                return rows[index];
+            }
+
+            void ensureQuery(int length) {
+                if (query.length < length) {
+                    query = Arrays.copyOf(query, query.length * 2);
+                    fuzzyQuery = Arrays.copyOf(fuzzyQuery, fuzzyQuery.length * 2);
+                }
+            }
+
+            // slot of the code point, or -1
+            int slot(int codePoint) {
+                int mask = keys.length - 1;
+                for (int i = (codePoint * 0x9E3779B9) >>> 16 & mask; keys[i] != 0; i = (i + 1) & mask) {
+                    if (keys[i] == codePoint + 1) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+
+            int put(int codePoint, int syllable, int fuzzy) {
+                if (2 * (mapped + 1) > keys.length) {
+                    int[] oldKeys = keys;
+                    int[] oldSyllables = syllableOf;
+                    int[] oldFuzzy = fuzzyOf;
+                    keys = new int[oldKeys.length * 2];
+                    syllableOf = new int[keys.length];
+                    fuzzyOf = new int[keys.length];
+                    mapped = 0;
+                    for (int i = 0; i < oldKeys.length; i++) {
+                        if (oldKeys[i] != 0) {
+                            put(oldKeys[i] - 1, oldSyllables[i], oldFuzzy[i]);
+                        }
+                    }
+                }
+                int mask = keys.length - 1;
+                int i = (codePoint * 0x9E3779B9) >>> 16 & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = codePoint + 1;
+                syllableOf[i] = syllable;
+                fuzzyOf[i] = fuzzy;
+                mapped++;
+                return i;
+            }
+        }
+
+        private static List<String> toSyllables(String name, SyllableMapper mapper) {
+            List<String> parts = new ArrayList<>(name.length());
+            for (int i = 0; i < name.length(); ) {
+                int codePoint = name.codePointAt(i);
+                i += Character.charCount(codePoint);
+                if (Character.isWhitespace(codePoint)) {
+                    continue;
+                }
+                parts.add(mapper.toSyllable(codePoint));
+            }
+            return parts;
+        }
+
+        private static int intern(Map<String, Integer> ids, String key) {
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.fawai.asr;
+
+import java.util.List;
+
+/**
+ * Where {@link ContactIndex} reads contacts from. Only the changes since the last sync
+ * are asked for, so a refresh after a single edit doesn't read the whole address book.
+ */
+public interface ContactSource {
+    final class Changes {
+        /** Added or changed contacts, one entry per number, the preferred number first. */
+        public final List<ContactIndex.Contact> changed;
+        /** Ids of deleted contacts. */
+        public final List<Long> deleted;
+        /** Pass to the next {@link #changesSince(long)} call. */
+        public final long syncedUntil;
+
+        public Changes(List<ContactIndex.Contact> changed, List<Long> deleted, long syncedUntil) {
+            this.changed = changed;
+            this.deleted = deleted;
+            this.syncedUntil = syncedUntil;
+        }
+    }
+
+    /** Changes after {@code sinceMillis}, 0 returns all contacts. */
+    Changes changesSince(long sinceMillis);
+}
@@ -0,0 +1,604 @@
+package com.fawai.asr;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming CTC prefix beam search, the Java counterpart of the native
+ * CtcPrefixBeamSearch with the same scores, context biasing and viterbi timestamps.
+ *
+ * Prefixes are nodes of a hash-consed trie, a prefix is its node id, so hypotheses are
+ * a handful of ints and floats. The context state of a prefix only depends on its tokens
+ * and is kept on its node. The viterbi times of a hypothesis are a chain in a second
+ * pool. Both pools are compacted to the nodes the beam still uses when they fill up, a
+ * frame allocates nothing once they are large enough. Not thread safe.
+ */
+public class CtcPrefixBeamSearch {
+    public static final int BLANK = 0;
+    private static final float NEG_MAX = -Float.MAX_VALUE;
+    private static final int ROOT = 0;
+    private static final int START_BOUNDARY = 1;
+    private static final int END_BOUNDARY = 2;
+    private static final int INITIAL_NODES = 4096;
+
+    /** Phrase biasing over token ids, like the native ContextGraph. */
+    public interface ContextBias {
+        /**
+         * Follows {@code token} from {@code state}, 0 is the start state. Token 0 asks for
+         * the back-off of an unfinished phrase at the end of the utterance.
+         *
+         * @param step gets the score of the transition and the phrase boundaries
+         * @return the next state
+         */
+        int next(int state, int token, Step step);
+    }
+
+    /** Result of one {@link ContextBias#next} call, reused by the search. */
+    public static final class Step {
+        public float score;
+        public boolean startsPhrase;
+        public boolean endsPhrase;
+    }
+
+    private final int firstBeamSize;
+    private final int secondBeamSize;
+    private final ContextBias bias;
+    private final Step step = new Step();
+
+    // prefix trie, node 0 is the empty prefix
+    private int[] nodeParent;
+    private int[] nodeToken;
+    private int[] nodeDepth;
+    private int[] nodeContextState;
+    private float[] nodeContextScore;
+    private byte[] nodeFlags;
+    private int numNodes;
+    // open addressing (parent, token) -> node, -1 is empty
+    private int[] childTable;
+
+    // viterbi time chains, node 0 is the empty chain
+    private int[] timeParent;
+    private int[] timeValue;
+    private int numTimes;
+    // old id -> new id while compacting
+    private int[] remap;
+
+    // beam, sorted by total score
+    private int beam;
+    private int[] hypNode;
+    private float[] hypS;
+    private float[] hypNs;
+    private float[] hypViterbiS;
+    private float[] hypViterbiNs;
+    private int[] hypTimesS;
+    private int[] hypTimesNs;
+    private float[] hypFinal;
+
+    // candidates of the next frame
+    private int numNext;
+    private int[] nextNode;
+    private float[] nextS;
+    private float[] nextNs;
+    private float[] nextViterbiS;
+    private float[] nextViterbiNs;
+    private float[] nextTokenProb;
+    private int[] nextTimesS;
+    private int[] nextTimesNs;
+    // node -> candidate, open addressing, -1 is empty
+    private final int[] nextTable;
+    private final int[] selected;
+
+    private final int[] topIndex;
+    private final float[] topScore;
+    private int timeStep;
+
+    public CtcPrefixBeamSearch(int firstBeamSize, int secondBeamSize, ContextBias bias) {
+        this(firstBeamSize, secondBeamSize, bias, INITIAL_NODES);
+    }
+
+    CtcPrefixBeamSearch(int firstBeamSize, int secondBeamSize, ContextBias bias, int initialNodes) {
+        this.firstBeamSize = firstBeamSize;
+        this.secondBeamSize = secondBeamSize;
+        this.bias = bias;
+
+        int candidates = secondBeamSize * (firstBeamSize + 1);
+        nextNode = new int[candidates];
+        nextS = new float[candidates];
+        nextNs = new float[candidates];
+        nextViterbiS = new float[candidates];
+        nextViterbiNs = new float[candidates];
+        nextTokenProb = new float[candidates];
+        nextTimesS = new int[candidates];
+        nextTimesNs = new int[candidates];
+        nextTable = new int[Integer.highestOneBit(candidates * 2 - 1) << 1];
+        Arrays.fill(nextTable, -1);
+        selected = new int[secondBeamSize];
+
+        hypNode = new int[secondBeamSize];
+        hypS = new float[secondBeamSize];
+        hypNs = new float[secondBeamSize];
+        hypViterbiS = new float[secondBeamSize];
+        hypViterbiNs = new float[secondBeamSize];
+        hypTimesS = new int[secondBeamSize];
+        hypTimesNs = new int[secondBeamSize];
+        hypFinal = new float[secondBeamSize];
+
+        topIndex = new int[firstBeamSize];
+        topScore = new float[firstBeamSize];
+
+        // every frame adds at most two nodes and two time nodes per candidate
+        int capacity = Integer.highestOneBit(Math.max(initialNodes, 4 * candidates) - 1) << 1;
+        allocateNodes(capacity);
+        allocateTimes(capacity);
+        reset();
+    }
+
+    public void reset() {
+        numNodes = 1;
+        nodeParent[ROOT] = -1;
+        nodeToken[ROOT] = BLANK;
+        nodeDepth[ROOT] = 0;
+        nodeContextState[ROOT] = 0;
+        nodeContextScore[ROOT] = 0;
+        nodeFlags[ROOT] = 0;
+        Arrays.fill(childTable, -1);
+        numTimes = 1;
+        timeParent[ROOT] = -1;
+        timeValue[ROOT] = 0;
+
+        beam = 1;
+        hypNode[0] = ROOT;
+        hypS[0] = 0;
+        hypNs[0] = NEG_MAX;
+        hypViterbiS[0] = 0;
+        hypViterbiNs[0] = 0;
+        hypTimesS[0] = ROOT;
+        hypTimesNs[0] = ROOT;
+        hypFinal[0] = 0;
+        timeStep = 0;
+    }
+
+    public void search(float[] logProbs, int frames, int vocab) {
+        search(FloatBuffer.wrap(logProbs), frames, vocab);
+    }
+
+    /**
+     * Advances the beam by {@code frames} frames of ctc log probabilities, frame t at
+     * {@code t * vocab} of the buffer, position and limit are not used.
+     */
+    public void search(FloatBuffer logProbs, int frames, int vocab) {
+        int k = Math.min(vocab, firstBeamSize);
+        for (int t = 0; t < frames; t++, timeStep++) {
+            ensureCapacity();
+            topK(logProbs, t * vocab, vocab, k);
+
+            numNext = 0;
+            for (int i = 0; i < k; i++) {
+                int id = topIndex[i];
+                float prob = topScore[i];
+                for (int h = 0; h < beam; h++) {
+                    int prefix = hypNode[h];
+                    float s = hypS[h];
+                    float ns = hypNs[h];
+                    float score = logAdd(s, ns);
+                    float viterbi = Math.max(hypViterbiS[h], hypViterbiNs[h]);
+                    int times = hypViterbiS[h] > hypViterbiNs[h] ? hypTimesS[h] : hypTimesNs[h];
+                    if (id == BLANK) {
+                        // *a + blank => *a
+                        int c = candidate(prefix);
+                        nextS[c] = logAdd(nextS[c], score + prob);
+                        nextViterbiS[c] = viterbi + prob;
+                        nextTimesS[c] = times;
+                    } else if (prefix != ROOT && id == nodeToken[prefix]) {
+                        // *a + a => *a
+                        int c = candidate(prefix);
+                        nextNs[c] = logAdd(nextNs[c], ns + prob);
+                        if (nextViterbiNs[c] < hypViterbiNs[h] + prob) {
+                            nextViterbiNs[c] = hypViterbiNs[h] + prob;
+                            if (nextTokenProb[c] < prob) {
+                                nextTokenProb[c] = prob;
+                                nextTimesNs[c] = newTime(timeParent[hypTimesNs[h]], timeStep);
+                            }
+                        }
+                        // *a blank + a => *aa
+                        c = candidate(child(prefix, id));
+                        nextNs[c] = logAdd(nextNs[c], s + prob);
+                        if (nextViterbiNs[c] < hypViterbiS[h] + prob) {
+                            nextViterbiNs[c] = hypViterbiS[h] + prob;
+                            nextTokenProb[c] = prob;
+                            nextTimesNs[c] = newTime(hypTimesS[h], timeStep);
+                        }
+                    } else {
+                        // *a + b => *ab
+                        int c = candidate(child(prefix, id));
+                        nextNs[c] = logAdd(nextNs[c], score + prob);
+                        if (nextViterbiNs[c] < viterbi + prob) {
+                            nextViterbiNs[c] = viterbi + prob;
+                            nextTokenProb[c] = prob;
+                            nextTimesNs[c] = newTime(times, timeStep);
+                        }
+                    }
+                }
+            }
+            prune();
+        }
+    }
+
+    /**
+     * Applies the back-off of unfinished context phrases and reorders the beam, call
+     * once at the end of the utterance.
+     */
+    public void finalizeSearch() {
+        if (bias == null) {
+            return;
+        }
+        for (int h = 0; h < beam; h++) {
+            int state = nodeContextState[hypNode[h]];
+            hypFinal[h] = 0;
+            if (state != 0) {
+                bias.next(state, BLANK, step);
+                hypFinal[h] = step.score;
+            }
+        }
+        // insertion sort of the few hypotheses, swapping all fields
+        for (int i = 1; i < beam; i++) {
+            for (int j = i; j > 0 && totalScore(j) > totalScore(j - 1); j--) {
+                swapHypotheses(j, j - 1);
+            }
+        }
+    }
+
+    public int getNumHypotheses() {
+        return beam;
+    }
+
+    /** Log likelihood of hypothesis {@code rank} with its context score. */
+    public float getLikelihood(int rank) {
+        return totalScore(rank);
+    }
+
+    public float getViterbiLikelihood(int rank) {
+        return Math.max(hypViterbiS[rank], hypViterbiNs[rank]);
+    }
+
+    public int getLength(int rank) {
+        return nodeDepth[hypNode[rank]];
+    }
+
+    /**
+     * Writes the tokens of hypothesis {@code rank}, 0 the best, into {@code tokens}.
+     *
+     * @return the number of tokens
+     */
+    public int getTokens(int rank, int[] tokens) {
+        int length = nodeDepth[hypNode[rank]];
+        for (int node = hypNode[rank], i = length - 1; node != ROOT; node = nodeParent[node], i--) {
+            tokens[i] = nodeToken[node];
+        }
+        return length;
+    }
+
+    /**
+     * Writes the tokens with {@code startTag} and {@code endTag} around the phrases the
+     * context bias matched, {@code output} needs room for the tags.
+     *
+     * @return the number of ids written
+     */
+    public int getOutput(int rank, int[] output, int startTag, int endTag) {
+        int length = nodeDepth[hypNode[rank]];
+        int tags = 0;
+        for (int node = hypNode[rank]; node != ROOT; node = nodeParent[node]) {
+            tags += Integer.bitCount(nodeFlags[node]);
+        }
+        int i = length + tags;
+        for (int node = hypNode[rank]; node != ROOT; node = nodeParent[node]) {
+            if ((nodeFlags[node] & END_BOUNDARY) != 0) {
+                output[--i] = endTag;
+            }
+            output[--i] = nodeToken[node];
+            if ((nodeFlags[node] & START_BOUNDARY) != 0) {
+                output[--i] = startTag;
+            }
+        }
+        return length + tags;
+    }
+
+    /**
+     * Writes the frame of each token of hypothesis {@code rank}, its last frame on the
+     * viterbi path like the native search, counted from the last {@link #reset()}.
+     *
+     * @return the number of tokens
+     */
+    public int getTimes(int rank, int[] times) {
+        int chain = hypViterbiS[rank] > hypViterbiNs[rank] ? hypTimesS[rank] : hypTimesNs[rank];
+        int length = 0;
+        for (int t = chain; t != ROOT; t = timeParent[t]) {
+            length++;
+        }
+        for (int t = chain, i = length - 1; t != ROOT; t = timeParent[t], i--) {
+            times[i] = timeValue[t];
+        }
+        return length;
+    }
+
+    private float totalScore(int h) {
+        return logAdd(hypS[h], hypNs[h]) + nodeContextScore[hypNode[h]] + hypFinal[h];
+    }
+
+    static float logAdd(float x, float y) {
+        if (x < y) {
+            float z = x;
+            x = y;
+            y = z;
+        }
+        if (y == NEG_MAX) {
+            return x;
+        }
+        return x + (float) Math.log1p(Math.exp(y - x));
+    }
+
+    // best k of one frame into topIndex / topScore, by descending score
+    private void topK(FloatBuffer logProbs, int base, int vocab, int k) {
+        int size = 0;
+        for (int v = 0; v < vocab; v++) {
+            float score = logProbs.get(base + v);
+            if (size == k && score <= topScore[k - 1]) {
+                continue;
+            }
+            int i = size < k ? size++ : k - 1;
+            while (i > 0 && topScore[i - 1] < score) {
+                topScore[i] = topScore[i - 1];
+                topIndex[i] = topIndex[i - 1];
+                i--;
+            }
+            topScore[i] = score;
+            topIndex[i] = v;
+        }
+    }
+
+    // candidate of the next frame for a prefix, created empty
+    private int candidate(int node) {
+        int mask = nextTable.length - 1;
+        int slot = mix(node) & mask;
+        while (nextTable[slot] != -1) {
+            int c = nextTable[slot];
+            if (nextNode[c] == node) {
+                return c;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int c = numNext++;
+        nextTable[slot] = c;
+        nextNode[c] = node;
+        nextS[c] = NEG_MAX;
+        nextNs[c] = NEG_MAX;
+        nextViterbiS[c] = NEG_MAX;
+        nextViterbiNs[c] = NEG_MAX;
+        nextTokenProb[c] = NEG_MAX;
+        nextTimesS[c] = ROOT;
+        nextTimesNs[c] = ROOT;
+        return c;
+    }
+
+    private float candidateScore(int c) {
+        return logAdd(nextS[c], nextNs[c]) + nodeContextScore[nextNode[c]];
+    }
+
+    // keeps the best secondBeamSize candidates as the new beam
+    private void prune() {
+        int size = 0;
+        for (int c = 0; c < numNext; c++) {
+            float score = candidateScore(c);
+            if (size == secondBeamSize && score <= candidateScore(selected[size - 1])) {
+                continue;
+            }
+            int i = size < secondBeamSize ? size++ : secondBeamSize - 1;
+            while (i > 0 && candidateScore(selected[i - 1]) < score) {
+                selected[i] = selected[i - 1];
+                i--;
+            }
+            selected[i] = c;
+        }
+        for (int h = 0; h < size; h++) {
+            int c = selected[h];
+            hypNode[h] = nextNode[c];
+            hypS[h] = nextS[c];
+            hypNs[h] = nextNs[c];
+            hypViterbiS[h] = nextViterbiS[c];
+            hypViterbiNs[h] = nextViterbiNs[c];
+            hypTimesS[h] = nextTimesS[c];
+            hypTimesNs[h] = nextTimesNs[c];
+            hypFinal[h] = 0;
+        }
+        beam = size;
+        // clear the used slots only
+        int mask = nextTable.length - 1;
+        for (int c = 0; c < numNext; c++) {
+            int slot = mix(nextNode[c]) & mask;
+            while (nextTable[slot] != -1) {
+                nextTable[slot] = -1;
+                slot = (slot + 1) & mask;
+            }
+        }
+        numNext = 0;
+    }
+
+    private void swapHypotheses(int a, int b) {
+        swap(hypNode, a, b);
+        swap(hypS, a, b);
+        swap(hypNs, a, b);
+        swap(hypViterbiS, a, b);
+        swap(hypViterbiNs, a, b);
+        swap(hypTimesS, a, b);
+        swap(hypTimesNs, a, b);
+        swap(hypFinal, a, b);
+    }
+
+    private static void swap(int[] array, int a, int b) {
+        int x = array[a];
+        array[a] = array[b];
+        array[b] = x;
+    }
+
+    private static void swap(float[] array, int a, int b) {
+        float x = array[a];
+        array[a] = array[b];
+        array[b] = x;
+    }
+
+    private static int mix(int x) {
+        x *= 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    private static int mix(int parent, int token) {
+        return mix(parent * 31 + token);
+    }
+
+    // node of prefix + token, created with its context state on first use
+    private int child(int parent, int token) {
+        int mask = childTable.length - 1;
+        int slot = mix(parent, token) & mask;
+        while (childTable[slot] != -1) {
+            int node = childTable[slot];
+            if (nodeParent[node] == parent && nodeToken[node] == token) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int node = numNodes++;
+        childTable[slot] = node;
+        nodeParent[node] = parent;
+        nodeToken[node] = token;
+        nodeDepth[node] = nodeDepth[parent] + 1;
+        nodeFlags[node] = 0;
+        if (bias != null) {
+            nodeContextState[node] = bias.next(nodeContextState[parent], token, step);
+            nodeContextScore[node] = nodeContextScore[parent] + step.score;
+            nodeFlags[node] = (byte) ((step.startsPhrase ? START_BOUNDARY : 0) | (step.endsPhrase ? END_BOUNDARY : 0));
+        } else {
+            nodeContextState[node] = 0;
+            nodeContextScore[node] = 0;
+        }
+        return node;
+    }
+
+    private int newTime(int parent, int time) {
+        int t = numTimes++;
+        timeParent[t] = parent;
+        timeValue[t] = time;
+        return t;
+    }
+
+    // room for the nodes of one frame, compacts the pools or grows them
+    private void ensureCapacity() {
+        int perFrame = 2 * beam * firstBeamSize + beam;
+        if (numNodes + perFrame > nodeParent.length) {
+            compactNodes();
+            if (numNodes + perFrame > nodeParent.length / 2) {
+                allocateNodes(nodeParent.length * 2);
+                rehashNodes();
+            }
+        }
+        if (numTimes + perFrame > timeParent.length) {
+            compactTimes();
+            if (numTimes + perFrame > timeParent.length / 2) {
+                allocateTimes(timeParent.length * 2);
+            }
+        }
+    }
+
+    private void allocateNodes(int capacity) {
+        nodeParent = nodeParent == null ? new int[capacity] : Arrays.copyOf(nodeParent, capacity);
+        nodeToken = nodeToken == null ? new int[capacity] : Arrays.copyOf(nodeToken, capacity);
+        nodeDepth = nodeDepth == null ? new int[capacity] : Arrays.copyOf(nodeDepth, capacity);
+        nodeContextState = nodeContextState == null ? new int[capacity] : Arrays.copyOf(nodeContextState, capacity);
+        nodeContextScore = nodeContextScore == null ? new float[capacity] : Arrays.copyOf(nodeContextScore, capacity);
+        nodeFlags = nodeFlags == null ? new byte[capacity] : Arrays.copyOf(nodeFlags, capacity);
+        childTable = new int[capacity * 2];
+        Arrays.fill(childTable, -1);
+        allocateRemap(capacity);
+    }
+
+    private void allocateTimes(int capacity) {
+        timeParent = timeParent == null ? new int[capacity] : Arrays.copyOf(timeParent, capacity);
+        timeValue = timeValue == null ? new int[capacity] : Arrays.copyOf(timeValue, capacity);
+        allocateRemap(capacity);
+    }
+
+    private void allocateRemap(int capacity) {
+        if (remap == null || remap.length < capacity) {
+            remap = new int[capacity];
+        }
+    }
+
+    private void rehashNodes() {
+        Arrays.fill(childTable, -1);
+        int mask = childTable.length - 1;
+        for (int node = 1; node < numNodes; node++) {
+            int slot = mix(nodeParent[node], nodeToken[node]) & mask;
+            while (childTable[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            childTable[slot] = node;
+        }
+    }
+
+    // keeps the prefixes of the beam, a parent is older than its children so ids only shrink
+    private void compactNodes() {
+        Arrays.fill(remap, 0, numNodes, -1);
+        remap[ROOT] = ROOT;
+        for (int h = 0; h < beam; h++) {
+            for (int node = hypNode[h]; remap[node] == -1; node = nodeParent[node]) {
+                remap[node] = 0;
+            }
+        }
+        int next = 1;
+        for (int node = 1; node < numNodes; node++) {
+            if (remap[node] == -1) {
+                continue;
+            }
+            remap[node] = next;
+            nodeParent[next] = remap[nodeParent[node]];
+            nodeToken[next] = nodeToken[node];
+            nodeDepth[next] = nodeDepth[node];
+            nodeContextState[next] = nodeContextState[node];
+            nodeContextScore[next] = nodeContextScore[node];
+            nodeFlags[next] = nodeFlags[node];
+            next++;
+        }
+        numNodes = next;
+        for (int h = 0; h < beam; h++) {
+            hypNode[h] = remap[hypNode[h]];
+        }
+        rehashNodes();
+    }
+
+    private void compactTimes() {
+        Arrays.fill(remap, 0, numTimes, -1);
+        remap[ROOT] = ROOT;
+        for (int h = 0; h < beam; h++) {
+            for (int t = hypTimesS[h]; remap[t] == -1; t = timeParent[t]) {
+                remap[t] = 0;
+            }
+            for (int t = hypTimesNs[h]; remap[t] == -1; t = timeParent[t]) {
+                remap[t] = 0;
+            }
+        }
+        int next = 1;
+        for (int t = 1; t < numTimes; t++) {
+            if (remap[t] == -1) {
+                continue;
+            }
+            remap[t] = next;
+            timeParent[next] = remap[timeParent[t]];
+            timeValue[next] = timeValue[t];
+            next++;
+        }
+        numTimes = next;
+        for (int h = 0; h < beam; h++) {
+            hypTimesS[h] = remap[hypTimesS[h]];
+            hypTimesNs[h] = remap[hypTimesNs[h]];
+        }
+    }
+}
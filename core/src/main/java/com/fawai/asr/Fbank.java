@@ -0,0 +1,157 @@
+package com.fawai.asr;
+
+/**
+ * Streaming log mel filterbank, the features of the native frontend (frontend/fbank.h):
+ * 25 ms frames every 10 ms, dc offset removed, pre-emphasis 0.97, povey window, no dither.
+ * Samples that don't complete a frame are kept for the next call. Not thread safe.
+ */
+public class Fbank {
+    private static final float PRE_EMPHASIS = 0.97F;
+    private static final float LOW_FREQ = 20;
+    private static final float EPSILON = Math.ulp(1.0F);
+
+    private final int numBins;
+    private final int frameLength;
+    private final int frameShift;
+    private final RealFFT fft;
+    private final float[] window;
+    // triangular filters, bin j covers power[binStart[j] ..] with binWeights[j]
+    private final int[] binStart;
+    private final float[][] binWeights;
+
+    private final float[] frame;
+    private final float[] power;
+    // samples not consumed by a frame yet
+    private float[] pending = new float[4096];
+    private int pendingStart = 0;
+    private int pendingEnd = 0;
+
+    public Fbank(int numBins, int sampleRate) {
+        this.numBins = numBins;
+        this.frameLength = sampleRate / 1000 * 25;
+        this.frameShift = sampleRate / 1000 * 10;
+        int fftPoints = Integer.highestOneBit(frameLength - 1) << 1;
+        this.fft = new RealFFT(fftPoints);
+        this.frame = new float[fftPoints];
+        this.power = new float[fftPoints / 2 + 1];
+
+        window = new float[frameLength];
+        double a = 2 * Math.PI / (frameLength - 1);
+        for (int i = 0; i < frameLength; i++) {
+            window[i] = (float) Math.pow(0.5 - 0.5 * Math.cos(a * i), 0.85);
+        }
+
+        int numFftBins = fftPoints / 2;
+        float fftBinWidth = (float) sampleRate / fftPoints;
+        float melLow = melScale(LOW_FREQ);
+        float melHigh = melScale(sampleRate / 2);
+        float melDelta = (melHigh - melLow) / (numBins + 1);
+        binStart = new int[numBins];
+        binWeights = new float[numBins][];
+        float[] weights = new float[numFftBins];
+        for (int bin = 0; bin < numBins; bin++) {
+            float leftMel = melLow + bin * melDelta;
+            float centerMel = melLow + (bin + 1) * melDelta;
+            float rightMel = melLow + (bin + 2) * melDelta;
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < numFftBins; i++) {
+                float mel = melScale(fftBinWidth * i);
+                if (mel > leftMel && mel < rightMel) {
+                    weights[i] = mel <= centerMel
+                            ? (mel - leftMel) / (centerMel - leftMel)
+                            : (rightMel - mel) / (rightMel - centerMel);
+                    if (first == -1) {
+                        first = i;
+                    }
+                    last = i;
+                }
+            }
+            if (first == -1) {
+                throw new IllegalArgumentException(numBins + " mel bins are too many for " + fftPoints + " fft points");
+            }
+            binStart[bin] = first;
+            binWeights[bin] = new float[last + 1 - first];
+            System.arraycopy(weights, first, binWeights[bin], 0, last + 1 - first);
+        }
+    }
+
+    private static float melScale(float freq) {
+        return (float) (1127.0 * Math.log(1.0 + freq / 700.0));
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public void reset() {
+        pendingStart = 0;
+        pendingEnd = 0;
+    }
+
+    /** Appends 16 bit samples, at their scale like the native frontend. */
+    public void acceptWaveform(short[] pcm, int offset, int length) {
+        if (pendingEnd + length > pending.length) {
+            int kept = pendingEnd - pendingStart;
+            float[] dst = kept + length > pending.length
+                    ? new float[Math.max(pending.length * 2, kept + length)] : pending;
+            System.arraycopy(pending, pendingStart, dst, 0, kept);
+            pending = dst;
+            pendingStart = 0;
+            pendingEnd = kept;
+        }
+        for (int i = 0; i < length; i++) {
+            pending[pendingEnd + i] = pcm[offset + i];
+        }
+        pendingEnd += length;
+    }
+
+    /** Frames the pending samples complete. */
+    public int available() {
+        int samples = pendingEnd - pendingStart;
+        return samples < frameLength ? 0 : 1 + (samples - frameLength) / frameShift;
+    }
+
+    /**
+     * Computes up to {@code maxFrames} frames into {@code features}, frame i at
+     * {@code (frameOffset + i) * numBins}.
+     *
+     * @return the frames computed
+     */
+    public int compute(float[] features, int frameOffset, int maxFrames) {
+        int frames = Math.min(available(), maxFrames);
+        for (int f = 0; f < frames; f++) {
+            int start = pendingStart + f * frameShift;
+            float mean = 0;
+            for (int i = 0; i < frameLength; i++) {
+                mean += pending[start + i];
+            }
+            mean /= frameLength;
+            for (int i = 0; i < frameLength; i++) {
+                frame[i] = pending[start + i] - mean;
+            }
+            // pre-emphasis from the back, the first sample against itself
+            for (int i = frameLength - 1; i > 0; i--) {
+                frame[i] -= PRE_EMPHASIS * frame[i - 1];
+            }
+            frame[0] -= PRE_EMPHASIS * frame[0];
+            for (int i = 0; i < frameLength; i++) {
+                frame[i] *= window[i];
+            }
+            fft.powerSpectrum(frame, 0, null, power);
+
+            int out = (frameOffset + f) * numBins;
+            for (int j = 0; j < numBins; j++) {
+                float[] w = binWeights[j];
+                int s = binStart[j];
+                float energy = 0;
+                for (int k = 0; k < w.length; k++) {
+                    energy += w[k] * power[s + k];
+                }
+                features[out + j] = (float) Math.log(Math.max(energy, EPSILON));
+            }
+        }
+        pendingStart += frames * frameShift;
+        return frames;
+    }
+}
@@ -0,0 +1,176 @@
+package com.fawai.asr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary mel filterbank / DCT basis file, memory mapped at load time.
+ *
+ * Layout, little endian:
+ * <pre>
+ *   int32   magic "FBAS"
+ *   int32   version
+ *   int32   mel rows, mel cols, dct rows, dct cols
+ *   int32   CRC32 of the payload
+ *   float32 mel basis, row major, then dct basis, row major
+ * </pre>
+ */
+public class FeatureBasisFile {
+    private static final int MAGIC = 0x53414246;  // "FBAS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private FeatureBasisFile() {
+    }
+
+    /** Maps {@code file}, checks header and checksum and compiles the MFCC kernel. */
+    public static MfccKernel load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file + ": not enough bytes for basis header");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.getInt(0) != MAGIC) {
+                throw new IOException(file + ": incorrect basis magic");
+            }
+            if (mapped.getInt(4) != VERSION) {
+                throw new IOException(file + ": unsupported basis version " + mapped.getInt(4));
+            }
+            int melRows = mapped.getInt(8);
+            int melCols = mapped.getInt(12);
+            int dctRows = mapped.getInt(16);
+            int dctCols = mapped.getInt(20);
+            int checksum = mapped.getInt(24);
+            long payload = 4L * ((long) melRows * melCols + (long) dctRows * dctCols);
+            if (melRows <= 0 || melCols <= 0 || dctRows <= 0 || dctCols <= 0
+                    || size != HEADER_SIZE + payload) {
+                throw new IOException(file + ": basis size does not match header");
+            }
+
+            mapped.position(HEADER_SIZE);
+            ByteBuffer body = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (crc32(body.duplicate()) != checksum) {
+                throw new IOException(file + ": basis checksum mismatch");
+            }
+
+            FloatBuffer floats = body.asFloatBuffer();
+            FloatBuffer mel = floats.duplicate();
+            mel.limit(melRows * melCols);
+            FloatBuffer dct = floats.duplicate();
+            dct.position(melRows * melCols);
+            return new MfccKernel(mel.slice(), melRows, melCols, dct.slice(), dctRows, dctCols);
+        }
+    }
+
+    /** One time conversion of the comma separated fb_m.txt / dct_m.txt basis. */
+    public static void convert(File melText, File dctText, File out) throws IOException {
+        List<float[]> mel = readText(melText);
+        List<float[]> dct = readText(dctText);
+        int melCols = mel.get(0).length;
+        int dctCols = dct.get(0).length;
+
+        ByteBuffer body = ByteBuffer.allocate(4 * (mel.size() * melCols + dct.size() * dctCols))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (float[] row : mel) {
+            for (float v : row) {
+                body.putFloat(v);
+            }
+        }
+        for (float[] row : dct) {
+            for (float v : row) {
+                body.putFloat(v);
+            }
+        }
+        body.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putInt(mel.size()).putInt(melCols)
+                .putInt(dct.size()).putInt(dctCols)
+                .putInt(crc32(body.duplicate()));
+        header.flip();
+
+        // write next to the target and rename, a reader never sees half a file
+        File tmp = new File(out.getAbsolutePath() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(tmp);
+             FileChannel channel = os.getChannel()) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+            channel.force(true);
+        }
+        if (!tmp.renameTo(out)) {
+            tmp.delete();
+            throw new IOException("Could not move basis file to " + out);
+        }
+    }
+
+    private static List<float[]> readText(File file) throws IOException {
+        List<float[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] ss = line.split(",");
+                float[] row = new float[ss.length];
+                for (int i = 0; i < ss.length; i++) {
+                    row[i] = (float) Double.parseDouble(ss[i]);
+                }
+                if (!rows.isEmpty() && rows.get(0).length != row.length) {
+                    throw new IOException(file + ": row " + rows.size() + " has " + row.length
+                            + " values, expected " + rows.get(0).length);
+                }
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            throw new IOException(file + ": empty basis");
+        }
+        return rows;
+    }
+
+    private static int crc32(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    // usage: FeatureBasisFile fb_m.txt dct_m.txt feat_basis.bin
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: FeatureBasisFile <fb_m.txt> <dct_m.txt> <out.bin>");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]), new File(args[2]));
+    }
+}
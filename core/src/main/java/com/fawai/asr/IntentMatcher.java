@@ -0,0 +1,242 @@
+package com.fawai.asr;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Command and contact matcher over the streaming hypotheses of one utterance. Command
+ * phrases are compiled into an Aho-Corasick automaton; the automaton state after every
+ * character is kept, so a new partial result only rescans the text after the prefix it
+ * shares with the last one. The contact slot is the name between the "@" context tags,
+ * or else the longest contact name anywhere outside the command, or else the contact
+ * closest to the text after the command, so a homophone of a name still resolves.
+ */
+public class IntentMatcher {
+    /** Context biasing wraps the matched phrase in these tags. */
+    public static final char ENTITY_TAG = '@';
+    // same match in this many hypotheses in a row makes it confident
+    private static final int STABLE_HYPOTHESES = 2;
+
+    public static final class Match {
+        public final String action;
+        /** Recognized name, null if the command has no contact yet. */
+        public final String entity;
+        /** Contact of the entity, null if not found. */
+        public final ContactIndex.Contact contact;
+        private final boolean confident;
+
+        Match(String action, String entity, ContactIndex.Contact contact, boolean confident) {
+            this.action = action;
+            this.entity = entity;
+            this.contact = contact;
+            this.confident = confident;
+        }
+
+        /** The contact is resolved and won't likely change until the final result. */
+        public boolean isConfident() {
+            return confident;
+        }
+    }
+
+    private final ContactIndex contactIndex;
+    private final String[] actions;
+    private final int[] patternLengths;
+
+    // automaton, children of a state are contiguous and sorted by label
+    private final char[] labels;
+    private final int[] childStart;
+    private final int[] childCount;
+    private final int[] fail;
+    // longest pattern ending in a state, through the fail links, or -1
+    private final int[] output;
+
+    // state after each character of the last text and the pattern ending there
+    private String lastText = "";
+    private int[] stateAt = new int[64];
+    private int[] outputAt = new int[64];
+    private String lastKey = null;
+    private int stableCount = 0;
+
+    /**
+     * @param commands command phrase -> action, e.g. "打电话" -> "call"
+     */
+    public IntentMatcher(Map<String, String> commands, ContactIndex contactIndex) {
+        this.contactIndex = contactIndex;
+        String[] phrases = commands.keySet().toArray(new String[0]);
+        Arrays.sort(phrases);
+        actions = new String[phrases.length];
+        patternLengths = new int[phrases.length];
+        int maxStates = 1;
+        for (int i = 0; i < phrases.length; i++) {
+            actions[i] = commands.get(phrases[i]);
+            patternLengths[i] = phrases[i].length();
+            maxStates += phrases[i].length();
+        }
+        labels = new char[maxStates];
+        childStart = new int[maxStates];
+        childCount = new int[maxStates];
+        fail = new int[maxStates];
+        output = new int[maxStates];
+        build(phrases);
+    }
+
+    private void build(String[] phrases) {
+        // breadth first over the sorted phrases, as the contact trie, then fail links in the same order
+        int[] rangeLo = new int[labels.length];
+        int[] rangeHi = new int[labels.length];
+        int[] depth = new int[labels.length];
+        rangeHi[0] = phrases.length;
+        int states = 1;
+        for (int state = 0; state < states; state++) {
+            int lo = rangeLo[state];
+            int hi = rangeHi[state];
+            int d = depth[state];
+            output[state] = -1;
+            if (lo < hi && phrases[lo].length() == d) {
+                output[state] = lo++;
+            }
+            childStart[state] = states;
+            while (lo < hi) {
+                char c = phrases[lo].charAt(d);
+                int end = lo + 1;
+                while (end < hi && phrases[end].charAt(d) == c) {
+                    end++;
+                }
+                labels[states] = c;
+                rangeLo[states] = lo;
+                rangeHi[states] = end;
+                depth[states] = d + 1;
+                states++;
+                lo = end;
+            }
+            childCount[state] = states - childStart[state];
+        }
+        fail[0] = 0;
+        for (int state = 0; state < states; state++) {
+            for (int child = childStart[state]; child < childStart[state] + childCount[state]; child++) {
+                fail[child] = state == 0 ? 0 : next(fail[state], labels[child]);
+                if (output[child] < 0) {
+                    output[child] = output[fail[child]];
+                }
+            }
+        }
+    }
+
+    private int child(int state, char c) {
+        int lo = childStart[state];
+        int hi = lo + childCount[state] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (labels[mid] < c) {
+                lo = mid + 1;
+            } else if (labels[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int child = child(state, c);
+            if (child >= 0) {
+                return child;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    /** Forgets the hypotheses of the last utterance. */
+    public synchronized void reset() {
+        lastText = "";
+        lastKey = null;
+        stableCount = 0;
+    }
+
+    /**
+     * Matches the current hypothesis, partial or final, of the utterance.
+     *
+     * @return the first command with its contact slot, or null if there is no command yet
+     */
+    public synchronized Match accept(String text) {
+        int shared = 0;
+        int limit = Math.min(text.length(), lastText.length());
+        while (shared < limit && text.charAt(shared) == lastText.charAt(shared)) {
+            shared++;
+        }
+        if (stateAt.length <= text.length()) {
+            int size = Math.max(stateAt.length * 2, text.length() + 1);
+            stateAt = Arrays.copyOf(stateAt, size);
+            outputAt = Arrays.copyOf(outputAt, size);
+        }
+        // stateAt[i] is the state after i characters, outputAt[i] the pattern ending there
+        stateAt[0] = 0;
+        outputAt[0] = -1;
+        for (int i = shared; i < text.length(); i++) {
+            int state = next(stateAt[i], text.charAt(i));
+            stateAt[i + 1] = state;
+            outputAt[i + 1] = output[state];
+        }
+        lastText = text;
+
+        int pattern = -1;
+        int commandEnd = 0;
+        for (int i = 1; i <= text.length(); i++) {
+            if (outputAt[i] >= 0) {
+                pattern = outputAt[i];
+                commandEnd = i;
+                break;
+            }
+        }
+        if (pattern < 0) {
+            lastKey = null;
+            stableCount = 0;
+            return null;
+        }
+        int commandStart = commandEnd - patternLengths[pattern];
+
+        String entity = null;
+        ContactIndex.Contact contact = null;
+        boolean tagged = false;
+        int tagStart = text.indexOf(ENTITY_TAG);
+        int tagEnd = tagStart >= 0 ? text.indexOf(ENTITY_TAG, tagStart + 1) : -1;
+        if (tagEnd > tagStart + 1) {
+            tagged = true;
+            entity = text.substring(tagStart + 1, tagEnd);
+            contact = contactIndex != null ? contactIndex.find(entity) : null;
+        } else if (contactIndex != null) {
+            for (int i = 0; i < text.length() && contact == null; i++) {
+                if (i >= commandStart && i < commandEnd) {
+                    continue;
+                }
+                contact = contactIndex.findLongestPrefix(text, i);
+            }
+            if (contact != null) {
+                entity = contact.name;
+            } else {
+                // no exact name, the fuzzy lookup also finds homophones and near misses
+                String rest = text.substring(commandEnd).trim();
+                if (!rest.isEmpty()) {
+                    entity = rest;
+                    contact = contactIndex.find(rest);
+                }
+            }
+        }
+
+        String key = contact != null ? actions[pattern] + ":" + contact.id : null;
+        if (key != null && key.equals(lastKey)) {
+            stableCount++;
+        } else {
+            stableCount = 1;
+        }
+        lastKey = key;
+        // a closed tag is a whole phrase of the context graph, no need to wait for another hypothesis
+        boolean confident = contact != null && (tagged || stableCount >= STABLE_HYPOTHESES);
+        return new Match(actions[pattern], entity, contact, confident);
+    }
+}
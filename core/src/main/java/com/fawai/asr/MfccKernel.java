@@ -0,0 +1,139 @@
+package com.fawai.asr;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Mel filterbank, log and DCT fused into one float pass per frame. Each mel filter
+ * only keeps the weights between its first and last non zero bin. The kernel holds
+ * no mutable state, so one instance can be shared by any number of extractors.
+ */
+public class MfccKernel {
+    private static final float LOG_FLOOR = 0.000001F;
+
+    private final int numBins;
+    private final int numFilters;
+    private final int numCoeffs;
+
+    // filter m covers bins [filterStart[m], filterStart[m] + filterLength[m])
+    // with weights starting at weights[filterOffset[m]]
+    private final int[] filterStart;
+    private final int[] filterLength;
+    private final int[] filterOffset;
+    private final float[] weights;
+    // [numCoeffs][numFilters], row major
+    private final float[] dct;
+
+    public MfccKernel(double[][] melBasis, double[][] dctBasis) {
+        this(toBuffer(melBasis), melBasis.length, melBasis[0].length,
+                toBuffer(dctBasis), dctBasis.length, dctBasis[0].length);
+    }
+
+    /**
+     * Compiles row major basis matrices, e.g. the views of a mapped {@link FeatureBasisFile}.
+     * The buffers are only read here and not kept.
+     */
+    public MfccKernel(FloatBuffer melBasis, int melRows, int melCols,
+                      FloatBuffer dctBasis, int dctRows, int dctCols) {
+        numFilters = melRows;
+        numBins = melCols;
+        numCoeffs = dctRows;
+        if (dctCols != numFilters) {
+            throw new IllegalArgumentException("DCT basis has " + dctCols
+                    + " columns, expected " + numFilters);
+        }
+
+        filterStart = new int[numFilters];
+        filterLength = new int[numFilters];
+        filterOffset = new int[numFilters];
+        int base = melBasis.position();
+        int total = 0;
+        for (int m = 0; m < numFilters; ++m) {
+            int row = base + m * numBins;
+            int start = 0;
+            while (start < numBins && melBasis.get(row + start) == 0.0F) {
+                ++start;
+            }
+            int end = numBins;
+            while (end > start && melBasis.get(row + end - 1) == 0.0F) {
+                --end;
+            }
+            filterStart[m] = start;
+            filterLength[m] = end - start;
+            filterOffset[m] = total;
+            total += end - start;
+        }
+
+        weights = new float[total];
+        for (int m = 0; m < numFilters; ++m) {
+            for (int i = 0; i < filterLength[m]; ++i) {
+                weights[filterOffset[m] + i] = melBasis.get(base + m * numBins + filterStart[m] + i);
+            }
+        }
+
+        dct = new float[numCoeffs * numFilters];
+        dctBasis.duplicate().get(dct);
+    }
+
+    private static FloatBuffer toBuffer(double[][] matrix) {
+        FloatBuffer buffer = FloatBuffer.allocate(matrix.length * matrix[0].length);
+        for (double[] row : matrix) {
+            for (int i = 0; i < matrix[0].length; ++i) {
+                buffer.put((float) row[i]);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public int getNumBins() {
+        return numBins;
+    }
+
+    public int getNumFilters() {
+        return numFilters;
+    }
+
+    public int getNumCoeffs() {
+        return numCoeffs;
+    }
+
+    /** Mel energies of one power spectrum frame. */
+    public void applyFilterbank(float[] power, float[] mel) {
+        for (int m = 0; m < numFilters; ++m) {
+            int w = filterOffset[m];
+            int p = filterStart[m];
+            float sum = 0.0F;
+            for (int i = 0; i < filterLength[m]; ++i) {
+                sum += weights[w + i] * power[p + i];
+            }
+            mel[m] = sum;
+        }
+    }
+
+    /**
+     * Computes the MFCC vector of one power spectrum frame and writes coefficient d
+     * to {@code out[outOffset + d * outStride]}.
+     *
+     * @param logMel scratch of at least {@link #getNumFilters()} floats
+     */
+    public void compute(float[] power, float[] logMel, float[] out, int outOffset, int outStride) {
+        for (int m = 0; m < numFilters; ++m) {
+            int w = filterOffset[m];
+            int p = filterStart[m];
+            float sum = 0.0F;
+            for (int i = 0; i < filterLength[m]; ++i) {
+                sum += weights[w + i] * power[p + i];
+            }
+            logMel[m] = (float) Math.log(LOG_FLOOR + sum);
+        }
+
+        for (int d = 0; d < numCoeffs; ++d) {
+            int row = d * numFilters;
+            float c = 0.0F;
+            for (int m = 0; m < numFilters; ++m) {
+                c += dct[row + m] * logMel[m];
+            }
+            out[outOffset + d * outStride] = c;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package com.fawai.asr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ai.onnxruntime.OnnxJavaType;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * Streaming recognizer on ONNX Runtime, the Java counterpart of the native OnnxAsrModel:
+ * fbank features, the chunked encoder with its attention and cnn caches, the ctc head and
+ * ctc prefix beam search. Runs with the CPU provider on a desktop JVM as well. Sessions
+ * decode on the thread that feeds them, the models are shared.
+ */
+public class OnnxRecognizer implements Recognizer, AutoCloseable {
+    public static final String ENCODER = "encoder";
+    public static final String CTC = "ctc";
+    public static final String UNITS_FILE = "units.txt";
+    private static final int NUM_BINS = 80;
+    // first and second beam of the native CtcPrefixBeamOptions
+    private static final int BEAM_SIZE = 10;
+
+    private final OrtEnvironment environment;
+    private final OrtSession encoder;
+    private final OrtSession ctc;
+    private final String[] units;
+    private final int sampleRate;
+
+    // encoder metadata
+    private final int outputSize;
+    private final int numBlocks;
+    private final int head;
+    private final int cnnModuleKernel;
+    private final int subsamplingRate;
+    private final int rightContext;
+    private final int chunkSize;
+    private final int numLeftChunks;
+    // feature frames of a chunk, and those the next chunk sees again
+    private final int chunkFrames;
+    private final int cachedFrames;
+
+    private final String[] encoderOutputs;
+    private final Set<String> requestedOutputs;
+    private final Set<String> encoderInputs;
+    private final String ctcInput;
+    private final String ctcOutput;
+    private final int vocabSize;
+
+    OnnxRecognizer(OrtEnvironment environment, OrtSession encoder, OrtSession ctc, String[] units,
+                   int sampleRate) throws OrtException, IOException {
+        this.environment = environment;
+        this.encoder = encoder;
+        this.ctc = ctc;
+        this.units = units;
+        this.sampleRate = sampleRate;
+
+        Map<String, String> metadata = encoder.getMetadata().getCustomMetadata();
+        outputSize = metadataInt(metadata, "output_size");
+        numBlocks = metadataInt(metadata, "num_blocks");
+        head = metadataInt(metadata, "head");
+        cnnModuleKernel = metadataInt(metadata, "cnn_module_kernel");
+        subsamplingRate = metadataInt(metadata, "subsampling_rate");
+        rightContext = metadataInt(metadata, "right_context");
+        chunkSize = metadataInt(metadata, "chunk_size");
+        numLeftChunks = metadataInt(metadata, "left_chunks");
+        if (chunkSize <= 0) {
+            throw new IOException("Encoder with chunk_size " + chunkSize + " is not streaming");
+        }
+        chunkFrames = (chunkSize - 1) * subsamplingRate + rightContext + 1;
+        cachedFrames = 1 + rightContext - subsamplingRate;
+
+        encoderInputs = encoder.getInputNames();
+        encoderOutputs = encoder.getOutputNames().toArray(new String[0]);
+        requestedOutputs = Collections.singleton(encoderOutputs[0]);
+        ctcInput = ctc.getInputNames().iterator().next();
+        ctcOutput = ctc.getOutputNames().iterator().next();
+        long[] ctcShape = ((TensorInfo) ctc.getOutputInfo().get(ctcOutput).getInfo()).getShape();
+        long vocab = ctcShape[ctcShape.length - 1];
+        vocabSize = vocab > 0 ? (int) vocab : units.length;
+    }
+
+    private static int metadataInt(Map<String, String> metadata, String key) throws IOException {
+        String value = metadata.get(key);
+        if (value == null) {
+            throw new IOException("Encoder metadata has no " + key);
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Loads encoder and ctc from {@code modelDir}, as .ort files like the app assets or
+     * as .onnx files like the native runtime, and the units.
+     */
+    public static OnnxRecognizer load(File modelDir, int sampleRate, int numThreads)
+            throws IOException, OrtException {
+        OrtEnvironment environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setIntraOpNumThreads(numThreads);
+            OrtSession encoder = environment.createSession(modelFile(modelDir, ENCODER), options);
+            OrtSession ctc = environment.createSession(modelFile(modelDir, CTC), options);
+            return new OnnxRecognizer(environment, encoder, ctc,
+                    readUnits(new File(modelDir, UNITS_FILE)), sampleRate);
+        }
+    }
+
+    private static String modelFile(File modelDir, String name) {
+        File ort = new File(modelDir, name + ".ort");
+        return (ort.exists() ? ort : new File(modelDir, name + ".onnx")).getAbsolutePath();
+    }
+
+    /** Reads "symbol id" lines. */
+    static String[] readUnits(File file) throws IOException {
+        List<String> symbols = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != 2) {
+                    continue;
+                }
+                int id = Integer.parseInt(fields[1]);
+                while (symbols.size() <= id) {
+                    symbols.add("");
+                }
+                symbols.set(id, fields[0]);
+            }
+        }
+        return symbols.toArray(new String[0]);
+    }
+
+    @Override
+    public Session openSession() {
+        try {
+            return new Stream();
+        } catch (OrtException e) {
+            throw new IllegalStateException("Failed to create the encoder tensors", e);
+        }
+    }
+
+    /** Closes the models, all sessions must be closed before. */
+    @Override
+    public void close() throws OrtException {
+        encoder.close();
+        ctc.close();
+    }
+
+    private static FloatBuffer allocateFloats(int size) {
+        return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private class Stream implements Session {
+        private final Fbank fbank = new Fbank(NUM_BINS, sampleRate);
+        private final int requiredCacheSize = chunkSize * Math.max(numLeftChunks, 0);
+
+        // features of the next chunk, the cached frames of the last chunk first
+        private final float[] features = new float[chunkFrames * NUM_BINS];
+        private int numFeatures = 0;
+        private final FloatBuffer chunkBuffer = allocateFloats(chunkFrames * NUM_BINS);
+        private final OnnxTensor chunkTensor;
+
+        private final LongBuffer offsetBuffer =
+                ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder()).asLongBuffer();
+        private final OnnxTensor offsetTensor;
+        private final OnnxTensor requiredCacheSizeTensor;
+        private final ByteBuffer maskBuffer;
+        private final OnnxTensor maskTensor;
+
+        // caches are written by the encoder into the other one of two pinned buffers
+        private final FloatBuffer[] attCaches = new FloatBuffer[2];
+        private final FloatBuffer[] cnnCaches = new FloatBuffer[2];
+        private final OnnxTensor[] attCacheTensors = new OnnxTensor[2];
+        private final OnnxTensor[] cnnCacheTensors = new OnnxTensor[2];
+        private final boolean pinned;
+        private int current = 0;
+        // without left chunks the attention cache grows, the caches stay in the last result
+        private OrtSession.Result lastResult = null;
+
+        private final Map<String, OnnxTensor> inputs = new HashMap<>();
+        private final Map<String, OnnxTensor> pinnedOutputs = new HashMap<>();
+        // ctc log probabilities of a full chunk, written by the runtime in place
+        private final FloatBuffer logProbs = allocateFloats(chunkSize * vocabSize);
+        private final OnnxTensor logProbsTensor;
+        private final Map<String, OnnxTensor> ctcInputs = new HashMap<>();
+        private final Map<String, OnnxTensor> ctcOutputs;
+
+        private long offset;
+        private final CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(BEAM_SIZE, BEAM_SIZE, null);
+        private int[] tokens = new int[64];
+        private final StringBuilder text = new StringBuilder();
+
+        Stream() throws OrtException {
+            chunkTensor = OnnxTensor.createTensor(environment, chunkBuffer, new long[]{1, chunkFrames, NUM_BINS});
+            offsetTensor = OnnxTensor.createTensor(environment, offsetBuffer, new long[0]);
+            logProbsTensor = OnnxTensor.createTensor(environment, logProbs, new long[]{1, chunkSize, vocabSize});
+            ctcOutputs = Collections.singletonMap(ctcOutput, logProbsTensor);
+            requiredCacheSizeTensor = OnnxTensor.createTensor(environment,
+                    ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder()).asLongBuffer()
+                            .put(0, (long) chunkSize * numLeftChunks), new long[0]);
+            if (requiredCacheSize > 0) {
+                maskBuffer = ByteBuffer.allocateDirect(requiredCacheSize + chunkSize);
+                maskTensor = OnnxTensor.createTensor(environment, maskBuffer,
+                        new long[]{1, 1, requiredCacheSize + chunkSize}, OnnxJavaType.BOOL);
+            } else {
+                maskBuffer = null;
+                maskTensor = null;
+            }
+            pinned = requiredCacheSize > 0;
+            long[] attShape = {numBlocks, head, requiredCacheSize, outputSize / head * 2};
+            long[] cnnShape = {numBlocks, 1, outputSize, cnnModuleKernel - 1};
+            for (int i = 0; i < (pinned ? 2 : 1); i++) {
+                attCaches[i] = allocateFloats(numBlocks * head * requiredCacheSize * (outputSize / head * 2));
+                cnnCaches[i] = allocateFloats(numBlocks * outputSize * (cnnModuleKernel - 1));
+                attCacheTensors[i] = OnnxTensor.createTensor(environment, attCaches[i], attShape);
+                cnnCacheTensors[i] = OnnxTensor.createTensor(environment, cnnCaches[i], cnnShape);
+            }
+        }
+
+        @Override
+        public void start() {
+            closeLastResult();
+            fbank.reset();
+            numFeatures = 0;
+            offset = requiredCacheSize;
+            current = 0;
+            for (int i = 0; i < (pinned ? 2 : 1); i++) {
+                clear(attCaches[i]);
+                clear(cnnCaches[i]);
+            }
+            search.reset();
+        }
+
+        private void clear(FloatBuffer buffer) {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, 0);
+            }
+        }
+
+        @Override
+        public void acceptWaveform(short[] samples, int offset, int length) {
+            fbank.acceptWaveform(samples, offset, length);
+            while (fbank.available() > 0) {
+                numFeatures += fbank.compute(features, numFeatures, chunkFrames - numFeatures);
+                if (numFeatures == chunkFrames) {
+                    forwardChunk();
+                }
+            }
+        }
+
+        @Override
+        public String getResult() {
+            int length = search.getLength(0);
+            if (tokens.length < length) {
+                tokens = new int[Math.max(tokens.length * 2, length)];
+            }
+            search.getTokens(0, tokens);
+            text.setLength(0);
+            for (int i = 0; i < length; i++) {
+                if (tokens[i] < units.length) {
+                    appendUnit(units[tokens[i]]);
+                }
+            }
+            return text.toString();
+        }
+
+        @Override
+        public String finish() {
+            // the last chunk may be short, it still needs the right context
+            if (numFeatures > cachedFrames && numFeatures >= rightContext + 1) {
+                forwardChunk();
+            }
+            closeLastResult();
+            search.finalizeSearch();
+            return getResult();
+        }
+
+        private void forwardChunk() {
+            boolean full = numFeatures == chunkFrames;
+            chunkBuffer.clear();
+            chunkBuffer.put(features, 0, numFeatures * NUM_BINS);
+            chunkBuffer.clear();
+            OnnxTensor shortChunk = null;
+            try {
+                if (!full) {
+                    chunkBuffer.limit(numFeatures * NUM_BINS);
+                    shortChunk = OnnxTensor.createTensor(environment, chunkBuffer,
+                            new long[]{1, numFeatures, NUM_BINS});
+                }
+                runEncoder(full ? chunkTensor : shortChunk);
+            } catch (OrtException e) {
+                throw new IllegalStateException("Encoder run failed", e);
+            } finally {
+                if (shortChunk != null) {
+                    shortChunk.close();
+                }
+            }
+            // the next chunk sees the last frames again
+            System.arraycopy(features, (numFeatures - cachedFrames) * NUM_BINS, features, 0, cachedFrames * NUM_BINS);
+            numFeatures = cachedFrames;
+        }
+
+        private void runEncoder(OnnxTensor chunk) throws OrtException {
+            offsetBuffer.put(0, offset);
+            if (maskBuffer != null) {
+                // mask the left chunks the cache doesn't hold yet
+                long chunkIndex = offset / chunkSize - numLeftChunks;
+                int masked = chunkIndex < numLeftChunks ? (int) (numLeftChunks - chunkIndex) * chunkSize : 0;
+                for (int i = 0; i < maskBuffer.capacity(); i++) {
+                    maskBuffer.put(i, (byte) (i < masked ? 0 : 1));
+                }
+            }
+
+            OnnxTensor attCache;
+            OnnxTensor cnnCache;
+            if (lastResult != null) {
+                attCache = output(lastResult, encoderOutputs[1]);
+                cnnCache = output(lastResult, encoderOutputs[2]);
+            } else {
+                attCache = attCacheTensors[current];
+                cnnCache = cnnCacheTensors[current];
+            }
+            for (String name : encoderInputs) {
+                switch (name) {
+                    case "chunk":
+                        inputs.put(name, chunk);
+                        break;
+                    case "offset":
+                        inputs.put(name, offsetTensor);
+                        break;
+                    case "required_cache_size":
+                        inputs.put(name, requiredCacheSizeTensor);
+                        break;
+                    case "att_cache":
+                        inputs.put(name, attCache);
+                        break;
+                    case "cnn_cache":
+                        inputs.put(name, cnnCache);
+                        break;
+                    case "att_mask":
+                        inputs.put(name, maskTensor);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            OrtSession.Result result;
+            if (pinned) {
+                pinnedOutputs.put(encoderOutputs[1], attCacheTensors[1 - current]);
+                pinnedOutputs.put(encoderOutputs[2], cnnCacheTensors[1 - current]);
+                result = encoder.run(inputs, requestedOutputs, pinnedOutputs);
+                current = 1 - current;
+            } else {
+                result = encoder.run(inputs);
+            }
+            try {
+                OnnxTensor encoderOut = output(result, encoderOutputs[0]);
+                int frames = (int) encoderOut.getInfo().getShape()[1];
+                offset += frames;
+                ctcInputs.put(ctcInput, encoderOut);
+                if (frames == chunkSize) {
+                    // the pinned output is not owned by the result, it stays open
+                    ctc.run(ctcInputs, ctcOutputs).close();
+                    search.search(logProbs, frames, vocabSize);
+                } else {
+                    // the short last chunk
+                    try (OrtSession.Result ctcResult = ctc.run(ctcInputs)) {
+                        OnnxTensor shortLogProbs = (OnnxTensor) ctcResult.get(0);
+                        search.search(shortLogProbs.getFloatBuffer(), frames, vocabSize);
+                    }
+                }
+            } finally {
+                ctcInputs.clear();
+                if (pinned) {
+                    result.close();
+                } else {
+                    closeLastResult();
+                    lastResult = result;
+                }
+            }
+        }
+
+        // word pieces start a word with ▁, like the native result
+        private void appendUnit(String unit) {
+            if (unit.startsWith("▁")) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(unit, 1, unit.length());
+            } else {
+                text.append(unit);
+            }
+        }
+
+        private OnnxTensor output(OrtSession.Result result, String name) {
+            for (Map.Entry<String, OnnxValue> entry : result) {
+                if (entry.getKey().equals(name)) {
+                    return (OnnxTensor) entry.getValue();
+                }
+            }
+            throw new IllegalStateException("Encoder has no output " + name);
+        }
+
+        private void closeLastResult() {
+            if (lastResult != null) {
+                lastResult.close();
+                lastResult = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            closeLastResult();
+            chunkTensor.close();
+            offsetTensor.close();
+            logProbsTensor.close();
+            requiredCacheSizeTensor.close();
+            if (maskTensor != null) {
+                maskTensor.close();
+            }
+            for (int i = 0; i < 2; i++) {
+                if (attCacheTensors[i] != null) {
+                    attCacheTensors[i].close();
+                    cnnCacheTensors[i].close();
+                }
+            }
+        }
+    }
+}
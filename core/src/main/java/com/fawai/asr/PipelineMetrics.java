@@ -0,0 +1,226 @@
+package com.fawai.asr;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and throughput of capture, VAD, ASR and results. The capture thread stamps
+ * every audio frame by its ring sequence number, the later stages look the stamp up, so
+ * a stage records its latency with one array read and a histogram add. Latencies are in
+ * microseconds, the real time factor in thousandths. Every {@code traceEvery}th frame is
+ * traced through its stages to the {@link TraceSink}, instead of logging every chunk.
+ * All of it can be read or dumped from any thread while the pipeline runs.
+ */
+public class PipelineMetrics {
+    /** Consumers of the capture ring. */
+    public enum Queue { VAD, ASR, METER }
+
+    public interface TraceSink {
+        void trace(String line);
+    }
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final Clock clock;
+    private final int sampleRate;
+    private final int traceEvery;
+    private volatile TraceSink traceSink = null;
+
+    // capture time of frame seq at seq & mask, written before the frame is published
+    private final long[] captureNanos;
+    private final int mask;
+    private final AtomicLong capturedFrames = new AtomicLong();
+
+    private final LatencyHistogram vadLatency = new LatencyHistogram();
+    private final LatencyHistogram firstPartialLatency = new LatencyHistogram();
+    private final LatencyHistogram finalLatency = new LatencyHistogram();
+    private final LatencyHistogram rtf = new LatencyHistogram();
+    private final LatencyHistogram[] queueDepths = new LatencyHistogram[Queue.values().length];
+    private final AtomicLongArray droppedFrames = new AtomicLongArray(Queue.values().length);
+    // last cursor of each queue and the drops already counted, only used by its consumer
+    private final AudioRing.Cursor[] cursors = new AudioRing.Cursor[Queue.values().length];
+    private final long[] countedDrops = new long[Queue.values().length];
+
+    private volatile long speechStartNanos = 0;
+    private volatile long inputFinishedNanos = 0;
+    private final AtomicBoolean firstPartialPending = new AtomicBoolean();
+    private final AtomicLong asrSamples = new AtomicLong();
+
+    /**
+     * @param frameCapacity frames stamped before the oldest stamp is overwritten, at
+     *                      least the capacity of the capture ring
+     * @param traceEvery    traced frames, 1 in traceEvery
+     */
+    public PipelineMetrics(int frameCapacity, int sampleRate, int traceEvery) {
+        this(frameCapacity, sampleRate, traceEvery, SYSTEM_CLOCK);
+    }
+
+    PipelineMetrics(int frameCapacity, int sampleRate, int traceEvery, Clock clock) {
+        int capacity = Integer.highestOneBit(Math.max(frameCapacity, 2) - 1) << 1;
+        this.captureNanos = new long[capacity];
+        this.mask = capacity - 1;
+        this.sampleRate = sampleRate;
+        this.traceEvery = Math.max(traceEvery, 1);
+        this.clock = clock;
+        for (int i = 0; i < queueDepths.length; i++) {
+            queueDepths[i] = new LatencyHistogram();
+        }
+    }
+
+    public void setTraceSink(TraceSink sink) {
+        traceSink = sink;
+    }
+
+    private long micros(long fromNanos) {
+        return (clock.nanoTime() - fromNanos) / 1000;
+    }
+
+    private void trace(long seq, String stage, long latencyMicros, long depth) {
+        TraceSink sink = traceSink;
+        if (sink != null && seq % traceEvery == 0) {
+            sink.trace(String.format(Locale.US, "frame %d %s %.1f ms after capture, queue %d",
+                    seq, stage, latencyMicros / 1000.0, depth));
+        }
+    }
+
+    /** Stamps frame {@code seq}, on the capture thread before the frame is published. */
+    public void onCaptured(long seq) {
+        captureNanos[(int) (seq & mask)] = clock.nanoTime();
+        capturedFrames.incrementAndGet();
+    }
+
+    /**
+     * A consumer of the capture ring read the frame at its cursor, counts its queue depth
+     * and the frames it lost. Call it on the consumer thread before advancing the cursor.
+     */
+    public void onConsumed(Queue queue, AudioRing.Cursor cursor) {
+        int q = queue.ordinal();
+        queueDepths[q].record(cursor.lag());
+        if (cursors[q] != cursor) {
+            cursors[q] = cursor;
+            countedDrops[q] = 0;
+        }
+        long dropped = cursor.getDropped();
+        if (dropped > countedDrops[q]) {
+            droppedFrames.addAndGet(q, dropped - countedDrops[q]);
+            countedDrops[q] = dropped;
+        }
+    }
+
+    /** The VAD scored frame {@code seq}. */
+    public void onVadDecision(long seq, long depth) {
+        long latency = micros(captureNanos[(int) (seq & mask)]);
+        vadLatency.record(latency);
+        trace(seq, "vad", latency, depth);
+    }
+
+    /** The VAD detected speech at frame {@code seq}, the first partial is timed from its capture. */
+    public void onSpeechStart(long seq) {
+        speechStartNanos = captureNanos[(int) (seq & mask)];
+        asrSamples.set(0);
+        firstPartialPending.set(true);
+    }
+
+    /** Frame {@code seq} was fed to the recognizer. */
+    public void onAsrAccepted(long seq, int samples, long depth) {
+        asrSamples.addAndGet(samples);
+        trace(seq, "asr", micros(captureNanos[(int) (seq & mask)]), depth);
+    }
+
+    public void onPartialResult() {
+        if (firstPartialPending.compareAndSet(true, false)) {
+            firstPartialLatency.record(micros(speechStartNanos));
+        }
+    }
+
+    /** The input of the recognizer is finished, the final result is timed from here. */
+    public void onInputFinished() {
+        inputFinishedNanos = clock.nanoTime();
+    }
+
+    /**
+     * @param decodeMicros decoder time of the utterance, for the real time factor
+     */
+    public void onFinalResult(long decodeMicros) {
+        firstPartialPending.set(false);
+        if (inputFinishedNanos != 0) {
+            finalLatency.record(micros(inputFinishedNanos));
+            inputFinishedNanos = 0;
+        }
+        long audioMicros = asrSamples.getAndSet(0) * 1000000L / sampleRate;
+        if (audioMicros > 0) {
+            rtf.record(decodeMicros * 1000 / audioMicros);
+        }
+    }
+
+    public long getCapturedFrames() {
+        return capturedFrames.get();
+    }
+
+    /** From capture to the VAD score of a frame. */
+    public LatencyHistogram getVadLatency() {
+        return vadLatency;
+    }
+
+    /** From the capture of the speech start frame to the first partial result. */
+    public LatencyHistogram getFirstPartialLatency() {
+        return firstPartialLatency;
+    }
+
+    /** From the end of the input, the endpoint, to the rescored final result. */
+    public LatencyHistogram getFinalLatency() {
+        return finalLatency;
+    }
+
+    /** Decoder time over audio time of each utterance, in thousandths. */
+    public LatencyHistogram getRtf() {
+        return rtf;
+    }
+
+    /** Frames waiting in a queue, sampled whenever its consumer reads a frame. */
+    public LatencyHistogram getQueueDepth(Queue queue) {
+        return queueDepths[queue.ordinal()];
+    }
+
+    public long getDroppedFrames(Queue queue) {
+        return droppedFrames.get(queue.ordinal());
+    }
+
+    public void reset() {
+        capturedFrames.set(0);
+        vadLatency.reset();
+        firstPartialLatency.reset();
+        finalLatency.reset();
+        rtf.reset();
+        for (int i = 0; i < queueDepths.length; i++) {
+            queueDepths[i].reset();
+            droppedFrames.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder dump = new StringBuilder();
+        dump.append("captured frames ").append(getCapturedFrames())
+                .append("\nvad latency us: ").append(vadLatency)
+                .append("\nfirst partial us: ").append(firstPartialLatency)
+                .append("\nendpoint to final us: ").append(finalLatency)
+                .append("\nrtf 1/1000: ").append(rtf);
+        for (Queue queue : Queue.values()) {
+            dump.append("\nqueue ").append(queue.name().toLowerCase(Locale.US)).append(": ")
+                    .append(getQueueDepth(queue)).append(", dropped ").append(getDroppedFrames(queue));
+        }
+        return dump.toString();
+    }
+}
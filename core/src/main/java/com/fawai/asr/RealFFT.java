@@ -0,0 +1,121 @@
+package com.fawai.asr;
+
+/**
+ * Power spectrum of real frames through an n/2 point complex radix-2 FFT.
+ * Twiddles, the bit reversal table and the work arrays are allocated once,
+ * so one instance must not be shared between threads.
+ */
+public class RealFFT {
+    private final int size;
+    private final int half;
+
+    private final int[] bitReverse;
+    // twiddles of the n/2 point complex transform
+    private final float[] cosHalf;
+    private final float[] sinHalf;
+    // twiddles splitting the complex result into the real spectrum
+    private final float[] cosSplit;
+    private final float[] sinSplit;
+
+    private final float[] re;
+    private final float[] im;
+
+    public RealFFT(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of 2, got " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; ++i) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        cosHalf = new float[half / 2];
+        sinHalf = new float[half / 2];
+        for (int i = 0; i < half / 2; ++i) {
+            double theta = 2.0D * Math.PI * i / half;
+            cosHalf[i] = (float) Math.cos(theta);
+            sinHalf[i] = (float) -Math.sin(theta);
+        }
+
+        cosSplit = new float[half + 1];
+        sinSplit = new float[half + 1];
+        for (int k = 0; k <= half; ++k) {
+            double theta = 2.0D * Math.PI * k / size;
+            cosSplit[k] = (float) Math.cos(theta);
+            sinSplit[k] = (float) -Math.sin(theta);
+        }
+
+        re = new float[half];
+        im = new float[half];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Writes |X[k]|^2, k = 0 .. size / 2, of {@code size} samples starting at
+     * {@code offset} into {@code power}. {@code window} may be null.
+     */
+    public void powerSpectrum(float[] input, int offset, float[] window, float[] power) {
+        // pack even samples as real and odd samples as imaginary part
+        for (int k = 0; k < half; ++k) {
+            int j = bitReverse[k];
+            int n = offset + 2 * k;
+            if (window != null) {
+                re[j] = input[n] * window[2 * k];
+                im[j] = input[n + 1] * window[2 * k + 1];
+            } else {
+                re[j] = input[n];
+                im[j] = input[n + 1];
+            }
+        }
+
+        transform();
+
+        for (int k = 0; k <= half; ++k) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+            float ar = re[a];
+            float ai = im[a];
+            float br = re[b];
+            float bi = im[b];
+
+            float er = 0.5F * (ar + br);
+            float ei = 0.5F * (ai - bi);
+            float or = 0.5F * (ar - br);
+            float oi = 0.5F * (ai + bi);
+            float wr = cosSplit[k];
+            float wi = sinSplit[k];
+
+            float xr = er + (wr * oi + wi * or);
+            float xi = ei - (wr * or - wi * oi);
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+
+    private void transform() {
+        for (int len = 2; len <= half; len <<= 1) {
+            int mid = len >> 1;
+            int step = half / len;
+            for (int i = 0; i < half; i += len) {
+                for (int j = 0; j < mid; ++j) {
+                    float wr = cosHalf[j * step];
+                    float wi = sinHalf[j * step];
+                    int p = i + j;
+                    int q = p + mid;
+                    float tr = wr * re[q] - wi * im[q];
+                    float ti = wr * im[q] + wi * re[q];
+                    re[q] = re[p] - tr;
+                    im[q] = im[p] - ti;
+                    re[p] += tr;
+                    im[p] += ti;
+                }
+            }
+        }
+    }
+}
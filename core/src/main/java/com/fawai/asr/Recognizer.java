@@ -0,0 +1,31 @@
+package com.fawai.asr;
+
+import java.io.Closeable;
+
+/**
+ * Offline speech recognizer, {@code NativeRecognizer} of the app on the device. Lets the batch
+ * pipeline run against a fake engine in tests.
+ */
+public interface Recognizer {
+    /** Decodes one utterance after the other, used by one thread at a time. */
+    interface Session extends Closeable {
+        /** Starts a new utterance. */
+        void start();
+
+        void acceptWaveform(short[] samples, int offset, int length);
+
+        /** Transcript of the utterance so far. */
+        String getResult();
+
+        /** Ends the input and blocks until the final result of the utterance. */
+        String finish();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * @throws IllegalStateException if no more sessions can be opened
+     */
+    Session openSession();
+}
@@ -0,0 +1,134 @@
+package com.fawai.asr;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the recognition results of the decode thread to the display. Every changed text
+ * gets a new, increasing version and is split into a stable prefix, the text the last two
+ * hypotheses agree on or an endpoint committed, and an unstable suffix the decoder may
+ * still revise. The display is not called per result: a change posts one frame callback,
+ * the frame delivers the latest result only, so it updates at most once a frame and
+ * never without a change.
+ */
+public class ResultPublisher {
+    /** Runs a callback before the next frame is drawn, the Android Choreographer. */
+    public interface FrameScheduler {
+        void postFrame(Runnable callback);
+    }
+
+    /** Called on the frame thread with the latest result. */
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+    public static final class Result {
+        public final long version;
+        public final String text;
+        // length of the stable prefix
+        public final int stableLength;
+        public final boolean isFinal;
+
+        Result(long version, String text, int stableLength, boolean isFinal) {
+            this.version = version;
+            this.text = text;
+            this.stableLength = stableLength;
+            this.isFinal = isFinal;
+        }
+
+        public String getStable() {
+            return text.substring(0, stableLength);
+        }
+
+        public String getUnstable() {
+            return text.substring(stableLength);
+        }
+    }
+
+    private final FrameScheduler scheduler;
+    private final Listener listener;
+    private final AtomicReference<Result> latest = new AtomicReference<>(new Result(0, "", 0, true));
+    private final AtomicBoolean framePosted = new AtomicBoolean();
+    private final Runnable frame = this::deliver;
+    // only used on the frame thread
+    private long deliveredVersion = 0;
+    // guarded by this, the text committed by the last endpoint
+    private String committed = "";
+    private String lastPartial = "";
+
+    public ResultPublisher(FrameScheduler scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /** Starts an utterance, nothing is committed. The version keeps increasing. */
+    public synchronized void reset() {
+        committed = "";
+        lastPartial = "";
+    }
+
+    /** A partial hypothesis, the committed text followed by the decoding part. */
+    public synchronized void publishPartial(String text) {
+        int stable = text.startsWith(committed) ? committed.length() : 0;
+        stable = Math.max(stable, commonPrefix(text, lastPartial));
+        lastPartial = text;
+        publish(text, stable, false);
+    }
+
+    /** The decoder committed the text at an endpoint, it does not change anymore. */
+    public synchronized void publishEndpoint(String text) {
+        committed = text;
+        lastPartial = text;
+        publish(text, text.length(), false);
+    }
+
+    /** The final text of the utterance, or a message in its place. */
+    public synchronized void publishFinal(String text) {
+        committed = "";
+        lastPartial = "";
+        publish(text, text.length(), true);
+    }
+
+    private void publish(String text, int stableLength, boolean isFinal) {
+        Result last = latest.get();
+        if (last.text.equals(text) && last.stableLength == stableLength && last.isFinal == isFinal) {
+            return;
+        }
+        latest.set(new Result(last.version + 1, text, stableLength, isFinal));
+        if (framePosted.compareAndSet(false, true)) {
+            scheduler.postFrame(frame);
+        }
+    }
+
+    private void deliver() {
+        // cleared before the read, a result published after it posts the next frame
+        framePosted.set(false);
+        Result result = latest.get();
+        if (result.version != deliveredVersion) {
+            deliveredVersion = result.version;
+            listener.onResult(result);
+        }
+    }
+
+    /** The latest result, for readers polling the version instead of listening. */
+    public Result getLatest() {
+        return latest.get();
+    }
+
+    public long getVersion() {
+        return latest.get().version;
+    }
+
+    // surrogate pairs are not split
+    static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i > 0 && i < a.length() && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,142 @@
+package com.fawai.asr;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Stateful MFCC extractor for chunked audio. Only the frames made complete by each
+ * new chunk are computed, the overlap tail is kept for the next call, and the latest
+ * {@code numFrames} MFCC vectors are held in a rolling feature matrix.
+ *
+ * The first frame is reflect padded like {@link AudioFeatureExtraction#generateMFCCFeatures},
+ * afterwards frames are centered on real samples, so the window trails the newest
+ * sample by n_fft / 2 samples.
+ */
+public class StreamingFeatureExtraction {
+    private static final int PENDING_CAPACITY = 4 * 512;
+
+    private final AudioFeatureExtraction featureEngine;
+    private final int fftSize;
+    private final int hopLength;
+    private final int featureDim;
+    private final int numFrames;
+
+    // samples not consumed by a frame yet, pendingStart is the start of the next frame
+    private final float[] pending;
+    private int pendingStart;
+    private int pendingEnd;
+    private boolean primed;
+
+    // rolling feature matrix, frames[frameHead] is the next one to overwrite
+    private final float[][] frames;
+    private int frameHead;
+    private long frameCount;
+
+    public StreamingFeatureExtraction(AudioFeatureExtraction featureEngine, int numFrames) {
+        this.featureEngine = featureEngine;
+        this.fftSize = AudioFeatureExtraction.getFftSize();
+        this.hopLength = AudioFeatureExtraction.getHopLength();
+        this.featureDim = AudioFeatureExtraction.getFeatureDim();
+        this.numFrames = numFrames;
+        this.pending = new float[Math.max(PENDING_CAPACITY, 2 * fftSize)];
+        this.frames = new float[numFrames][featureDim];
+        reset();
+    }
+
+    public void reset() {
+        pendingStart = 0;
+        pendingEnd = fftSize / 2;  // room for the left reflect padding
+        primed = false;
+        frameHead = 0;
+        frameCount = 0;
+    }
+
+    /**
+     * Appends 16 bit pcm samples and computes the frames they complete.
+     *
+     * @return number of new feature frames
+     */
+    public int acceptWaveform(short[] pcm, int offset, int length) {
+        long before = frameCount;
+        int end = offset + length;
+        while (offset < end) {
+            if (pendingEnd == pending.length) {
+                compact();
+            }
+            int n = Math.min(pending.length - pendingEnd, end - offset);
+            for (int i = 0; i < n; ++i) {
+                pending[pendingEnd + i] = pcm[offset + i] / (float) Short.MAX_VALUE;  // from short to float
+            }
+            pendingEnd += n;
+            offset += n;
+            computeFrames();
+        }
+        return (int) (frameCount - before);
+    }
+
+    public int acceptWaveform(short[] pcm) {
+        return acceptWaveform(pcm, 0, pcm.length);
+    }
+
+    /** Total number of frames computed since the last reset. */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    public boolean isWindowReady() {
+        return frameCount >= numFrames;
+    }
+
+    /**
+     * Copies the rolling feature matrix into {@code dst} as [featureDim][numFrames],
+     * oldest frame first, the layout of {@link AudioFeatureExtraction#generateMFCCFeatures}.
+     */
+    public void copyWindow(float[] dst) {
+        for (int f = 0; f < numFrames; ++f) {
+            float[] frame = frames[(frameHead + f) % numFrames];
+            for (int d = 0; d < featureDim; ++d) {
+                dst[d * numFrames + f] = frame[d];
+            }
+        }
+    }
+
+    /** Same as {@link #copyWindow(float[])}, into e.g. the direct buffer of a model input. */
+    public void copyWindow(FloatBuffer dst) {
+        for (int f = 0; f < numFrames; ++f) {
+            float[] frame = frames[(frameHead + f) % numFrames];
+            for (int d = 0; d < featureDim; ++d) {
+                dst.put(d * numFrames + f, frame[d]);
+            }
+        }
+    }
+
+    private void computeFrames() {
+        if (!primed) {
+            int half = fftSize / 2;
+            if (pendingEnd - half <= half) {
+                return;
+            }
+            for (int j = 0; j < half; ++j) {
+                pending[half - j - 1] = pending[half + j + 1];
+            }
+            primed = true;
+        }
+
+        while (pendingEnd - pendingStart >= fftSize) {
+            featureEngine.generateFrameMFCC(pending, pendingStart, frames[frameHead]);
+            frameHead = (frameHead + 1) % numFrames;
+            ++frameCount;
+            pendingStart += hopLength;
+        }
+    }
+
+    private void compact() {
+        int n = pendingEnd - pendingStart;
+        System.arraycopy(pending, pendingStart, pending, 0, n);
+        pendingStart = 0;
+        pendingEnd = n;
+    }
+}
@@ -0,0 +1,211 @@
+package com.fawai.asr;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * Collects feature windows of many streams and scores them as one [N, FEAT_DIM,
+ * FEAT_FRAME_SIZE] batch. A batch is dispatched when {@code maxBatchSize} windows are
+ * waiting or {@code maxWaitMicros} after its first window arrived. While one batch runs
+ * the next one is filled in a second staging buffer; callbacks are invoked on the
+ * batcher thread in submission order. The model needs a dynamic batch dimension.
+ */
+public class VadBatcher implements AutoCloseable {
+    public interface Callback {
+        /** {@code output} is only valid during the call. */
+        void onResult(VadInference output, int batchIndex);
+
+        /** The batch failed to run, or {@link #onResult} of this callback threw. */
+        void onError(Exception e);
+    }
+
+    private static final int WINDOW_SIZE = VoiceDetector.FEAT_DIM * VoiceDetector.FEAT_FRAME_SIZE;
+
+    private final VadModel model;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition slotFree = lock.newCondition();
+
+    // two staging buffers, one filled by submitters while the other one runs
+    private final FloatBuffer[] staging = new FloatBuffer[2];
+    private final Callback[][] callbacks;
+    // inference contexts over the first n windows of each staging buffer, created on first use
+    private final VadInference[][] inferences;
+    private int filling = 0;
+    private int pending = 0;
+    private long firstArrival = 0;
+    private boolean closed = false;
+
+    private final Thread worker;
+
+    public VadBatcher(VadModel model, int maxBatchSize, long maxWaitMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be positive, got " + maxBatchSize);
+        }
+        this.model = model;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.callbacks = new Callback[2][maxBatchSize];
+        this.inferences = new VadInference[2][maxBatchSize + 1];
+        for (int i = 0; i < 2; ++i) {
+            staging[i] = VadInference.allocateDirect(maxBatchSize * WINDOW_SIZE);
+        }
+        worker = new Thread(this::dispatchLoop, "vad-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues one [FEAT_DIM][FEAT_FRAME_SIZE] window, see {@link VoiceDetector#copyWindow(float[])}.
+     * Blocks while the batch being filled is full and the previous one still runs.
+     *
+     * @throws IllegalStateException if the batcher is closed or its thread was interrupted
+     */
+    public void submit(float[] window, Callback callback) throws InterruptedException {
+        lock.lock();
+        try {
+            while (pending == maxBatchSize && !closed) {
+                slotFree.await();
+            }
+            if (closed) {
+                throw new IllegalStateException("VadBatcher is closed");
+            }
+            FloatBuffer slot = staging[filling];
+            slot.position(pending * WINDOW_SIZE);
+            slot.put(window, 0, WINDOW_SIZE);
+            slot.clear();
+            callbacks[filling][pending] = callback;
+            if (pending++ == 0) {
+                firstArrival = System.nanoTime();
+            }
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            int batch;
+            int size;
+            InterruptedException interrupt = null;
+            lock.lock();
+            try {
+                while (pending == 0 && !closed) {
+                    batchReady.awaitUninterruptibly();
+                }
+                if (pending == 0) {
+                    return;  // closed and drained
+                }
+                long remaining = firstArrival + maxWaitNanos - System.nanoTime();
+                while (pending < maxBatchSize && remaining > 0 && !closed) {
+                    remaining = batchReady.awaitNanos(remaining);
+                }
+                batch = filling;
+                size = pending;
+                filling ^= 1;
+                pending = 0;
+                slotFree.signalAll();
+            } catch (InterruptedException e) {
+                // nobody is left to score the queued windows, fail them and let submit throw
+                interrupt = e;
+                closed = true;
+                batch = filling;
+                size = pending;
+                pending = 0;
+                slotFree.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (interrupt != null) {
+                for (int i = 0; i < size; ++i) {
+                    notifyError(callbacks[batch][i], interrupt);
+                    callbacks[batch][i] = null;
+                }
+                return;
+            }
+            runBatch(batch, size);
+        }
+    }
+
+    private void runBatch(int batch, int size) {
+        Callback[] batchCallbacks = callbacks[batch];
+        try {
+            VadInference inference = inferences[batch][size];
+            if (inference == null) {
+                FloatBuffer input = staging[batch].duplicate();
+                input.limit(size * WINDOW_SIZE);
+                inference = new VadInference(model.getEnvironment(), model.getSession(), input,
+                        new long[]{size, VoiceDetector.FEAT_DIM, VoiceDetector.FEAT_FRAME_SIZE});
+                inferences[batch][size] = inference;
+            }
+            inference.run();
+            for (int i = 0; i < size; ++i) {
+                try {
+                    batchCallbacks[i].onResult(inference, i);
+                } catch (RuntimeException e) {
+                    // one stream must not stop the thread the other streams depend on
+                    notifyError(batchCallbacks[i], e);
+                }
+            }
+        } catch (OrtException e) {
+            for (int i = 0; i < size; ++i) {
+                notifyError(batchCallbacks[i], e);
+            }
+        } finally {
+            for (int i = 0; i < size; ++i) {
+                batchCallbacks[i] = null;
+            }
+        }
+    }
+
+    private static void notifyError(Callback callback, Exception e) {
+        try {
+            callback.onError(e);
+        } catch (RuntimeException ignored) {
+            // nothing left to tell that stream
+        }
+    }
+
+    /**
+     * Scores the windows already queued, then stops the batcher thread and closes its tensors.
+     * An interrupt does not cut the wait short, it is kept for the caller.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            batchReady.signalAll();
+            slotFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                worker.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (VadInference[] row : inferences) {
+            for (VadInference inference : row) {
+                if (inference != null) {
+                    inference.close();
+                }
+            }
+        }
+    }
+}
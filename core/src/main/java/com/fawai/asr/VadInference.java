@@ -0,0 +1,162 @@
+package com.fawai.asr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * Reusable inference context of the VAD model. Input and output names are looked up
+ * once, the input tensor wraps a direct buffer the features are written into, and the
+ * output is written by the runtime into a pinned direct buffer, so a steady state step
+ * creates no tensors. Not thread safe, use one context per stream.
+ */
+public class VadInference implements AutoCloseable {
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final String outputName;
+
+    private final FloatBuffer inputBuffer;
+    private final OnnxTensor inputTensor;
+    private final Map<String, OnnxTensor> inputs;
+
+    private FloatBuffer outputBuffer = null;
+    private OnnxTensor outputTensor = null;
+    private Map<String, OnnxTensor> outputs = null;
+    private int outputBatch;
+    private int outputFrames;
+    private int outputClasses;
+
+    public VadInference(OrtEnvironment environment, OrtSession session, long[] inputShape)
+            throws OrtException {
+        this(environment, session, allocateDirect((int) numElements(inputShape)), inputShape);
+    }
+
+    /**
+     * Runs on a caller owned direct buffer holding exactly the elements of {@code inputShape},
+     * e.g. a region of a batch staging buffer.
+     */
+    public VadInference(OrtEnvironment environment, OrtSession session, FloatBuffer inputBuffer,
+                        long[] inputShape) throws OrtException {
+        if (!inputBuffer.isDirect() || inputBuffer.remaining() != numElements(inputShape)) {
+            throw new IllegalArgumentException("Input must be a direct buffer of "
+                    + numElements(inputShape) + " floats");
+        }
+        this.environment = environment;
+        this.session = session;
+        String inputName = session.getInputNames().iterator().next();
+        this.outputName = session.getOutputNames().iterator().next();
+
+        this.inputBuffer = inputBuffer;
+        inputTensor = OnnxTensor.createTensor(environment, inputBuffer, inputShape);
+        inputs = Collections.singletonMap(inputName, inputTensor);
+
+        try {
+            NodeInfo outputInfo = session.getOutputInfo().get(outputName);
+            if (outputInfo.getInfo() instanceof TensorInfo) {
+                long[] shape = ((TensorInfo) outputInfo.getInfo()).getShape();
+                if (isStatic(shape)) {
+                    pinOutput(shape);
+                }
+            }
+        } catch (OrtException | RuntimeException e) {
+            // the caller never gets the context to close
+            close();
+            throw e;
+        }
+    }
+
+    /** Direct buffer backing the input tensor, write the features here before {@link #run()}. */
+    public FloatBuffer getInputBuffer() {
+        return inputBuffer;
+    }
+
+    public void run() throws OrtException {
+        if (outputs == null) {
+            // dynamic output shape, learn it from the first run and pin it for the next ones
+            try (OrtSession.Result result = session.run(inputs)) {
+                OnnxTensor output = (OnnxTensor) result.get(0);
+                pinOutput(output.getInfo().getShape());
+                outputBuffer.put(output.getFloatBuffer());
+                outputBuffer.clear();
+            }
+            return;
+        }
+        // pinned output is not owned by the result, it stays open
+        OrtSession.Result result = session.run(inputs, outputs);
+        result.close();
+    }
+
+    public int getBatchSize() {
+        return outputBatch;
+    }
+
+    public int getOutputFrames() {
+        return outputFrames;
+    }
+
+    public int getOutputClasses() {
+        return outputClasses;
+    }
+
+    /** Model output of the last {@link #run()} for output frame {@code frame}. */
+    public float getOutput(int frame, int cls) {
+        return getOutput(0, frame, cls);
+    }
+
+    public float getOutput(int batch, int frame, int cls) {
+        return outputBuffer.get((batch * outputFrames + frame) * outputClasses + cls);
+    }
+
+    @Override
+    public void close() {
+        if (outputTensor != null) {
+            outputTensor.close();
+            outputTensor = null;
+            outputs = null;
+        }
+        inputTensor.close();
+    }
+
+    private void pinOutput(long[] shape) throws OrtException {
+        // [batch, frames, classes]
+        outputBatch = shape.length > 2 ? (int) shape[0] : 1;
+        outputFrames = (int) shape[shape.length - 2];
+        outputClasses = (int) shape[shape.length - 1];
+        outputBuffer = allocateDirect((int) numElements(shape));
+        outputTensor = OnnxTensor.createTensor(environment, outputBuffer, shape);
+        outputs = Collections.singletonMap(outputName, outputTensor);
+    }
+
+    private static boolean isStatic(long[] shape) {
+        if (shape.length < 2) {
+            return false;
+        }
+        for (long dim : shape) {
+            if (dim <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long numElements(long[] shape) {
+        long size = 1;
+        for (long dim : shape) {
+            size *= dim;
+        }
+        return size;
+    }
+
+    static FloatBuffer allocateDirect(int size) {
+        return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,68 @@
+package com.fawai.asr;
+
+import java.io.File;
+import java.io.IOException;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * Loaded VAD model: the ORT session and the compiled MFCC kernel. Both are immutable
+ * and safe to share between threads, every stream creates its own {@link VoiceDetector}
+ * on top of one model.
+ */
+public class VadModel implements AutoCloseable {
+    public static final String MODEL_FILE = "MarbleNet-mfa.ort";
+    public static final String BASIS_FILE = "feat_basis.bin";
+    public static final String MEL_TEXT_FILE = "fb_m.txt";
+    public static final String DCT_TEXT_FILE = "dct_m.txt";
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final MfccKernel mfccKernel;
+
+    public VadModel(OrtEnvironment environment, OrtSession session, MfccKernel mfccKernel) {
+        this.environment = environment;
+        this.session = session;
+        this.mfccKernel = mfccKernel;
+    }
+
+    /**
+     * Loads the model and the binary feature basis from {@code modelDir}. When only the
+     * text basis is there it is converted once to {@link #BASIS_FILE}.
+     */
+    public static VadModel load(File modelDir) throws IOException, OrtException {
+        File basisFile = new File(modelDir, BASIS_FILE);
+        if (!basisFile.exists() || basisFile.length() == 0) {
+            FeatureBasisFile.convert(new File(modelDir, MEL_TEXT_FILE),
+                    new File(modelDir, DCT_TEXT_FILE), basisFile);
+        }
+        MfccKernel kernel = FeatureBasisFile.load(basisFile);
+
+        OrtEnvironment environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            OrtSession session = environment.createSession(
+                    new File(modelDir, MODEL_FILE).getAbsolutePath(), options);
+            return new VadModel(environment, session, kernel);
+        }
+    }
+
+    public OrtEnvironment getEnvironment() {
+        return environment;
+    }
+
+    public OrtSession getSession() {
+        return session;
+    }
+
+    public MfccKernel getMfccKernel() {
+        return mfccKernel;
+    }
+
+    /** Closes the session, all detectors of this model must be closed before. */
+    @Override
+    public void close() throws OrtException {
+        session.close();
+    }
+}
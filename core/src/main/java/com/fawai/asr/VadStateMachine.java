@@ -0,0 +1,83 @@
+package com.fawai.asr;
+
+/**
+ * Onset / offset hysteresis over per-frame speech probabilities. Probabilities are
+ * smoothed by a moving average, speech starts after {@code minSpeechFrames} smoothed
+ * frames above the onset threshold and ends after {@code hangoverFrames} smoothed
+ * frames below the offset threshold.
+ */
+public class VadStateMachine {
+    public enum VadEvent {
+        NONE,
+        SPEECH_START,
+        SPEECH_END
+    }
+
+    private final float onsetThreshold;
+    private final float offsetThreshold;
+    private final int minSpeechFrames;
+    private final int hangoverFrames;
+
+    private final float[] history;
+    private int historyHead;
+    private int historySize;
+
+    private boolean speech;
+    private int counter;
+
+    public VadStateMachine(float onsetThreshold, float offsetThreshold, int smoothingFrames,
+                           int minSpeechFrames, int hangoverFrames) {
+        if (offsetThreshold > onsetThreshold) {
+            throw new IllegalArgumentException("Offset threshold " + offsetThreshold
+                    + " is above onset threshold " + onsetThreshold);
+        }
+        this.onsetThreshold = onsetThreshold;
+        this.offsetThreshold = offsetThreshold;
+        this.minSpeechFrames = Math.max(1, minSpeechFrames);
+        this.hangoverFrames = Math.max(1, hangoverFrames);
+        this.history = new float[Math.max(1, smoothingFrames)];
+        reset();
+    }
+
+    public void reset() {
+        historyHead = 0;
+        historySize = 0;
+        speech = false;
+        counter = 0;
+    }
+
+    public boolean isSpeech() {
+        return speech;
+    }
+
+    public VadEvent accept(float speechProb) {
+        if (historySize < history.length) {
+            ++historySize;
+        }
+        history[historyHead] = speechProb;
+        historyHead = (historyHead + 1) % history.length;
+        // summed again each frame, a running sum would drift over hours of listening
+        float sum = 0.0F;
+        for (int i = 0; i < historySize; ++i) {
+            sum += history[i];
+        }
+        float smoothed = sum / historySize;
+
+        if (!speech) {
+            counter = smoothed >= onsetThreshold ? counter + 1 : 0;
+            if (counter >= minSpeechFrames) {
+                speech = true;
+                counter = 0;
+                return VadEvent.SPEECH_START;
+            }
+        } else {
+            counter = smoothed < offsetThreshold ? counter + 1 : 0;
+            if (counter >= hangoverFrames) {
+                speech = false;
+                counter = 0;
+                return VadEvent.SPEECH_END;
+            }
+        }
+        return VadEvent.NONE;
+    }
+}
@@ -0,0 +1,164 @@
+package com.fawai.asr;
+
+import ai.onnxruntime.*;
+
+/**
+ * Voice detector of one audio stream. It owns the feature buffers, the inference
+ * context and the hysteresis state of its stream, the model is shared, so detectors
+ * of different streams can run on different threads. One detector must only be used
+ * by one thread at a time.
+ */
+public class VoiceDetector implements AutoCloseable {
+    private final static int CHUNK_TO_READ = 10;
+    private final static int CHUNK_SIZE = 640;
+    public final static int INPUT_SIZE = CHUNK_SIZE * CHUNK_TO_READ;
+    public final static int FEAT_FRAME_SIZE = INPUT_SIZE / 160 + 1;
+    public final static int FEAT_DIM = 64;
+
+    // streaming mode, overlapping windows scored every VAD_HOP_CHUNKS chunks
+    private final static int VAD_HOP_CHUNKS = 2;
+    private final static float ONSET_THRESHOLD = 0.5F;
+    private final static float OFFSET_THRESHOLD = 0.35F;
+    private final static int SMOOTHING_MS = 100;
+    private final static int MIN_SPEECH_MS = 100;
+    private final static int HANGOVER_MS = 800;
+
+    private final StreamingFeatureExtraction featureEngine;
+    private final VadInference vadInference;
+
+    private boolean bufferReady = false;
+    private int bufferSize = 0;
+
+    private VadStateMachine vadStateMachine = null;
+    private long lastScoredFrame = 0;
+
+    public VoiceDetector(VadModel model) throws OrtException {
+        featureEngine = new StreamingFeatureExtraction(
+                new AudioFeatureExtraction(model.getMfccKernel()), FEAT_FRAME_SIZE);
+        vadInference = new VadInference(model.getEnvironment(), model.getSession(),
+                new long[]{1, FEAT_DIM, FEAT_FRAME_SIZE});
+    }
+
+    public void reset() {
+        featureEngine.reset();
+        bufferReady = false;
+        bufferSize = 0;
+        lastScoredFrame = 0;
+        if (vadStateMachine != null) {
+            vadStateMachine.reset();
+        }
+    }
+
+    private void bufferBucket(short[] inputBuffer) {
+        // only the frames completed by this chunk are computed
+        featureEngine.acceptWaveform(inputBuffer);
+        bufferSize = bufferSize + inputBuffer.length;
+        if (bufferSize >= INPUT_SIZE && featureEngine.isWindowReady()) {
+            bufferReady = true;
+        }
+    }
+
+    public boolean vadDetect(short[] inputBuffer) throws OrtException {
+        bufferBucket(inputBuffer);
+        if (!bufferReady) {
+            return false;
+        }
+        // clear buffer bucket
+        bufferReady = false;
+        bufferSize = 0;
+
+        // features go straight into the input tensor
+        featureEngine.copyWindow(vadInference.getInputBuffer());
+
+        // vad model
+        vadInference.run();
+
+        // voice detection, start / end of speech is handled by vadStream
+        for (int i = 0; i < vadInference.getOutputFrames(); i++) {
+            if (vadInference.getOutput(i, 0) < 0.5)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Streaming mode: scores the overlapping feature window every VAD_HOP_CHUNKS chunks,
+     * smooths the speech probabilities of the output frames the window adds and runs them
+     * through the onset / offset hysteresis. Do not mix with {@link #vadDetect(short[])}.
+     */
+    public VadStateMachine.VadEvent vadStream(short[] inputBuffer) throws OrtException {
+        return vadStream(inputBuffer, inputBuffer.length);
+    }
+
+    public VadStateMachine.VadEvent vadStream(short[] inputBuffer, int length) throws OrtException {
+        int newFrames = acceptWaveform(inputBuffer, length);
+        if (newFrames == 0) {
+            return VadStateMachine.VadEvent.NONE;
+        }
+        featureEngine.copyWindow(vadInference.getInputBuffer());
+        vadInference.run();
+        return scoreWindow(vadInference, 0, newFrames);
+    }
+
+    /**
+     * First half of {@link #vadStream(short[])} for batched scoring: appends the chunk and
+     * returns the number of feature frames the window gained since the last scored window
+     * when a new window is due, otherwise 0.
+     */
+    public int acceptWaveform(short[] inputBuffer) {
+        return acceptWaveform(inputBuffer, inputBuffer.length);
+    }
+
+    public int acceptWaveform(short[] inputBuffer, int length) {
+        featureEngine.acceptWaveform(inputBuffer, 0, length);
+        long frameCount = featureEngine.getFrameCount();
+        long newFrames = frameCount - lastScoredFrame;
+        if (!featureEngine.isWindowReady()
+                || newFrames < (long) VAD_HOP_CHUNKS * CHUNK_SIZE / AudioFeatureExtraction.getHopLength()) {
+            return 0;
+        }
+        lastScoredFrame = frameCount;
+        return (int) newFrames;
+    }
+
+    /** Copies the current [FEAT_DIM][FEAT_FRAME_SIZE] feature window. */
+    public void copyWindow(float[] dst) {
+        featureEngine.copyWindow(dst);
+    }
+
+    /**
+     * Second half of {@link #vadStream(short[])}: runs the model output of the window at
+     * {@code batchIndex} through the hysteresis. Windows must be scored in the order they
+     * were accepted.
+     */
+    public VadStateMachine.VadEvent scoreWindow(VadInference output, int batchIndex, int newFrames) {
+        int outputFrames = output.getOutputFrames();
+        if (vadStateMachine == null) {
+            // thresholds are in ms, the output frame rate is only known after the first run
+            float frameMs = (FEAT_FRAME_SIZE - 1) * 10.0F / outputFrames;
+            vadStateMachine = new VadStateMachine(ONSET_THRESHOLD, OFFSET_THRESHOLD,
+                    Math.round(SMOOTHING_MS / frameMs), Math.round(MIN_SPEECH_MS / frameMs),
+                    Math.round(HANGOVER_MS / frameMs));
+        }
+        // the first window is all new
+        int scored = Math.round(outputFrames * newFrames / (float) (FEAT_FRAME_SIZE - 1));
+        scored = Math.max(1, Math.min(outputFrames, scored));
+
+        boolean wasSpeech = vadStateMachine.isSpeech();
+        for (int i = outputFrames - scored; i < outputFrames; i++) {
+            // output 0 is the non speech probability
+            vadStateMachine.accept(1.0F - output.getOutput(batchIndex, i, 0));
+        }
+        // a blip that starts and ends within one hop is not reported
+        if (vadStateMachine.isSpeech() == wasSpeech) {
+            return VadStateMachine.VadEvent.NONE;
+        }
+        return wasSpeech ? VadStateMachine.VadEvent.SPEECH_END : VadStateMachine.VadEvent.SPEECH_START;
+    }
+
+    /** Closes the native tensors of this detector, the model stays open. */
+    @Override
+    public void close() {
+        vadInference.close();
+    }
+}
@@ -4,9 +4,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 
 public class WavFile {
     private static final int BUFFER_SIZE = 4096;
+    // samples are read in bulk from the data chunk, 64 KB at a time
+    private static final int READ_BUFFER_SIZE = 65536;
     private static final int FMT_CHUNK_ID = 544501094;
     private static final int DATA_CHUNK_ID = 1635017060;
     private static final int RIFF_CHUNK_ID = 1179011410;
@@ -18,6 +24,9 @@ public class WavFile {
     private long totalNumFrames;
     private FileOutputStream oStream;
     private FileInputStream iStream;
+    private FileChannel channel;
+    private ByteBuffer readBuffer;
+    private long dataOffset;
     private float floatScale;
     private float floatOffset;
     private boolean wordAlignAdjust;
@@ -173,6 +182,12 @@ public class WavFile {
                             wavFile.bufferPointer = 0;
                             wavFile.bytesRead = 0;
                             wavFile.frameCounter = 0L;
+                            // frame n starts at dataOffset + n * blockAlign, read by position from here
+                            wavFile.channel = wavFile.iStream.getChannel();
+                            wavFile.dataOffset = wavFile.channel.position();
+                            int bufferFrames = Math.max(READ_BUFFER_SIZE / wavFile.blockAlign, 1);
+                            wavFile.readBuffer = ByteBuffer.allocateDirect(bufferFrames * wavFile.blockAlign)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
                             wavFile.ioState = WavFile.IOState.READING;
                             wavFile.totalNumFrames = wavFile.numFrames;
                             return wavFile;
@@ -193,7 +208,8 @@ public class WavFile {
         int mNumFrames = (int)wavFile.getNumFrames();
         int mNumChannels = (int)wavFile.getNumChannels();
         if (sampleRate != wavFile.getSampleRate()) {
-            return null;
+            wavFile.close();
+            throw new WavFileException("Sample rate " + wavFile.getSampleRate() + " does not match " + sampleRate);
         }
 
         float[][] buffer = new float[mNumChannels][mNumFrames];
@@ -218,93 +234,153 @@ public class WavFile {
         return val;
     }
 
-    private double readSample() throws IOException, WavFileException {
-        long val = 0L;
+    /**
+     * Moves the read position to a frame, the next read starts there.
+     */
+    public void seek(long frame) throws WavFileException {
+        if (frame < 0L || frame > this.numFrames) {
+            throw new WavFileException("Frame " + frame + " out of range [0, " + this.numFrames + "]");
+        }
+        this.frameCounter = frame;
+    }
 
-        for(int b = 0; b < this.bytesPerSample; ++b) {
-            int v;
-            if (this.bufferPointer == this.bytesRead) {
-                v = this.iStream.read(this.buffer, 0, 4096);
-                if (v == -1) {
-                    throw new WavFileException("Not enough data available");
-                }
+    public long getFramePosition() {
+        return this.frameCounter;
+    }
 
-                this.bytesRead = v;
-                this.bufferPointer = 0;
+    // reads up to numFrames frames at the read position into readBuffer, returns the frames read
+    private int fill(int numFrames) throws IOException, WavFileException {
+        if (this.ioState != WavFile.IOState.READING) {
+            throw new IOException("Cannot read from WavFile instance");
+        }
+        int count = (int)Math.min(Math.min(numFrames, this.readBuffer.capacity() / this.blockAlign),
+                this.numFrames - this.frameCounter);
+        this.readBuffer.clear();
+        this.readBuffer.limit(count * this.blockAlign);
+        long position = this.dataOffset + this.frameCounter * this.blockAlign;
+        while (this.readBuffer.hasRemaining()) {
+            int n = this.channel.read(this.readBuffer, position);
+            if (n == -1) {
+                throw new WavFileException("Not enough data available");
             }
+            position += n;
+        }
+        this.readBuffer.flip();
+        this.frameCounter += count;
+        return count;
+    }
 
-            v = this.buffer[this.bufferPointer];
+    // sample i of readBuffer scaled as before, 16 bit samples are s / 32767
+    private double sample(int i) {
+        if (this.bytesPerSample == 2) {
+            return (double)this.readBuffer.getShort(i * 2) / 32767.0D;
+        }
+        int pos = i * this.bytesPerSample;
+        long val = 0L;
+        for(int b = 0; b < this.bytesPerSample; ++b) {
+            int v = this.readBuffer.get(pos + b);
             if (b < this.bytesPerSample - 1 || this.bytesPerSample == 1) {
                 v &= 255;
             }
-
             val += (long)(v << b * 8);
-            ++this.bufferPointer;
         }
-
         return (double)val / 32767.0D;
     }
 
+    /**
+     * Reads interleaved 16 bit samples as they are stored, without conversion.
+     */
+    public int readFrames(short[] sampleBuffer, int offset, int numFramesToRead) throws IOException, WavFileException {
+        if (this.bytesPerSample != 2) {
+            throw new WavFileException("Cannot read " + this.validBits + " bit samples as short");
+        }
+        int read = 0;
+        while (read < numFramesToRead) {
+            int count = this.fill(numFramesToRead - read);
+            if (count == 0) {
+                break;
+            }
+            int samples = count * this.numChannels;
+            this.readBuffer.asShortBuffer().get(sampleBuffer, offset, samples);
+            offset += samples;
+            read += count;
+        }
+        return read;
+    }
+
+    public int readFrames(short[] sampleBuffer, int numFramesToRead) throws IOException, WavFileException {
+        return this.readFrames(sampleBuffer, 0, numFramesToRead);
+    }
+
     public int readFrames(float[] sampleBuffer, int numFramesToRead) throws IOException, WavFileException {
         return this.readFramesInternal((float[])sampleBuffer, 0, numFramesToRead);
     }
 
     private int readFramesInternal(float[] sampleBuffer, int offset, int numFramesToRead) throws IOException, WavFileException {
-        if (this.ioState != WavFile.IOState.READING) {
-            throw new IOException("Cannot read from WavFile instance");
-        } else {
-            for(int f = 0; f < numFramesToRead; ++f) {
-                if (this.frameCounter == this.numFrames) {
-                    return f;
+        int read = 0;
+        while (read < numFramesToRead) {
+            int count = this.fill(numFramesToRead - read);
+            if (count == 0) {
+                break;
+            }
+            int samples = count * this.numChannels;
+            if (this.bytesPerSample == 2) {
+                ShortBuffer shorts = this.readBuffer.asShortBuffer();
+                for(int i = 0; i < samples; ++i) {
+                    sampleBuffer[offset + i] = this.floatOffset + (float)((double)shorts.get(i) / 32767.0D) / this.floatScale;
                 }
-
-                for(int c = 0; c < this.numChannels; ++c) {
-                    sampleBuffer[offset] = this.floatOffset + (float)this.readSample() / this.floatScale;
-                    ++offset;
+            } else {
+                for(int i = 0; i < samples; ++i) {
+                    sampleBuffer[offset + i] = this.floatOffset + (float)this.sample(i) / this.floatScale;
                 }
-
-                ++this.frameCounter;
             }
-
-            return numFramesToRead;
+            offset += samples;
+            read += count;
         }
+        return read;
     }
 
+    /**
+     * Reads numFramesToRead frames, after skipping frameOffset frames, into one array per channel.
+     */
     public long readFrames(float[][] sampleBuffer, int numFramesToRead, int frameOffset) throws IOException, WavFileException {
         return this.readFramesInternal(sampleBuffer, frameOffset, numFramesToRead);
     }
 
     private long readFramesInternal(float[][] sampleBuffer, int frameOffset, int numFramesToRead) throws IOException, WavFileException {
-        if (this.ioState != WavFile.IOState.READING) {
-            throw new IOException("Cannot read from WavFile instance");
-        } else {
-            int readFrameCounter = 0;
-
-            for(int f = 0; (long)f < this.totalNumFrames; ++f) {
-                if (readFrameCounter == numFramesToRead) {
-                    return (long)readFrameCounter;
-                }
-
+        this.seek(Math.min(this.frameCounter + frameOffset, this.numFrames));
+        int read = 0;
+        while (read < numFramesToRead) {
+            int count = this.fill(numFramesToRead - read);
+            if (count == 0) {
+                break;
+            }
+            if (this.bytesPerSample == 2) {
+                ShortBuffer shorts = this.readBuffer.asShortBuffer();
                 for(int c = 0; c < this.numChannels; ++c) {
-                    float magValue = (float)this.readSample();
-                    if (f >= frameOffset) {
-                        sampleBuffer[c][readFrameCounter] = magValue;
+                    float[] channelBuffer = sampleBuffer[c];
+                    for(int f = 0, i = c; f < count; ++f, i += this.numChannels) {
+                        channelBuffer[read + f] = (float)((double)shorts.get(i) / 32767.0D);
                     }
                 }
-
-                if (f >= frameOffset) {
-                    ++readFrameCounter;
+            } else {
+                for(int f = 0, i = 0; f < count; ++f) {
+                    for(int c = 0; c < this.numChannels; ++c, ++i) {
+                        sampleBuffer[c][read + f] = (float)this.sample(i);
+                    }
                 }
             }
-
-            return (long)readFrameCounter;
+            read += count;
         }
+        return (long)read;
     }
 
     public void close() throws IOException {
         if (this.iStream != null) {
+            // closes the channel as well
             this.iStream.close();
             this.iStream = null;
+            this.channel = null;
         }
 
         if (this.oStream != null) {
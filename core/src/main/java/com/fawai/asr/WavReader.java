@@ -0,0 +1,115 @@
+package com.fawai.asr;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+/**
+ * Reads one channel of a 16 bit wav file in chunks, e.g. the 640 samples the recorder
+ * hands to the recognizer. Only a chunk is held in memory, whatever the length of the file.
+ */
+public class WavReader implements Closeable {
+    /** 40 ms at 16 kHz, the chunk of the recorder. */
+    public static final int DEFAULT_CHUNK_SAMPLES = 640;
+
+    private final WavFile wavFile;
+    private final int numChannels;
+    private final int channel;
+    // interleaved frames of multi channel files, grows to the largest chunk read
+    private short[] frames = new short[0];
+    // chunk for direct buffers
+    private short[] chunk = new short[0];
+
+    private WavReader(WavFile wavFile, int channel) {
+        this.wavFile = wavFile;
+        this.numChannels = wavFile.getNumChannels();
+        this.channel = channel;
+    }
+
+    /** Opens channel 0 of a file, see {@link #open(File, int, int)}. */
+    public static WavReader open(File file, int sampleRate) throws IOException, WavFileException {
+        return open(file, sampleRate, 0);
+    }
+
+    /**
+     * @throws WavFileException if the file is not 16 bit, has no such channel or its sample
+     *                          rate is not {@code sampleRate}
+     */
+    public static WavReader open(File file, int sampleRate, int channel) throws IOException, WavFileException {
+        WavFile wavFile = WavFile.openWavFile(file);
+        try {
+            if (wavFile.getSampleRate() != sampleRate) {
+                throw new WavFileException("Sample rate " + wavFile.getSampleRate() + " of " + file
+                        + " does not match " + sampleRate);
+            }
+            if (wavFile.getValidBits() != 16) {
+                throw new WavFileException(wavFile.getValidBits() + " bit samples of " + file + " are not supported");
+            }
+            if (channel < 0 || channel >= wavFile.getNumChannels()) {
+                throw new WavFileException("No channel " + channel + " in " + file);
+            }
+        } catch (WavFileException e) {
+            wavFile.close();
+            throw e;
+        }
+        return new WavReader(wavFile, channel);
+    }
+
+    public long getNumSamples() {
+        return wavFile.getNumFrames();
+    }
+
+    public long getSamplesRemaining() {
+        return wavFile.getFramesRemaining();
+    }
+
+    public void seek(long sample) throws WavFileException {
+        wavFile.seek(sample);
+    }
+
+    public int read(short[] buffer) throws IOException, WavFileException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Reads the next samples of the channel.
+     *
+     * @return the samples read, less than {@code length} only at the end of the file
+     */
+    public int read(short[] buffer, int offset, int length) throws IOException, WavFileException {
+        if (numChannels == 1) {
+            return wavFile.readFrames(buffer, offset, length);
+        }
+        if (frames.length < length * numChannels) {
+            frames = new short[length * numChannels];
+        }
+        int read = wavFile.readFrames(frames, 0, length);
+        for (int i = 0, j = channel; i < read; i++, j += numChannels) {
+            buffer[offset + i] = frames[j];
+        }
+        return read;
+    }
+
+    /**
+     * Fills a direct buffer, e.g. for {@code Recognize.acceptWaveform(ShortBuffer, int, int)}
+     * of the app, from sample 0 up to its capacity. Position and limit are not used.
+     *
+     * @return the samples read
+     */
+    public int read(ShortBuffer buffer) throws IOException, WavFileException {
+        int length = buffer.capacity();
+        if (chunk.length < length) {
+            chunk = new short[length];
+        }
+        int read = read(chunk, 0, length);
+        buffer.clear();
+        buffer.put(chunk, 0, read);
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        wavFile.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AudioRingTest {
+    @Test
+    public void publishWakesAWaitingConsumer() throws InterruptedException {
+        final AudioRing ring = new AudioRing(8, 4);
+        final AudioRing.Cursor cursor = ring.newCursor();
+        final AtomicLong wokenNanos = new AtomicLong();
+        Thread consumer = new Thread(() -> {
+            if (cursor.await(10, TimeUnit.SECONDS)) {
+                wokenNanos.set(System.nanoTime());
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        long publishedNanos = System.nanoTime();
+        ring.publish(4);
+        consumer.join();
+        // woken by the publish, not by a poll or the timeout
+        assertTrue(wokenNanos.get() - publishedNanos < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void consumersMissNoFrames() throws InterruptedException {
+        final int frames = 20000;
+        final AudioRing ring = new AudioRing(1 << 15, 1);
+        final long[] sums = new long[10];
+        List<Thread> consumers = new ArrayList<>();
+        // more consumers than waiter slots, the last ones poll
+        for (int c = 0; c < sums.length; c++) {
+            final int index = c;
+            final AudioRing.Cursor cursor = ring.newCursor();
+            consumers.add(new Thread(() -> {
+                for (int i = 0; i < frames; i++) {
+                    assertTrue(cursor.await(10, TimeUnit.SECONDS));
+                    sums[index] += cursor.frame()[0];
+                    cursor.advance();
+                }
+            }));
+        }
+        for (Thread consumer : consumers) {
+            consumer.start();
+        }
+        for (int i = 0; i < frames; i++) {
+            ring.claim()[0] = (short) (i % 100);
+            ring.publish(1);
+            if (i % 1000 == 0) {
+                Thread.sleep(1);
+            }
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        for (long sum : sums) {
+            assertEquals(frames / 100 * 4950, sum);
+        }
+    }
+
+    @Test
+    public void overwrittenFrameIsNotValid() {
+        AudioRing ring = new AudioRing(4, 1);
+        AudioRing.Cursor cursor = ring.newCursor();
+        ring.claim()[0] = 7;
+        ring.publish(1);
+        assertTrue(cursor.available());
+        assertEquals(7, cursor.frame()[0]);
+        assertTrue(cursor.isValid());
+        // the producer wraps around onto the slot being read
+        for (int i = 0; i < 4; i++) {
+            ring.claim()[0] = 8;
+            ring.publish(1);
+        }
+        assertFalse(cursor.isValid());
+    }
+
+    @Test
+    public void validFramesAreNeverTorn() throws InterruptedException {
+        final int frames = 200000;
+        final int frameSize = 64;
+        // a small ring, so the producer keeps overwriting the frame being read
+        final AudioRing ring = new AudioRing(4, frameSize);
+        final AudioRing.Cursor cursor = ring.newCursor();
+        // valid, overwritten and torn frames, an assert would only end the consumer thread
+        final long[] counts = new long[3];
+        Thread consumer = new Thread(() -> {
+            short[] copy = new short[frameSize];
+            while (cursor.sequence() < frames - 1 && cursor.await(10, TimeUnit.SECONDS)) {
+                long seq = cursor.sequence();
+                System.arraycopy(cursor.frame(), 0, copy, 0, frameSize);
+                if (cursor.isValid()) {
+                    for (short sample : copy) {
+                        if (sample != (short) seq) {
+                            counts[2]++;
+                            break;
+                        }
+                    }
+                    counts[0]++;
+                } else {
+                    counts[1]++;
+                }
+                cursor.advance();
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(ring.claim(), (short) i);
+            ring.publish(frameSize);
+        }
+        consumer.join();
+        assertTrue(counts[0] > 0);
+        assertEquals(0, counts[2]);
+    }
+}
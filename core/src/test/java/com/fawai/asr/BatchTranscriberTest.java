@@ -0,0 +1,216 @@
+package com.fawai.asr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchTranscriberTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Transcribes audio to its sample count and sum, tracks the sessions and audio in flight. */
+    private static class FakeRecognizer implements Recognizer {
+        final AtomicInteger sessions = new AtomicInteger();
+        final int maxSessions;
+        final long sleepMillis;
+        int active = 0;
+        long inFlight = 0;
+        int maxActive = 0;
+        long maxInFlight = 0;
+
+        FakeRecognizer(int maxSessions, long sleepMillis) {
+            this.maxSessions = maxSessions;
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Override
+        public Session openSession() {
+            if (sessions.incrementAndGet() > maxSessions) {
+                throw new IllegalStateException("All sessions of the engine are in use");
+            }
+            return new Session() {
+                long samples = 0;
+                long sum = 0;
+
+                @Override
+                public void start() {
+                    samples = 0;
+                    sum = 0;
+                    synchronized (FakeRecognizer.this) {
+                        active++;
+                        maxActive = Math.max(maxActive, active);
+                    }
+                }
+
+                @Override
+                public void acceptWaveform(short[] chunk, int offset, int length) {
+                    for (int i = offset; i < offset + length; i++) {
+                        sum += chunk[i];
+                    }
+                    samples += length;
+                    synchronized (FakeRecognizer.this) {
+                        inFlight += length;
+                        maxInFlight = Math.max(maxInFlight, inFlight);
+                    }
+                }
+
+                @Override
+                public String getResult() {
+                    return samples + ":" + sum;
+                }
+
+                @Override
+                public String finish() {
+                    try {
+                        Thread.sleep(sleepMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    synchronized (FakeRecognizer.this) {
+                        active--;
+                        inFlight -= samples;
+                    }
+                    return samples + ":" + sum;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    private File writeWav(String name, int samples, int sampleRate) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(44 + samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x46464952).putInt(36 + samples * 2).putInt(0x45564157)
+                .putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(sampleRate).putInt(sampleRate * 2).putShort((short) 2).putShort((short) 16)
+                .putInt(0x61746164).putInt(samples * 2);
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort((short) (i % 100));
+        }
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array());
+        }
+        return file;
+    }
+
+    private static String expected(int samples) {
+        long sum = 0;
+        for (int i = 0; i < samples; i++) {
+            sum += i % 100;
+        }
+        return samples + ":" + sum;
+    }
+
+    @Test
+    public void transcribesAllFilesWithOneSessionPerWorker() throws Exception {
+        List<BatchTranscriber.Entry> entries = new ArrayList<>();
+        Set<String> lines = new HashSet<>();
+        for (int i = 0; i < 12; i++) {
+            int samples = 8000 + i * 3000;
+            entries.add(new BatchTranscriber.Entry("utt" + i, writeWav("utt" + i + ".wav", samples, SAMPLE_RATE)));
+            lines.add("utt" + i + " " + expected(samples));
+        }
+        FakeRecognizer recognizer = new FakeRecognizer(3, 1);
+        StringWriter out = new StringWriter();
+        BatchTranscriber.Report report =
+                new BatchTranscriber(recognizer, 3, Integer.MAX_VALUE, SAMPLE_RATE).run(entries, out);
+
+        assertEquals(lines, new HashSet<>(Arrays.asList(out.toString().split("\n"))));
+        assertEquals(3, recognizer.sessions.get());
+        assertEquals(12, report.results.size());
+        assertEquals(0, report.failed);
+        assertEquals((12 * 8000 + 3000 * 66) / (double) SAMPLE_RATE, report.audioSeconds, 1e-9);
+        assertTrue(report.getRtf(99) >= report.getRtf(50));
+    }
+
+    @Test
+    public void budgetBoundsAudioInFlight() throws Exception {
+        List<BatchTranscriber.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            entries.add(new BatchTranscriber.Entry("utt" + i, writeWav("utt" + i + ".wav", 16000, SAMPLE_RATE)));
+        }
+        FakeRecognizer recognizer = new FakeRecognizer(4, 20);
+        new BatchTranscriber(recognizer, 4, 40000, SAMPLE_RATE).run(entries, null);
+        assertTrue(recognizer.maxInFlight <= 40000);
+        assertTrue(recognizer.maxActive <= 2);
+    }
+
+    @Test
+    public void fileLargerThanBudgetRunsAlone() throws Exception {
+        List<BatchTranscriber.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            entries.add(new BatchTranscriber.Entry("utt" + i, writeWav("utt" + i + ".wav", 16000, SAMPLE_RATE)));
+        }
+        FakeRecognizer recognizer = new FakeRecognizer(4, 5);
+        BatchTranscriber.Report report = new BatchTranscriber(recognizer, 4, 10000, SAMPLE_RATE).run(entries, null);
+        assertEquals(0, report.failed);
+        assertEquals(1, recognizer.maxActive);
+    }
+
+    @Test
+    public void failedFilesAreReportedNotWritten() throws Exception {
+        List<BatchTranscriber.Entry> entries = Arrays.asList(
+                new BatchTranscriber.Entry("good", writeWav("good.wav", 1600, SAMPLE_RATE)),
+                new BatchTranscriber.Entry("rate", writeWav("rate.wav", 1600, 8000)),
+                new BatchTranscriber.Entry("missing", new File(folder.getRoot(), "missing.wav")));
+        StringWriter out = new StringWriter();
+        BatchTranscriber.Report report =
+                new BatchTranscriber(new FakeRecognizer(2, 0), 2, 100000, SAMPLE_RATE).run(entries, out);
+        assertEquals("good " + expected(1600) + "\n", out.toString());
+        assertEquals(2, report.failed);
+        assertEquals(0.1, report.audioSeconds, 1e-9);
+    }
+
+    @Test
+    public void readsScpWithRelativePaths() throws Exception {
+        File scp = folder.newFile("wav.scp");
+        try (PrintWriter writer = new PrintWriter(scp, "UTF-8")) {
+            writer.println("utt1 a/1.wav");
+            writer.println();
+            writer.println("utt2\t/data/2.wav");
+        }
+        List<BatchTranscriber.Entry> entries = BatchTranscriber.readScp(scp);
+        assertEquals(2, entries.size());
+        assertEquals(new File(folder.getRoot(), "a/1.wav"), entries.get(0).wav);
+        assertEquals("utt2", entries.get(1).key);
+        assertEquals(new File("/data/2.wav"), entries.get(1).wav);
+    }
+
+    @Test
+    public void percentilesAreNearestRank() {
+        List<BatchTranscriber.Result> results = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            // i ms for 1 s of audio
+            results.add(new BatchTranscriber.Result("utt" + i, "", null, SAMPLE_RATE, i * 1000000L));
+        }
+        results.add(new BatchTranscriber.Result("bad", null, "error", 0, 0));
+        BatchTranscriber.Report report = new BatchTranscriber.Report(results, 2000000000L, SAMPLE_RATE);
+        assertEquals(50, report.getLatencyMillis(50), 1e-9);
+        assertEquals(90, report.getLatencyMillis(90), 1e-9);
+        assertEquals(99, report.getLatencyMillis(99), 1e-9);
+        assertEquals(0.05, report.getRtf(50), 1e-9);
+        assertEquals(50, report.getThroughput(), 1e-9);
+        assertEquals(1, report.failed);
+    }
+}
@@ -0,0 +1,188 @@
+package com.fawai.asr;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ContactIndexTest {
+    private static final Map<String, String> PINYIN = new HashMap<>();
+
+    static {
+        String[] table = {
+                "张", "zhang", "章", "zhang", "伟", "wei", "维", "wei", "三", "san",
+                "李", "li", "小", "xiao", "晓", "xiao", "明", "ming", "民", "min",
+                "王", "wang", "芳", "fang", "方", "fang", "刘", "liu", "牛", "niu",
+                "大", "da", "打", "da", "凡", "fan"};
+        for (int i = 0; i < table.length; i += 2) {
+            PINYIN.put(table[i], table[i + 1]);
+        }
+    }
+
+    private static final ContactIndex.SyllableMapper MAPPER = codePoint -> {
+        String c = new String(Character.toChars(codePoint));
+        String pinyin = PINYIN.get(c);
+        return pinyin != null ? pinyin : c;
+    };
+
+    /** Returns the queued changes once, like a content provider queried by timestamp. */
+    private static class FakeSource implements ContactSource {
+        final List<ContactIndex.Contact> changed = new ArrayList<>();
+        final List<Long> deleted = new ArrayList<>();
+        long time = 0;
+        int queries = 0;
+
+        @Override
+        public Changes changesSince(long sinceMillis) {
+            queries++;
+            Changes changes = new Changes(new ArrayList<>(changed), new ArrayList<>(deleted), ++time);
+            changed.clear();
+            deleted.clear();
+            return changes;
+        }
+    }
+
+    private FakeSource source;
+    private ContactIndex index;
+
+    @Before
+    public void setUp() {
+        source = new FakeSource();
+        source.changed.addAll(Arrays.asList(
+                new ContactIndex.Contact(1, "张伟", "1001"),
+                new ContactIndex.Contact(1, "张伟", "1002"),
+                new ContactIndex.Contact(2, "李小明", "2001"),
+                new ContactIndex.Contact(3, "王芳", "3001"),
+                new ContactIndex.Contact(4, "刘大伟", "4001")));
+        index = new ContactIndex(source, MAPPER, 1.0F);
+        assertEquals(5, index.refresh());
+    }
+
+    @Test
+    public void exactNameUsesPreferredNumber() {
+        assertEquals("1001", index.find("张伟").number);
+        assertEquals("2001", index.find(" 李小明 ").number);
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void homophoneResolves() {
+        assertEquals("1001", index.find("章维").number);
+        assertEquals("3001", index.find("王方").number);
+    }
+
+    @Test
+    public void nearMissResolves() {
+        // ming / min differ only by the fuzzy final
+        assertEquals("2001", index.find("李晓民").number);
+        // one wrong syllable out of three
+        assertEquals("2001", index.find("李三明").number);
+        // l / n
+        assertEquals("4001", index.find("牛打伟").number);
+    }
+
+    @Test
+    public void distantNameIsRejected() {
+        // one of two syllables is too much
+        assertNull(index.find("张三"));
+        assertNull(index.find("赵六"));
+        assertNull(index.find(""));
+    }
+
+    @Test
+    public void twoSyllableNameAbsorbsOnlyAFuzzySyllable() {
+        // fang / fan is half an error, within 0.4 of two syllables
+        assertEquals("3001", index.find("王凡").number);
+        // a wrong syllable is a whole one
+        assertNull(index.find("王小"));
+        assertNull(index.find("李芳"));
+    }
+
+    @Test
+    public void longestPrefix() {
+        assertEquals("4001", index.findLongestPrefix("打给刘大伟吧", 2).number);
+        assertNull(index.findLongestPrefix("打给刘大伟吧", 1));
+    }
+
+    @Test
+    public void refreshAppliesChanges() {
+        assertEquals(0, index.refresh());
+
+        source.changed.add(new ContactIndex.Contact(1, "张伟", "1003"));
+        source.changed.add(new ContactIndex.Contact(5, "张三", "5001"));
+        source.deleted.add(3L);
+        assertEquals(3, index.refresh());
+
+        assertEquals("1003", index.find("张伟").number);
+        assertEquals("5001", index.find("张三").number);
+        assertNull(index.find("王芳"));
+        assertEquals(3, source.queries);
+    }
+
+    @Test
+    public void renamedContactDropsOldName() {
+        source.changed.add(new ContactIndex.Contact(3, "王小芳", "3001"));
+        index.refresh();
+        assertEquals(4, index.size());
+        assertEquals("王小芳", index.find("王小芳").name);
+        // the old name is one syllable off now
+        assertEquals("王小芳", index.find("王芳").name);
+    }
+
+    @Test
+    public void blankNameOrMissingNumberRemovesContact() {
+        source.changed.add(new ContactIndex.Contact(3, " ", "3001"));
+        source.changed.add(new ContactIndex.Contact(2, "李小明", null));
+        // a later row without a number keeps the preferred one
+        source.changed.add(new ContactIndex.Contact(1, "张伟", "1005"));
+        source.changed.add(new ContactIndex.Contact(1, "张伟", null));
+        index.refresh();
+        assertNull(index.find("王芳"));
+        assertNull(index.find("李小明"));
+        assertEquals("1005", index.find("张伟").number);
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void fuzzyLookupMapsEachCharacterOnce() {
+        final int[] calls = new int[1];
+        ContactIndex.SyllableMapper counting = codePoint -> {
+            calls[0]++;
+            return MAPPER.toSyllable(codePoint);
+        };
+        source.changed.add(new ContactIndex.Contact(1, "张伟", "1001"));
+        ContactIndex counted = new ContactIndex(source, counting, 1.0F);
+        counted.refresh();
+        calls[0] = 0;
+        for (int i = 0; i < 100; i++) {
+            assertEquals("1001", counted.find("章维").number);
+        }
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void fuzzyLookupDoesNotAllocate() {
+        // allocated bytes are only counted by the HotSpot bean
+        Object threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < 1000; i++) {
+            index.find("章维");
+        }
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            index.find("章维");
+        }
+        // a few bytes for the measurement itself, not some per lookup
+        assertTrue(allocations.getThreadAllocatedBytes(thread) - before < 1000);
+    }
+}
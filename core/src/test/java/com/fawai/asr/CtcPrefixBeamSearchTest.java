@@ -0,0 +1,251 @@
+package com.fawai.asr;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CtcPrefixBeamSearchTest {
+
+    /** Log softmax of random logits, frame t at t * vocab. */
+    private static float[] randomLogProbs(Random random, int frames, int vocab) {
+        float[] logProbs = new float[frames * vocab];
+        for (int t = 0; t < frames; t++) {
+            double sum = 0;
+            for (int v = 0; v < vocab; v++) {
+                logProbs[t * vocab + v] = (float) (random.nextGaussian() * 2);
+                sum += Math.exp(logProbs[t * vocab + v]);
+            }
+            for (int v = 0; v < vocab; v++) {
+                logProbs[t * vocab + v] -= (float) Math.log(sum);
+            }
+        }
+        return logProbs;
+    }
+
+    private static float[] logOf(float[][] probs) {
+        int vocab = probs[0].length;
+        float[] logProbs = new float[probs.length * vocab];
+        for (int t = 0; t < probs.length; t++) {
+            for (int v = 0; v < vocab; v++) {
+                logProbs[t * vocab + v] = (float) Math.log(probs[t][v]);
+            }
+        }
+        return logProbs;
+    }
+
+    private static List<Integer> best(CtcPrefixBeamSearch search) {
+        int[] tokens = new int[search.getLength(0)];
+        search.getTokens(0, tokens);
+        List<Integer> list = new ArrayList<>();
+        for (int token : tokens) {
+            list.add(token);
+        }
+        return list;
+    }
+
+    /** Sums the probability of every alignment per label sequence. */
+    private static Map<List<Integer>, Double> bruteForce(float[] logProbs, int frames, int vocab) {
+        Map<List<Integer>, Double> scores = new HashMap<>();
+        int[] path = new int[frames];
+        int paths = (int) Math.pow(vocab, frames);
+        for (int p = 0; p < paths; p++) {
+            double logProb = 0;
+            for (int t = 0, x = p; t < frames; t++, x /= vocab) {
+                path[t] = x % vocab;
+                logProb += logProbs[t * vocab + path[t]];
+            }
+            List<Integer> labels = new ArrayList<>();
+            for (int t = 0; t < frames; t++) {
+                if (path[t] != 0 && (t == 0 || path[t] != path[t - 1])) {
+                    labels.add(path[t]);
+                }
+            }
+            Double old = scores.get(labels);
+            scores.put(labels, (old == null ? 0 : old) + Math.exp(logProb));
+        }
+        return scores;
+    }
+
+    @Test
+    public void mergedAlignmentsBeatTheGreedyPath() {
+        // greedy gives blank blank, but a + a, a + blank and blank + a add up to more
+        float[] logProbs = logOf(new float[][]{{0.4F, 0.35F, 0.25F}, {0.4F, 0.35F, 0.25F}});
+        CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(3, 10, null);
+        search.search(logProbs, 2, 3);
+        assertEquals(Arrays.asList(1), best(search));
+        assertEquals(Math.log(0.35 * 0.35 + 0.35 * 0.4 + 0.4 * 0.35), search.getLikelihood(0), 1e-5);
+    }
+
+    @Test
+    public void matchesBruteForceWithAWideBeam() {
+        Random random = new Random(7);
+        int frames = 6;
+        int vocab = 4;
+        for (int trial = 0; trial < 20; trial++) {
+            float[] logProbs = randomLogProbs(random, frames, vocab);
+            Map<List<Integer>, Double> scores = bruteForce(logProbs, frames, vocab);
+            List<Integer> expected = null;
+            for (Map.Entry<List<Integer>, Double> entry : scores.entrySet()) {
+                if (expected == null || entry.getValue() > scores.get(expected)) {
+                    expected = entry.getKey();
+                }
+            }
+            CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(vocab, 1000, null);
+            search.search(logProbs, frames, vocab);
+            assertEquals(expected, best(search));
+            assertEquals(Math.log(scores.get(expected)), search.getLikelihood(0), 1e-4);
+            for (int rank = 1; rank < search.getNumHypotheses(); rank++) {
+                assertTrue(search.getLikelihood(rank) <= search.getLikelihood(rank - 1));
+            }
+        }
+    }
+
+    @Test
+    public void repeatsNeedABlankBetween() {
+        // a a blank a => a a
+        float[] logProbs = logOf(new float[][]{
+                {0.01F, 0.98F, 0.01F}, {0.01F, 0.98F, 0.01F}, {0.98F, 0.01F, 0.01F}, {0.01F, 0.98F, 0.01F}});
+        CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(10, 10, null);
+        search.search(logProbs, 4, 3);
+        assertEquals(Arrays.asList(1, 1), best(search));
+    }
+
+    @Test
+    public void chunksGiveTheSameResult() {
+        Random random = new Random(11);
+        int frames = 50;
+        int vocab = 20;
+        float[] logProbs = randomLogProbs(random, frames, vocab);
+        CtcPrefixBeamSearch whole = new CtcPrefixBeamSearch(5, 5, null);
+        whole.search(logProbs, frames, vocab);
+
+        CtcPrefixBeamSearch chunked = new CtcPrefixBeamSearch(5, 5, null);
+        for (int t = 0; t < frames; t += 8) {
+            int n = Math.min(8, frames - t);
+            chunked.search(Arrays.copyOfRange(logProbs, t * vocab, (t + n) * vocab), n, vocab);
+        }
+        assertEquals(best(whole), best(chunked));
+        assertEquals(whole.getLikelihood(0), chunked.getLikelihood(0), 0);
+
+        chunked.reset();
+        chunked.search(logProbs, frames, vocab);
+        assertEquals(best(whole), best(chunked));
+    }
+
+    @Test
+    public void timesAreTheLastFramesOfTokens() {
+        // blank a a blank b b blank
+        float[] logProbs = logOf(new float[][]{
+                {0.9F, 0.05F, 0.05F}, {0.3F, 0.6F, 0.1F}, {0.1F, 0.8F, 0.1F}, {0.9F, 0.05F, 0.05F},
+                {0.05F, 0.05F, 0.9F}, {0.3F, 0.1F, 0.6F}, {0.9F, 0.05F, 0.05F}});
+        CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(10, 10, null);
+        search.search(logProbs, 7, 3);
+        assertEquals(Arrays.asList(1, 2), best(search));
+        int[] times = new int[2];
+        assertEquals(2, search.getTimes(0, times));
+        assertArrayEquals(new int[]{2, 5}, times);
+    }
+
+    /** Boosts the phrase 2 3 by 2 per token, an unfinished phrase backs off. */
+    private static class PhraseBias implements CtcPrefixBeamSearch.ContextBias {
+        @Override
+        public int next(int state, int token, CtcPrefixBeamSearch.Step step) {
+            step.startsPhrase = false;
+            step.endsPhrase = false;
+            if (state == 0 && token == 2) {
+                step.score = 2;
+                step.startsPhrase = true;
+                return 1;
+            }
+            if (state == 1 && token == 3) {
+                step.score = 2;
+                step.endsPhrase = true;
+                return 0;
+            }
+            step.score = state == 1 ? -2 : 0;
+            return 0;
+        }
+    }
+
+    @Test
+    public void contextBiasPromotesPhrases() {
+        // 1 3 is more likely than 2 3 without bias
+        float[] logProbs = logOf(new float[][]{{0.1F, 0.5F, 0.3F, 0.1F}, {0.1F, 0.1F, 0.1F, 0.7F}});
+        CtcPrefixBeamSearch plain = new CtcPrefixBeamSearch(10, 10, null);
+        plain.search(logProbs, 2, 4);
+        assertEquals(Arrays.asList(1, 3), best(plain));
+
+        CtcPrefixBeamSearch biased = new CtcPrefixBeamSearch(10, 10, new PhraseBias());
+        biased.search(logProbs, 2, 4);
+        biased.finalizeSearch();
+        assertEquals(Arrays.asList(2, 3), best(biased));
+        int[] output = new int[4];
+        assertEquals(4, biased.getOutput(0, output, 100, 101));
+        assertArrayEquals(new int[]{100, 2, 3, 101}, output);
+    }
+
+    @Test
+    public void finalizeBacksOffUnfinishedPhrases() {
+        // 2 alone gets the start bonus until the end of the utterance
+        float[] logProbs = logOf(new float[][]{{0.1F, 0.5F, 0.4F, 0.0001F}});
+        CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(10, 10, new PhraseBias());
+        search.search(logProbs, 1, 4);
+        assertEquals(Arrays.asList(2), best(search));
+        search.finalizeSearch();
+        assertEquals(Arrays.asList(1), best(search));
+    }
+
+    @Test
+    public void compactionKeepsLongUtterancesIntact() {
+        Random random = new Random(3);
+        int frames = 3000;
+        int vocab = 30;
+        float[] logProbs = randomLogProbs(random, frames, vocab);
+        CtcPrefixBeamSearch small = new CtcPrefixBeamSearch(4, 4, null, 16);
+        CtcPrefixBeamSearch large = new CtcPrefixBeamSearch(4, 4, null, 1 << 20);
+        small.search(logProbs, frames, vocab);
+        large.search(logProbs, frames, vocab);
+        assertEquals(best(large), best(small));
+        int[] smallTimes = new int[frames];
+        int[] largeTimes = new int[frames];
+        assertEquals(large.getTimes(0, largeTimes), small.getTimes(0, smallTimes));
+        assertArrayEquals(largeTimes, smallTimes);
+    }
+
+    @Test
+    public void framesDoNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        int vocab = 100;
+        float[] logProbs = randomLogProbs(new Random(5), 400, vocab);
+        FloatBuffer buffer = FloatBuffer.wrap(logProbs);
+        CtcPrefixBeamSearch search = new CtcPrefixBeamSearch(10, 10, null);
+        // grows the pools once
+        for (int i = 0; i < 5; i++) {
+            search.reset();
+            search.search(buffer, 400, vocab);
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 5; i++) {
+            search.reset();
+            search.search(buffer, 400, vocab);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertTrue(allocated + " bytes for 2000 frames", allocated < 1024);
+    }
+}
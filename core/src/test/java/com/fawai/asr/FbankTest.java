@@ -0,0 +1,76 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FbankTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int NUM_BINS = 80;
+
+    // frame, bin and value of the native wenet::Fbank(80, 16000, 400, 160) on wave()
+    private static final float[][] NATIVE = {
+            {0, 0, 12.504384F}, {0, 13, 10.690777F}, {0, 26, 10.432292F}, {0, 39, 10.095119F},
+            {0, 52, 16.243483F}, {0, 65, 13.053961F}, {0, 78, 14.166161F},
+            {42, 0, 12.581304F}, {42, 13, 10.680196F}, {42, 26, 10.516933F}, {42, 39, 10.144576F},
+            {42, 52, 16.241575F}, {42, 65, 13.065992F}, {42, 78, 14.150591F},
+            {91, 0, 13.126451F}, {91, 13, 10.634482F}, {91, 26, 10.459055F}, {91, 39, 9.960384F},
+            {91, 52, 16.235458F}, {91, 65, 13.022566F}, {91, 78, 14.150922F}};
+
+    // one second of two tones and a saw tooth noise
+    private static short[] wave() {
+        short[] wave = new short[SAMPLE_RATE];
+        for (int i = 0; i < wave.length; i++) {
+            wave[i] = (short) (3000 * Math.sin(i * 0.05) + 1000 * Math.sin(i * 0.31) + ((i * 7919) % 200 - 100));
+        }
+        return wave;
+    }
+
+    private static int computeAll(Fbank fbank, float[] features) {
+        int frames = 0;
+        while (fbank.available() > 0) {
+            frames += fbank.compute(features, frames, features.length / NUM_BINS - frames);
+        }
+        return frames;
+    }
+
+    @Test
+    public void matchesNativeFbank() {
+        Fbank fbank = new Fbank(NUM_BINS, SAMPLE_RATE);
+        short[] wave = wave();
+        fbank.acceptWaveform(wave, 0, wave.length);
+        float[] features = new float[200 * NUM_BINS];
+        // 25 ms windows every 10 ms without padding
+        assertEquals(98, computeAll(fbank, features));
+        for (float[] expected : NATIVE) {
+            assertEquals(expected[2], features[(int) expected[0] * NUM_BINS + (int) expected[1]], 1e-4);
+        }
+    }
+
+    @Test
+    public void streamingPiecesMatchOneCall() {
+        short[] wave = wave();
+        Fbank whole = new Fbank(NUM_BINS, SAMPLE_RATE);
+        whole.acceptWaveform(wave, 0, wave.length);
+        float[] expected = new float[200 * NUM_BINS];
+        int frames = computeAll(whole, expected);
+
+        Fbank pieces = new Fbank(NUM_BINS, SAMPLE_RATE);
+        float[] features = new float[200 * NUM_BINS];
+        for (int round = 0; round < 2; round++) {
+            pieces.reset();
+            int[] sizes = {333, 640, 1000, 7, 5000};
+            int computed = 0;
+            for (int offset = 0, k = 0; offset < wave.length; k++) {
+                int length = Math.min(sizes[k % sizes.length], wave.length - offset);
+                pieces.acceptWaveform(wave, offset, length);
+                offset += length;
+                computed += pieces.compute(features, computed, 200 - computed);
+            }
+            assertEquals(frames, computed);
+            for (int i = 0; i < frames * NUM_BINS; i++) {
+                assertEquals(expected[i], features[i], 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.fawai.asr;
+
+import java.util.Random;
+
+/** Feature basis and audio of the MFCC tests, the basis has the shape of the shipped one. */
+final class FeatureBases {
+    static final int SAMPLE_RATE = 16000;
+
+    private FeatureBases() {
+    }
+
+    /** Slaney mel filterbank, [numMels][nFft / 2 + 1]. */
+    static double[][] melBasis(int numMels, int nFft) {
+        int bins = nFft / 2 + 1;
+        double[] melPoints = new double[numMels + 2];
+        double low = hzToMel(0);
+        double high = hzToMel(SAMPLE_RATE / 2.0);
+        for (int i = 0; i < melPoints.length; i++) {
+            melPoints[i] = melToHz(low + (high - low) * i / (numMels + 1));
+        }
+        double[][] basis = new double[numMels][bins];
+        for (int m = 0; m < numMels; m++) {
+            double norm = 2.0 / (melPoints[m + 2] - melPoints[m]);
+            for (int k = 0; k < bins; k++) {
+                double hz = (double) k * SAMPLE_RATE / nFft;
+                double lower = (hz - melPoints[m]) / (melPoints[m + 1] - melPoints[m]);
+                double upper = (melPoints[m + 2] - hz) / (melPoints[m + 2] - melPoints[m + 1]);
+                basis[m][k] = Math.max(0, Math.min(lower, upper)) * norm;
+            }
+        }
+        return basis;
+    }
+
+    /** Orthonormal DCT-II, [numCoeffs][numMels]. */
+    static double[][] dctBasis(int numCoeffs, int numMels) {
+        double[][] basis = new double[numCoeffs][numMels];
+        for (int c = 0; c < numCoeffs; c++) {
+            double scale = Math.sqrt((c == 0 ? 1.0 : 2.0) / numMels);
+            for (int m = 0; m < numMels; m++) {
+                basis[c][m] = scale * Math.cos(Math.PI * c * (2 * m + 1) / (2.0 * numMels));
+            }
+        }
+        return basis;
+    }
+
+    private static double hzToMel(double hz) {
+        return hz < 1000 ? hz / (200.0 / 3) : 15 + Math.log(hz / 1000) / (Math.log(6.4) / 27);
+    }
+
+    private static double melToHz(double mel) {
+        return mel < 15 ? mel * (200.0 / 3) : 1000 * Math.exp((Math.log(6.4) / 27) * (mel - 15));
+    }
+
+    static double[][] melBasis() {
+        return melBasis(AudioFeatureExtraction.getFeatureDim(), AudioFeatureExtraction.getFftSize());
+    }
+
+    static double[][] dctBasis() {
+        return dctBasis(AudioFeatureExtraction.getFeatureDim(), AudioFeatureExtraction.getFeatureDim());
+    }
+
+    static MfccKernel mfccKernel() {
+        return new MfccKernel(melBasis(), dctBasis());
+    }
+
+    /** Speech level noise, the same for every run. */
+    static short[] noise(int samples, long seed) {
+        Random random = new Random(seed);
+        short[] pcm = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            pcm[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, random.nextGaussian() * 3000));
+        }
+        return pcm;
+    }
+}
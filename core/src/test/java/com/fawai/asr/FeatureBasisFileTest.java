@@ -0,0 +1,126 @@
+package com.fawai.asr;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FeatureBasisFileTest {
+    // offsets in the header, see FeatureBasisFile
+    private static final int VERSION_OFFSET = 4;
+    private static final int HEADER_SIZE = 28;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final double[][] mel = FeatureBases.melBasis();
+    private final double[][] dct = FeatureBases.dctBasis();
+    private File basis;
+
+    private File writeText(String name, double[][] matrix) throws IOException {
+        File file = folder.newFile(name);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (double[] row : matrix) {
+                for (int i = 0; i < row.length; i++) {
+                    writer.write((i > 0 ? "," : "") + row[i]);
+                }
+                writer.write("\n");
+            }
+        }
+        return file;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        basis = new File(folder.getRoot(), "feat_basis.bin");
+        FeatureBasisFile.convert(writeText("fb_m.txt", mel), writeText("dct_m.txt", dct), basis);
+    }
+
+    @Test
+    public void convertThenLoadKeepsTextBasis() throws IOException {
+        assertEquals(HEADER_SIZE + 4 * (64 * 257 + 64 * 64), basis.length());
+        MfccKernel loaded = FeatureBasisFile.load(basis);
+        MfccKernel text = new MfccKernel(mel, dct);
+        assertEquals(text.getNumFilters(), loaded.getNumFilters());
+        assertEquals(text.getNumBins(), loaded.getNumBins());
+        assertEquals(text.getNumCoeffs(), loaded.getNumCoeffs());
+
+        Random random = new Random(5);
+        float[] power = new float[loaded.getNumBins()];
+        for (int i = 0; i < power.length; i++) {
+            power[i] = random.nextFloat() * 10;
+        }
+        float[] logMel = new float[loaded.getNumFilters()];
+        float[] expected = new float[loaded.getNumCoeffs()];
+        float[] actual = new float[loaded.getNumCoeffs()];
+        text.compute(power, logMel, expected, 0, 1);
+        loaded.compute(power, logMel, actual, 0, 1);
+        assertArrayEquals(expected, actual, 0);
+        assertFalse(new File(basis.getPath() + ".tmp").exists());
+    }
+
+    private void assertRejected(String message) {
+        try {
+            FeatureBasisFile.load(basis);
+            fail("Loaded a basis with " + message);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private void writeByte(long offset, int value) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(basis, "rw")) {
+            raf.seek(offset);
+            raf.write(value);
+        }
+    }
+
+    private int readByte(long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(basis, "r")) {
+            raf.seek(offset);
+            return raf.read();
+        }
+    }
+
+    @Test
+    public void flippedPayloadByteFailsChecksum() throws IOException {
+        long offset = HEADER_SIZE + 4 * 1000 + 1;
+        writeByte(offset, readByte(offset) ^ 0x10);
+        assertRejected("checksum");
+    }
+
+    @Test
+    public void truncatedFileFailsSize() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(basis, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        assertRejected("size");
+        try (RandomAccessFile raf = new RandomAccessFile(basis, "rw")) {
+            raf.setLength(HEADER_SIZE - 1);
+        }
+        assertRejected("header");
+    }
+
+    @Test
+    public void badMagicFails() throws IOException {
+        writeByte(0, 'X');
+        assertRejected("magic");
+    }
+
+    @Test
+    public void unknownVersionFails() throws IOException {
+        writeByte(VERSION_OFFSET, 2);
+        assertRejected("version");
+    }
+}
@@ -0,0 +1,163 @@
+package com.fawai.asr;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IntentMatcherTest {
+    private static final Map<String, String> COMMANDS = new HashMap<>();
+    private static final Map<String, String> PINYIN = new HashMap<>();
+
+    static {
+        COMMANDS.put("打电话", "call");
+        COMMANDS.put("拨打", "call");
+        COMMANDS.put("打给", "call");
+        COMMANDS.put("发短信", "message");
+        String[] table = {"张", "zhang", "章", "zhang", "三", "san", "王", "wang", "芳", "fang",
+                "给", "gei", "李", "li"};
+        for (int i = 0; i < table.length; i += 2) {
+            PINYIN.put(table[i], table[i + 1]);
+        }
+    }
+
+    private static final ContactIndex.SyllableMapper MAPPER = codePoint -> {
+        String c = new String(Character.toChars(codePoint));
+        String pinyin = PINYIN.get(c);
+        return pinyin != null ? pinyin : c;
+    };
+
+    /** All contacts on the first sync, nothing after. */
+    private static class FakeSource implements ContactSource {
+        final List<ContactIndex.Contact> contacts = new ArrayList<>();
+
+        @Override
+        public Changes changesSince(long sinceMillis) {
+            List<ContactIndex.Contact> changed = sinceMillis == 0
+                    ? contacts : Collections.<ContactIndex.Contact>emptyList();
+            return new Changes(changed, Collections.<Long>emptyList(), 1);
+        }
+    }
+
+    private IntentMatcher matcher;
+
+    @Before
+    public void setUp() {
+        FakeSource source = new FakeSource();
+        source.contacts.addAll(Arrays.asList(
+                new ContactIndex.Contact(1, "张三", "1001"),
+                new ContactIndex.Contact(2, "王芳", "2001")));
+        ContactIndex index = new ContactIndex(source, MAPPER, 1.0F);
+        index.refresh();
+        matcher = new IntentMatcher(COMMANDS, index);
+    }
+
+    @Test
+    public void growingPartialResult() {
+        assertNull(matcher.accept("打"));
+        assertNull(matcher.accept("打电"));
+        IntentMatcher.Match match = matcher.accept("打电话");
+        assertEquals("call", match.action);
+        assertNull(match.entity);
+        assertNull(match.contact);
+        assertNull(matcher.accept("打电话给张").contact);
+
+        match = matcher.accept("打电话给张三");
+        assertEquals("call", match.action);
+        assertEquals("张三", match.entity);
+        assertEquals("1001", match.contact.number);
+    }
+
+    @Test
+    public void revisedPrefixIsScannedAgain() {
+        assertEquals("call", matcher.accept("打电话给王芳").action);
+        // the decoder revised the first character, the command is gone
+        assertNull(matcher.accept("大电话给王芳"));
+        IntentMatcher.Match match = matcher.accept("发短信给王芳");
+        assertEquals("message", match.action);
+        assertEquals("2001", match.contact.number);
+        // a shorter hypothesis keeps only the shared prefix
+        assertEquals("message", matcher.accept("发短信").action);
+        assertNull(matcher.accept("发短"));
+    }
+
+    @Test
+    public void taggedNameIsConfidentAtOnce() {
+        IntentMatcher.Match match = matcher.accept("打电话给@张三@");
+        assertEquals("张三", match.entity);
+        assertEquals("1001", match.contact.number);
+        assertTrue(match.isConfident());
+
+        // a tag closes a whole phrase of the context graph, its homophone too
+        matcher.reset();
+        match = matcher.accept("拨打@章三@");
+        assertEquals("章三", match.entity);
+        assertEquals("1001", match.contact.number);
+        assertTrue(match.isConfident());
+    }
+
+    @Test
+    public void untaggedNameNeedsStableHypotheses() {
+        IntentMatcher.Match match = matcher.accept("打电话给张三");
+        assertEquals("1001", match.contact.number);
+        assertFalse(match.isConfident());
+        assertTrue(matcher.accept("打电话给张三").isConfident());
+        // the same contact in a longer hypothesis stays confident
+        assertTrue(matcher.accept("打电话给张三吧").isConfident());
+    }
+
+    @Test
+    public void untaggedHomophoneResolvesFuzzy() {
+        IntentMatcher.Match match = matcher.accept("打电话给章三");
+        assertEquals("给章三", match.entity);
+        assertEquals("1001", match.contact.number);
+        assertFalse(match.isConfident());
+        assertTrue(matcher.accept("打电话给章三").isConfident());
+
+        // no close contact: the name is kept, without a contact
+        match = matcher.accept("打电话给李四");
+        assertEquals("给李四", match.entity);
+        assertNull(match.contact);
+        assertFalse(match.isConfident());
+    }
+
+    @Test
+    public void changedContactResetsStableCount() {
+        matcher.accept("打电话给张三");
+        assertTrue(matcher.accept("打电话给张三").isConfident());
+        IntentMatcher.Match match = matcher.accept("打电话给王芳");
+        assertEquals("2001", match.contact.number);
+        assertFalse(match.isConfident());
+        assertTrue(matcher.accept("打电话给王芳").isConfident());
+    }
+
+    @Test
+    public void resetForgetsTheUtterance() {
+        matcher.accept("打电话给张三");
+        assertTrue(matcher.accept("打电话给张三").isConfident());
+        matcher.reset();
+        IntentMatcher.Match match = matcher.accept("打电话给张三");
+        assertEquals("1001", match.contact.number);
+        assertFalse(match.isConfident());
+
+        matcher.reset();
+        assertNull(matcher.accept("你好"));
+    }
+
+    @Test
+    public void withoutContactsOnlyTheCommandMatches() {
+        IntentMatcher plain = new IntentMatcher(COMMANDS, null);
+        IntentMatcher.Match match = plain.accept("打给张三");
+        assertEquals("call", match.action);
+        assertNull(match.entity);
+        assertNull(match.contact);
+        assertFalse(match.isConfident());
+    }
+}
@@ -0,0 +1,90 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MfccKernelTest {
+    private static final double LOG_FLOOR = 0.000001;
+
+    private final double[][] mel = FeatureBases.melBasis();
+    private final double[][] dct = FeatureBases.dctBasis();
+
+    // dense mel * power, log, dct * log mel in double
+    private double[] dense(float[] power) {
+        double[] logMel = new double[mel.length];
+        for (int m = 0; m < mel.length; m++) {
+            double sum = 0;
+            for (int k = 0; k < power.length; k++) {
+                sum += mel[m][k] * power[k];
+            }
+            logMel[m] = Math.log(LOG_FLOOR + sum);
+        }
+        double[] mfcc = new double[dct.length];
+        for (int d = 0; d < dct.length; d++) {
+            for (int m = 0; m < logMel.length; m++) {
+                mfcc[d] += dct[d][m] * logMel[m];
+            }
+        }
+        return mfcc;
+    }
+
+    // power spectra of noise frames, from silence to loud
+    private static float[][] spectra() {
+        Random random = new Random(11);
+        RealFFT fft = new RealFFT(AudioFeatureExtraction.getFftSize());
+        float[] frame = new float[AudioFeatureExtraction.getFftSize()];
+        float[][] spectra = new float[4][];
+        float[] levels = {0, 1e-4F, 0.1F, 1};
+        for (int s = 0; s < spectra.length; s++) {
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = levels[s] * (float) random.nextGaussian();
+            }
+            spectra[s] = new float[AudioFeatureExtraction.getFftSize() / 2 + 1];
+            fft.powerSpectrum(frame, 0, null, spectra[s]);
+        }
+        return spectra;
+    }
+
+    @Test
+    public void matchesDenseBasis() {
+        MfccKernel kernel = new MfccKernel(mel, dct);
+        assertEquals(64, kernel.getNumFilters());
+        assertEquals(257, kernel.getNumBins());
+        assertEquals(64, kernel.getNumCoeffs());
+
+        float[] logMel = new float[kernel.getNumFilters()];
+        float[] out = new float[3 * kernel.getNumCoeffs()];
+        for (float[] power : spectra()) {
+            double[] expected = dense(power);
+            // coefficient d of the second of three frames, like one column of the feature matrix
+            kernel.compute(power, logMel, out, 1, 3);
+            for (int d = 0; d < expected.length; d++) {
+                assertEquals("coefficient " + d, expected[d], out[1 + 3 * d], 1e-4 * (1 + Math.abs(expected[d])));
+            }
+        }
+    }
+
+    @Test
+    public void filterbankMatchesDenseBasis() {
+        MfccKernel kernel = new MfccKernel(mel, dct);
+        float[] energies = new float[kernel.getNumFilters()];
+        for (float[] power : spectra()) {
+            kernel.applyFilterbank(power, energies);
+            for (int m = 0; m < mel.length; m++) {
+                double sum = 0;
+                for (int k = 0; k < power.length; k++) {
+                    sum += mel[m][k] * power[k];
+                }
+                assertEquals("filter " + m, sum, energies[m], 1e-5 * (1 + sum));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedDct() {
+        new MfccKernel(mel, FeatureBases.dctBasis(64, 40));
+    }
+}
@@ -0,0 +1,146 @@
+package com.fawai.asr;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes tiny ONNX models for tests, the few protobuf fields of ModelProto they need, so
+ * the tests run without model files or the python onnx package.
+ */
+final class OnnxModels {
+    static final int FLOAT = 1;
+    static final int INT64 = 7;
+    static final int BOOL = 9;
+
+    private OnnxModels() {
+    }
+
+    private static final class Proto {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private void varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        Proto integer(int field, long value) {
+            varint(field << 3);
+            varint(value);
+            return this;
+        }
+
+        Proto bytes(int field, byte[] value) {
+            varint(field << 3 | 2);
+            varint(value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        Proto string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] build() {
+            return out.toByteArray();
+        }
+    }
+
+    /** Dims are numbers or names of dynamic dimensions. */
+    static byte[] tensorInfo(String name, int elemType, Object... dims) {
+        Proto shape = new Proto();
+        for (Object dim : dims) {
+            Proto d = new Proto();
+            if (dim instanceof String) {
+                d.string(2, (String) dim);
+            } else {
+                d.integer(1, ((Number) dim).longValue());
+            }
+            shape.bytes(1, d.build());
+        }
+        byte[] tensor = new Proto().integer(1, elemType).bytes(2, shape.build()).build();
+        return new Proto().string(1, name).bytes(2, new Proto().bytes(1, tensor).build()).build();
+    }
+
+    static byte[] node(String op, String[] inputs, String[] outputs, byte[]... attributes) {
+        Proto node = new Proto();
+        for (String input : inputs) {
+            node.string(1, input);
+        }
+        for (String output : outputs) {
+            node.string(2, output);
+        }
+        node.string(4, op);
+        for (byte[] attribute : attributes) {
+            node.bytes(5, attribute);
+        }
+        return node.build();
+    }
+
+    static byte[] intAttribute(String name, long value) {
+        return new Proto().string(1, name).integer(20, 2).integer(3, value).build();
+    }
+
+    static byte[] intsAttribute(String name, long... values) {
+        Proto attribute = new Proto().string(1, name).integer(20, 7);
+        for (long value : values) {
+            attribute.integer(8, value);
+        }
+        return attribute.build();
+    }
+
+    static byte[] constant(String output, long[] dims, float... values) {
+        ByteBuffer raw = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : values) {
+            raw.putFloat(value);
+        }
+        return constant(output, dims, FLOAT, raw.array());
+    }
+
+    static byte[] constant(String output, long[] dims, long... values) {
+        ByteBuffer raw = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long value : values) {
+            raw.putLong(value);
+        }
+        return constant(output, dims, INT64, raw.array());
+    }
+
+    private static byte[] constant(String output, long[] dims, int dataType, byte[] raw) {
+        Proto tensor = new Proto();
+        for (long dim : dims) {
+            tensor.integer(1, dim);
+        }
+        tensor.integer(2, dataType).string(8, output).bytes(9, raw);
+        byte[] value = new Proto().string(1, "value").integer(20, 4).bytes(5, tensor.build()).build();
+        return node("Constant", new String[0], new String[]{output}, value);
+    }
+
+    /** Opset 13 model of one graph, {@code metadata} may be null. */
+    static byte[] model(byte[][] nodes, byte[][] inputs, byte[][] outputs, Map<String, String> metadata) {
+        Proto graph = new Proto();
+        for (byte[] node : nodes) {
+            graph.bytes(1, node);
+        }
+        graph.string(2, "test");
+        for (byte[] input : inputs) {
+            graph.bytes(11, input);
+        }
+        for (byte[] output : outputs) {
+            graph.bytes(12, output);
+        }
+        Proto model = new Proto().integer(1, 7)
+                .bytes(8, new Proto().string(1, "").integer(2, 13).build())
+                .bytes(7, graph.build());
+        if (metadata != null) {
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                model.bytes(14, new Proto().string(1, entry.getKey()).string(2, entry.getValue()).build());
+            }
+        }
+        return model.build();
+    }
+}
@@ -0,0 +1,158 @@
+package com.fawai.asr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ai.onnxruntime.OrtException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the recognizer on a generated encoder that ignores the audio: every output frame
+ * is the number of chunks seen before, carried in the cnn cache, and a ctc head that emits
+ * A, B, C, D for 0, 1, 2, 3. The text tells how many chunks the caches carried over.
+ */
+public class OnnxRecognizerTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int OUTPUT_SIZE = 8;
+    private static final int CHUNK_SIZE = 4;
+    // (chunk_size - 1) * subsampling_rate + right_context + 1 feature frames
+    private static final int CHUNK_FRAMES = 19;
+    // the last 3 frames of a chunk are seen again, a next chunk needs 16 new ones
+    private static final int NEXT_CHUNK_FRAMES = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] encoder(int leftChunks) {
+        byte[][] nodes = {
+                // every subsampling_rate-th frame of the chunk after the first right_context frames
+                OnnxModels.constant("starts", new long[]{2}, 3L, 0L),
+                OnnxModels.constant("ends", new long[]{2}, Long.MAX_VALUE, OUTPUT_SIZE),
+                OnnxModels.constant("axes", new long[]{2}, 1L, 2L),
+                OnnxModels.constant("steps", new long[]{2}, 4L, 1L),
+                OnnxModels.node("Slice", new String[]{"chunk", "starts", "ends", "axes", "steps"},
+                        new String[]{"frames"}),
+                OnnxModels.constant("zero", new long[0], 0f),
+                OnnxModels.node("Mul", new String[]{"frames", "zero"}, new String[]{"zeros"}),
+                OnnxModels.node("ReduceMean", new String[]{"cnn_cache"}, new String[]{"chunks"},
+                        OnnxModels.intAttribute("keepdims", 0)),
+                OnnxModels.node("Add", new String[]{"zeros", "chunks"}, new String[]{"output"}),
+                OnnxModels.node("Identity", new String[]{"att_cache"}, new String[]{"r_att_cache"}),
+                OnnxModels.constant("one", new long[0], 1f),
+                OnnxModels.node("Add", new String[]{"cnn_cache", "one"}, new String[]{"r_cnn_cache"})};
+        int attInputs = leftChunks > 0 ? 6 : 5;
+        byte[][] inputs = new byte[attInputs][];
+        inputs[0] = OnnxModels.tensorInfo("chunk", OnnxModels.FLOAT, 1, "T", 80);
+        inputs[1] = OnnxModels.tensorInfo("offset", OnnxModels.INT64);
+        inputs[2] = OnnxModels.tensorInfo("required_cache_size", OnnxModels.INT64);
+        inputs[3] = OnnxModels.tensorInfo("att_cache", OnnxModels.FLOAT, 1, 2, "R", OUTPUT_SIZE);
+        inputs[4] = OnnxModels.tensorInfo("cnn_cache", OnnxModels.FLOAT, 1, 1, OUTPUT_SIZE, 2);
+        if (leftChunks > 0) {
+            inputs[5] = OnnxModels.tensorInfo("att_mask", OnnxModels.BOOL, 1, 1, "M");
+        }
+        byte[][] outputs = {
+                OnnxModels.tensorInfo("output", OnnxModels.FLOAT, 1, "U", OUTPUT_SIZE),
+                OnnxModels.tensorInfo("r_att_cache", OnnxModels.FLOAT, 1, 2, "R2", OUTPUT_SIZE),
+                OnnxModels.tensorInfo("r_cnn_cache", OnnxModels.FLOAT, 1, 1, OUTPUT_SIZE, 2)};
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("output_size", String.valueOf(OUTPUT_SIZE));
+        metadata.put("num_blocks", "1");
+        metadata.put("head", "2");
+        metadata.put("cnn_module_kernel", "3");
+        metadata.put("subsampling_rate", "4");
+        metadata.put("right_context", "6");
+        metadata.put("chunk_size", String.valueOf(CHUNK_SIZE));
+        metadata.put("left_chunks", String.valueOf(leftChunks));
+        return OnnxModels.model(nodes, inputs, outputs, metadata);
+    }
+
+    // log softmax of -20 (x - center)^2, sharp enough that the best path wins, blank and
+    // sos/eos are never close
+    private static byte[] ctc() {
+        byte[][] nodes = {
+                OnnxModels.node("ReduceMean", new String[]{"x"}, new String[]{"mean"},
+                        OnnxModels.intsAttribute("axes", 2), OnnxModels.intAttribute("keepdims", 1)),
+                OnnxModels.constant("centers", new long[]{6}, -10f, 0f, 1f, 2f, 3f, -10f),
+                OnnxModels.node("Sub", new String[]{"mean", "centers"}, new String[]{"d"}),
+                OnnxModels.node("Mul", new String[]{"d", "d"}, new String[]{"squares"}),
+                OnnxModels.constant("scale", new long[0], -20f),
+                OnnxModels.node("Mul", new String[]{"squares", "scale"}, new String[]{"logits"}),
+                OnnxModels.node("LogSoftmax", new String[]{"logits"}, new String[]{"logp"},
+                        OnnxModels.intAttribute("axis", -1))};
+        return OnnxModels.model(nodes,
+                new byte[][]{OnnxModels.tensorInfo("x", OnnxModels.FLOAT, 1, "U", OUTPUT_SIZE)},
+                new byte[][]{OnnxModels.tensorInfo("logp", OnnxModels.FLOAT, 1, "U", 6)},
+                null);
+    }
+
+    private File modelDir(int leftChunks) throws IOException {
+        File dir = folder.newFolder();
+        write(new File(dir, OnnxRecognizer.ENCODER + ".onnx"), encoder(leftChunks));
+        write(new File(dir, OnnxRecognizer.CTC + ".onnx"), ctc());
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, OnnxRecognizer.UNITS_FILE)), StandardCharsets.UTF_8)) {
+            writer.write("<blank> 0\nA 1\nB 2\nC 3\nD 4\n<sos/eos> 5\n");
+        }
+        return dir;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    // samples of the fbank frames, 25 ms windows every 10 ms
+    private static short[] audio(int frames) {
+        return new short[400 + 160 * (frames - 1)];
+    }
+
+    private static void feed(Recognizer.Session session, short[] samples) {
+        // in 40 ms pieces like the capture thread
+        for (int offset = 0; offset < samples.length; offset += 640) {
+            session.acceptWaveform(samples, offset, Math.min(640, samples.length - offset));
+        }
+    }
+
+    private void cachesCarryOverAndStartResets(int leftChunks) throws IOException, OrtException {
+        try (OnnxRecognizer recognizer = OnnxRecognizer.load(modelDir(leftChunks), SAMPLE_RATE, 1);
+             Recognizer.Session session = recognizer.openSession()) {
+            session.start();
+            feed(session, audio(CHUNK_FRAMES + 2 * NEXT_CHUNK_FRAMES));
+            // three full chunks, each one sees the cache of the one before
+            assertEquals("ABC", session.getResult());
+            // the short rest is decoded at the end, with the cache of the third chunk
+            feed(session, new short[160 * 10]);
+            assertEquals("ABCD", session.finish());
+
+            // a new utterance starts from empty caches
+            session.start();
+            assertEquals("", session.getResult());
+            feed(session, audio(CHUNK_FRAMES));
+            assertEquals("A", session.getResult());
+            assertEquals("A", session.finish());
+        }
+    }
+
+    @Test
+    public void pinnedCachesCarryOverAndStartResets() throws IOException, OrtException {
+        cachesCarryOverAndStartResets(4);
+    }
+
+    @Test
+    public void growingCachesCarryOverAndStartResets() throws IOException, OrtException {
+        cachesCarryOverAndStartResets(-1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static class FakeClock implements PipelineMetrics.Clock {
+        long nanos = 0;
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        void advanceMillis(long millis) {
+            nanos += millis * 1000000;
+        }
+    }
+
+    @Test
+    public void bucketsKeepValuesWithinOneIn32() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucketOf(value);
+            long highest = LatencyHistogram.highestOf(bucket);
+            assertTrue(value <= highest);
+            assertTrue(highest - value <= value / 32);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.highestOf(bucket - 1) < value);
+            }
+        }
+        assertEquals(31, LatencyHistogram.highestOf(LatencyHistogram.bucketOf(31)));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentilesAreNearestRank() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getValueAtPercentile(50), 500 / 32);
+        assertEquals(990, histogram.getValueAtPercentile(99), 990 / 32);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(i % 1000 + offset);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(1002, histogram.getMax());
+    }
+
+    @Test
+    public void stagesAreTimedFromCapture() {
+        FakeClock clock = new FakeClock();
+        PipelineMetrics metrics = new PipelineMetrics(64, SAMPLE_RATE, 10, clock);
+        List<String> traces = new ArrayList<>();
+        metrics.setTraceSink(traces::add);
+
+        // 40 ms frames, the vad scores each 5 ms after capture
+        for (long seq = 0; seq < 20; seq++) {
+            metrics.onCaptured(seq);
+            clock.advanceMillis(5);
+            metrics.onVadDecision(seq, 1);
+            clock.advanceMillis(35);
+        }
+        assertEquals(20, metrics.getCapturedFrames());
+        assertEquals(5000, metrics.getVadLatency().getMax());
+        assertEquals(2, traces.size());
+        assertEquals("frame 10 vad 5.0 ms after capture, queue 1", traces.get(1));
+
+        // speech started at frame 15, 200 ms ago, the first partial comes now
+        metrics.onSpeechStart(15);
+        for (long seq = 5; seq < 20; seq++) {
+            metrics.onAsrAccepted(seq, 640, 0);
+        }
+        metrics.onPartialResult();
+        clock.advanceMillis(100);
+        metrics.onPartialResult();
+        assertEquals(1, metrics.getFirstPartialLatency().getCount());
+        assertEquals(200000, metrics.getFirstPartialLatency().getMax(), 200000 / 32);
+
+        // 0.6 s of audio decoded in 120 ms, final 30 ms after the end of the input
+        metrics.onInputFinished();
+        clock.advanceMillis(30);
+        metrics.onFinalResult(120000);
+        assertEquals(30000, metrics.getFinalLatency().getMax());
+        assertEquals(200, metrics.getRtf().getMax());
+    }
+
+    @Test
+    public void dropsAreCountedOncePerCursor() {
+        PipelineMetrics metrics = new PipelineMetrics(16, SAMPLE_RATE, 25);
+        AudioRing ring = new AudioRing(4, 10);
+        for (int recording = 0; recording < 2; recording++) {
+            AudioRing.Cursor cursor = ring.newCursor();
+            for (int i = 0; i < 10; i++) {
+                ring.publish(10);
+            }
+            // 10 published, 3 readable, the producer owns the fourth slot
+            assertTrue(cursor.available());
+            metrics.onConsumed(PipelineMetrics.Queue.ASR, cursor);
+            metrics.onConsumed(PipelineMetrics.Queue.ASR, cursor);
+            assertEquals(3, metrics.getQueueDepth(PipelineMetrics.Queue.ASR).getMax());
+        }
+        assertEquals(14, metrics.getDroppedFrames(PipelineMetrics.Queue.ASR));
+        assertEquals(0, metrics.getDroppedFrames(PipelineMetrics.Queue.VAD));
+        assertTrue(metrics.toString().contains("queue asr: n 4"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealFFTTest {
+    private static final int SIZE = 512;
+
+    // |X[k]|^2 of the direct DFT in double
+    private static double[] directPower(float[] input, int offset, float[] window) {
+        double[] power = new double[SIZE / 2 + 1];
+        for (int k = 0; k < power.length; k++) {
+            double re = 0;
+            double im = 0;
+            for (int n = 0; n < SIZE; n++) {
+                double x = input[offset + n] * (window != null ? window[n] : 1.0);
+                double theta = 2 * Math.PI * k * n / SIZE;
+                re += x * Math.cos(theta);
+                im -= x * Math.sin(theta);
+            }
+            power[k] = re * re + im * im;
+        }
+        return power;
+    }
+
+    // every bin within a float error of the strongest one
+    private static void assertMatchesDft(float[] input, int offset, float[] window) {
+        float[] power = new float[SIZE / 2 + 1];
+        new RealFFT(SIZE).powerSpectrum(input, offset, window, power);
+        double[] expected = directPower(input, offset, window);
+        double max = 0;
+        for (double p : expected) {
+            max = Math.max(max, p);
+        }
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals("bin " + k, expected[k], power[k], 1e-5 * max);
+        }
+    }
+
+    @Test
+    public void randomFrameMatchesDft() {
+        Random random = new Random(7);
+        float[] input = new float[SIZE + 100];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) random.nextGaussian();
+        }
+        assertMatchesDft(input, 100, null);
+
+        float[] window = new float[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / SIZE));
+        }
+        assertMatchesDft(input, 37, window);
+    }
+
+    @Test
+    public void pureToneHasOnePeak() {
+        int bin = 40;
+        float[] input = new float[SIZE];
+        for (int n = 0; n < SIZE; n++) {
+            input[n] = (float) Math.cos(2 * Math.PI * bin * n / SIZE);
+        }
+        assertMatchesDft(input, 0, null);
+
+        float[] power = new float[SIZE / 2 + 1];
+        new RealFFT(SIZE).powerSpectrum(input, 0, null, power);
+        // a unit cosine on a bin has |X| = SIZE / 2 there and nothing elsewhere
+        assertEquals(SIZE * SIZE / 4.0, power[bin], 1e-4 * SIZE * SIZE);
+        for (int k = 0; k < power.length; k++) {
+            if (k != bin) {
+                assertEquals("bin " + k, 0, power[k], 1e-6 * SIZE * SIZE);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizeNotPowerOfTwo() {
+        new RealFFT(400);
+    }
+}
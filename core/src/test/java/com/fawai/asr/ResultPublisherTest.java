@@ -0,0 +1,99 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultPublisherTest {
+    private final List<Runnable> frames = new ArrayList<>();
+    private final List<ResultPublisher.Result> shown = new ArrayList<>();
+    private final ResultPublisher publisher = new ResultPublisher(frames::add, shown::add);
+
+    private void drawFrames() {
+        List<Runnable> posted = new ArrayList<>(frames);
+        frames.clear();
+        for (Runnable frame : posted) {
+            frame.run();
+        }
+    }
+
+    @Test
+    public void resultsOfOneFrameAreCoalesced() {
+        publisher.publishPartial("打");
+        publisher.publishPartial("打电");
+        publisher.publishPartial("打电话");
+        assertEquals(1, frames.size());
+        drawFrames();
+        assertEquals(1, shown.size());
+        assertEquals("打电话", shown.get(0).text);
+        assertEquals(3, shown.get(0).version);
+
+        // a repeated hypothesis becomes stable, then nothing changes anymore
+        publisher.publishPartial("打电话");
+        assertEquals(4, publisher.getVersion());
+        drawFrames();
+        publisher.publishPartial("打电话");
+        assertEquals(0, frames.size());
+        assertEquals(4, publisher.getVersion());
+    }
+
+    @Test
+    public void framesWithoutChangeShowNothing() {
+        publisher.publishPartial("打");
+        drawFrames();
+        publisher.publishPartial("打电");
+        publisher.publishPartial("打");
+        drawFrames();
+        // changed twice, back to the shown text, still a new version
+        assertEquals(2, shown.size());
+        assertEquals(3, shown.get(1).version);
+        drawFrames();
+        assertEquals(2, shown.size());
+    }
+
+    @Test
+    public void stablePrefixIsWhatHypothesesAgreeOn() {
+        publisher.publishPartial("打电话给张");
+        assertEquals(0, publisher.getLatest().stableLength);
+        publisher.publishPartial("打电话给章三");
+        assertEquals("打电话给", publisher.getLatest().getStable());
+        assertEquals("章三", publisher.getLatest().getUnstable());
+
+        // the endpoint commits, later partials keep it stable
+        publisher.publishEndpoint("打电话给张三，");
+        assertEquals("", publisher.getLatest().getUnstable());
+        publisher.publishPartial("打电话给张三，我");
+        assertEquals("打电话给张三，", publisher.getLatest().getStable());
+        publisher.publishPartial("打电话给张三，喂");
+        assertEquals("打电话给张三，", publisher.getLatest().getStable());
+
+        publisher.publishFinal("打电话给张三，喂你好");
+        assertTrue(publisher.getLatest().isFinal);
+        assertEquals("", publisher.getLatest().getUnstable());
+        drawFrames();
+        assertEquals(1, shown.size());
+    }
+
+    @Test
+    public void versionKeepsIncreasingOverUtterances() {
+        publisher.publishFinal("你好");
+        drawFrames();
+        publisher.reset();
+        publisher.publishPartial("你");
+        publisher.publishPartial("你们");
+        drawFrames();
+        assertEquals(2, shown.size());
+        assertTrue(shown.get(1).version > shown.get(0).version);
+        // nothing of the last utterance is stable
+        assertEquals(1, shown.get(1).stableLength);
+    }
+
+    @Test
+    public void surrogatePairsAreNotSplit() {
+        assertEquals(1, ResultPublisher.commonPrefix("a😀", "a😁"));
+        assertEquals(3, ResultPublisher.commonPrefix("a😀", "a😀b"));
+    }
+}
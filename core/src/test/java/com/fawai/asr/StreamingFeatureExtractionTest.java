@@ -0,0 +1,92 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamingFeatureExtractionTest {
+    private static final int NUM_FRAMES = VoiceDetector.FEAT_FRAME_SIZE;
+    private static final int FEATURE_DIM = AudioFeatureExtraction.getFeatureDim();
+    private static final int HOP = AudioFeatureExtraction.getHopLength();
+    private static final int HALF = AudioFeatureExtraction.getFftSize() / 2;
+
+    private final MfccKernel kernel = FeatureBases.mfccKernel();
+
+    // frames of the first samples, a frame is done once n_fft / 2 samples past its center came in
+    private static long framesOf(int samples) {
+        return samples > HALF ? (samples - HALF) / HOP + 1 : 0;
+    }
+
+    private float[] batch(short[] pcm, int length) {
+        float[] y = new float[length];
+        for (int i = 0; i < length; i++) {
+            y[i] = pcm[i] / (float) Short.MAX_VALUE;
+        }
+        return new AudioFeatureExtraction(kernel).generateMFCCFeatures(y);
+    }
+
+    // feeds the chunk sizes in turn and checks every full window against the batch MFCC
+    private void matchesBatch(StreamingFeatureExtraction streaming, short[] pcm, int... sizes) {
+        float[] window = new float[FEATURE_DIM * NUM_FRAMES];
+        int fed = 0;
+        int windows = 0;
+        for (int k = 0; fed < pcm.length; k++) {
+            int length = Math.min(sizes[k % sizes.length], pcm.length - fed);
+            long before = streaming.getFrameCount();
+            int added = streaming.acceptWaveform(pcm, fed, length);
+            fed += length;
+            assertEquals(framesOf(fed), streaming.getFrameCount());
+            assertEquals(streaming.getFrameCount() - before, added);
+            assertEquals(framesOf(fed) >= NUM_FRAMES, streaming.isWindowReady());
+            if (!streaming.isWindowReady()) {
+                continue;
+            }
+            // frames without right padding are the same in the batch MFCC of the samples so far
+            float[] expected = batch(pcm, fed);
+            int batchFrames = AudioFeatureExtraction.getNumFrames(fed);
+            int first = (int) streaming.getFrameCount() - NUM_FRAMES;
+            streaming.copyWindow(window);
+            for (int d = 0; d < FEATURE_DIM; d++) {
+                for (int f = 0; f < NUM_FRAMES; f++) {
+                    assertEquals(expected[d * batchFrames + first + f], window[d * NUM_FRAMES + f], 0);
+                }
+            }
+            windows++;
+        }
+        assertTrue(windows > 0);
+    }
+
+    @Test
+    public void chunksMatchBatchFeatures() {
+        StreamingFeatureExtraction streaming =
+                new StreamingFeatureExtraction(new AudioFeatureExtraction(kernel), NUM_FRAMES);
+        matchesBatch(streaming, FeatureBases.noise(FeatureBases.SAMPLE_RATE, 1), 640);
+    }
+
+    @Test
+    public void unevenChunksMatchBatchFeatures() {
+        StreamingFeatureExtraction streaming =
+                new StreamingFeatureExtraction(new AudioFeatureExtraction(kernel), NUM_FRAMES);
+        // smaller than the padding, across a hop, larger than the pending buffer
+        matchesBatch(streaming, FeatureBases.noise(FeatureBases.SAMPLE_RATE, 2), 100, 640, 7, 3000, 161);
+    }
+
+    @Test
+    public void windowIsReadyAtNumFrames() {
+        StreamingFeatureExtraction streaming =
+                new StreamingFeatureExtraction(new AudioFeatureExtraction(kernel), NUM_FRAMES);
+        short[] pcm = FeatureBases.noise(FeatureBases.SAMPLE_RATE, 3);
+        int ready = HALF + (NUM_FRAMES - 1) * HOP;
+        streaming.acceptWaveform(pcm, 0, ready - 1);
+        assertEquals(NUM_FRAMES - 1, streaming.getFrameCount());
+        assertFalse(streaming.isWindowReady());
+        assertEquals(1, streaming.acceptWaveform(pcm, ready - 1, 1));
+        assertTrue(streaming.isWindowReady());
+
+        // after a reset the next samples are a new stream
+        streaming.reset();
+        assertEquals(0, streaming.getFrameCount());
+        assertFalse(streaming.isWindowReady());
+        matchesBatch(streaming, pcm, 640);
+    }
+}
@@ -0,0 +1,186 @@
+package com.fawai.asr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import static org.junit.Assert.*;
+
+public class VadBatcherTest {
+    private static final int WINDOW_SIZE = VoiceDetector.FEAT_DIM * VoiceDetector.FEAT_FRAME_SIZE;
+
+    private VadModel model;
+
+    /** Scores a window by its mean, [N, FEAT_DIM, FEAT_FRAME_SIZE] to [N, 1, 1]. */
+    @Before
+    public void setUp() throws OrtException {
+        byte[] bytes = OnnxModels.model(
+                new byte[][]{OnnxModels.node("ReduceMean", new String[]{"x"}, new String[]{"y"},
+                        OnnxModels.intsAttribute("axes", 1, 2), OnnxModels.intAttribute("keepdims", 1))},
+                new byte[][]{OnnxModels.tensorInfo("x", OnnxModels.FLOAT,
+                        "N", VoiceDetector.FEAT_DIM, VoiceDetector.FEAT_FRAME_SIZE)},
+                new byte[][]{OnnxModels.tensorInfo("y", OnnxModels.FLOAT, "N", 1, 1)},
+                null);
+        OrtEnvironment environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            model = new VadModel(environment, environment.createSession(bytes, options), null);
+        }
+    }
+
+    @After
+    public void tearDown() throws OrtException {
+        model.close();
+    }
+
+    private static float[] window(float value) {
+        float[] window = new float[WINDOW_SIZE];
+        Arrays.fill(window, value);
+        return window;
+    }
+
+    /** Records the score and batch size of each result, in callback order. */
+    private static class Recorder implements VadBatcher.Callback {
+        final List<Float> scores = Collections.synchronizedList(new ArrayList<Float>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final CountDownLatch done;
+
+        Recorder(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onResult(VadInference output, int batchIndex) {
+            scores.add(output.getOutput(batchIndex, 0, 0));
+            batchSizes.add(output.getBatchSize());
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            errors.add(e);
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void partialBatchIsDispatchedAtTheDeadline() throws InterruptedException {
+        Recorder recorder = new Recorder(1);
+        try (VadBatcher batcher = new VadBatcher(model, 8, 50000)) {
+            long start = System.nanoTime();
+            batcher.submit(window(3), recorder);
+            assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        assertEquals(Collections.singletonList(3f), recorder.scores);
+        assertEquals(Collections.singletonList(1), recorder.batchSizes);
+    }
+
+    @Test
+    public void fullBatchIsDispatchedWithoutWaiting() throws InterruptedException {
+        Recorder recorder = new Recorder(4);
+        // a deadline the test would time out on
+        try (VadBatcher batcher = new VadBatcher(model, 4, TimeUnit.MINUTES.toMicros(10))) {
+            for (int i = 0; i < 4; i++) {
+                batcher.submit(window(i), recorder);
+            }
+            assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(0f, 1f, 2f, 3f), recorder.scores);
+        assertEquals(Arrays.asList(4, 4, 4, 4), recorder.batchSizes);
+    }
+
+    @Test
+    public void resultsFollowSubmissionOrder() throws InterruptedException {
+        int windows = 200;
+        Recorder recorder = new Recorder(windows);
+        try (VadBatcher batcher = new VadBatcher(model, 3, 200)) {
+            for (int i = 0; i < windows; i++) {
+                batcher.submit(window(i), recorder);
+                if (i % 7 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+        }
+        assertTrue(recorder.errors.isEmpty());
+        for (int i = 0; i < windows; i++) {
+            assertEquals(i, recorder.scores.get(i), 0);
+            assertTrue(recorder.batchSizes.get(i) <= 3);
+        }
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStopTheBatcher() throws InterruptedException {
+        Recorder recorder = new Recorder(2);
+        final List<Exception> thrown = Collections.synchronizedList(new ArrayList<Exception>());
+        VadBatcher.Callback bad = new VadBatcher.Callback() {
+            @Override
+            public void onResult(VadInference output, int batchIndex) {
+                throw new IllegalStateException("bad stream");
+            }
+
+            @Override
+            public void onError(Exception e) {
+                thrown.add(e);
+                throw new IllegalStateException("worse stream");
+            }
+        };
+        try (VadBatcher batcher = new VadBatcher(model, 2, 1000)) {
+            batcher.submit(window(1), bad);
+            batcher.submit(window(2), recorder);
+            // more than two staging buffers, blocks forever on a dead batcher thread
+            for (int i = 0; i < 4; i++) {
+                batcher.submit(window(i), bad);
+            }
+            batcher.submit(window(5), recorder);
+            assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(2f, 5f), recorder.scores);
+        assertEquals(5, thrown.size());
+        assertEquals("bad stream", thrown.get(0).getMessage());
+    }
+
+    private static Thread batcherThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("vad-batcher")) {
+                return thread;
+            }
+        }
+        throw new AssertionError("No batcher thread");
+    }
+
+    @Test
+    public void interruptedBatcherFailsPendingWindows() throws InterruptedException {
+        Recorder recorder = new Recorder(2);
+        try (VadBatcher batcher = new VadBatcher(model, 4, TimeUnit.MINUTES.toMicros(10))) {
+            batcher.submit(window(1), recorder);
+            batcher.submit(window(2), recorder);
+            Thread worker = batcherThread();
+            worker.interrupt();
+            assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(worker.isAlive());
+            try {
+                batcher.submit(window(3), recorder);
+                fail("Submitted to a batcher without a thread");
+            } catch (IllegalStateException expected) {
+                // a producer must not block on the dead thread
+            }
+        }
+        assertTrue(recorder.scores.isEmpty());
+        assertEquals(2, recorder.errors.size());
+        assertTrue(recorder.errors.get(0) instanceof InterruptedException);
+    }
+}
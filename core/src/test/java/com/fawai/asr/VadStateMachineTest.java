@@ -0,0 +1,89 @@
+package com.fawai.asr;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VadStateMachineTest {
+    private static final float ONSET = 0.5F;
+    private static final float OFFSET = 0.35F;
+    private static final int SMOOTHING = 5;
+    private static final int MIN_SPEECH = 2;
+    private static final int HANGOVER = 4;
+
+    private final VadStateMachine vad = new VadStateMachine(ONSET, OFFSET, SMOOTHING, MIN_SPEECH, HANGOVER);
+
+    // events with the index of their frame, frames are numbered from start
+    private List<String> feed(float prob, int frames, int start) {
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < frames; i++) {
+            VadStateMachine.VadEvent event = vad.accept(prob);
+            if (event != VadStateMachine.VadEvent.NONE) {
+                events.add(event + "@" + (start + i));
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void shortBlipEmitsNothing() {
+        feed(0, 10, 0);
+        // two of five frames is a smoothed 0.4, below the onset
+        assertTrue(feed(1, 2, 10).isEmpty());
+        assertTrue(feed(0, 10, 12).isEmpty());
+        assertFalse(vad.isSpeech());
+    }
+
+    @Test
+    public void onsetStartsSpeechOnce() {
+        feed(0, 10, 0);
+        // smoothed 0.6 on the third frame, the second one above onset starts speech
+        assertEquals(Collections.singletonList("SPEECH_START@13"), feed(1, 50, 10));
+        assertTrue(vad.isSpeech());
+    }
+
+    @Test
+    public void dipShorterThanHangoverKeepsSpeech() {
+        feed(1, 20, 0);
+        assertTrue(vad.isSpeech());
+        // smoothed 0.8, 0.6, 0.4, never below the offset
+        assertTrue(feed(0, 3, 20).isEmpty());
+        assertTrue(feed(1, 10, 23).isEmpty());
+        // below the offset from the fourth silent frame, ends after the hangover
+        assertEquals(Collections.singletonList("SPEECH_END@39"), feed(0, 20, 33));
+        assertFalse(vad.isSpeech());
+    }
+
+    @Test
+    public void resetClearsState() {
+        feed(1, 20, 0);
+        feed(0, 4, 20);
+        assertTrue(vad.isSpeech());
+        vad.reset();
+        assertFalse(vad.isSpeech());
+        // no silent frames left in the mean, the second frame above onset starts speech
+        assertEquals(Collections.singletonList("SPEECH_START@1"), feed(1, 5, 0));
+    }
+
+    @Test
+    public void longListeningKeepsTheWindowMean() {
+        // hours of 10 ms frames of noise below the onset, then the same blip as above
+        Random random = new Random(3);
+        for (int i = 0; i < 2_000_000; i++) {
+            vad.accept(random.nextFloat() * 0.1F);
+        }
+        feed(0, SMOOTHING, 0);
+        assertTrue(feed(0.5F, SMOOTHING - 1, 0).isEmpty());
+        assertEquals(1, feed(0.5F, MIN_SPEECH, 0).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offsetAboveOnsetIsRejected() {
+        new VadStateMachine(0.3F, 0.5F, SMOOTHING, MIN_SPEECH, HANGOVER);
+    }
+}
@@ -0,0 +1,216 @@
+package com.fawai.asr;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WavFileTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // pcm wav of the interleaved samples, each one stored in its low (bits + 7) / 8 bytes
+    private File wav(int bits, int channels, int[] samples) throws IOException {
+        int bytesPerSample = (bits + 7) / 8;
+        int dataSize = samples.length * bytesPerSample;
+        ByteBuffer buffer = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x46464952).putInt(36 + dataSize).putInt(0x45564157)
+                .putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * channels * bytesPerSample)
+                .putShort((short) (channels * bytesPerSample)).putShort((short) bits)
+                .putInt(0x61746164).putInt(dataSize);
+        for (int sample : samples) {
+            for (int b = 0; b < bytesPerSample; b++) {
+                buffer.put((byte) (sample >> (8 * b)));
+            }
+        }
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array());
+        }
+        return file;
+    }
+
+    // the value of the former byte by byte readSample: 8 bit samples are unsigned, wider ones
+    // signed, all of them divided by 32767
+    private static double oldSample(int bits, int sample) {
+        if (bits == 8) {
+            return (sample & 255) / 32767.0D;
+        }
+        int shift = 32 - 8 * ((bits + 7) / 8);
+        return (sample << shift >> shift) / 32767.0D;
+    }
+
+    private static int[] random(int count, int bits, long seed) {
+        Random random = new Random(seed);
+        int[] samples = new int[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = bits == 32 ? random.nextInt() : random.nextInt(1 << bits) - (bits == 8 ? 0 : 1 << (bits - 1));
+        }
+        return samples;
+    }
+
+    private static int[] withExtremes(int bits, int[] samples) {
+        int min = bits == 8 ? 0 : bits == 32 ? Integer.MIN_VALUE : -(1 << (bits - 1));
+        int max = bits == 8 ? 255 : bits == 32 ? Integer.MAX_VALUE : (1 << (bits - 1)) - 1;
+        samples[0] = min;
+        samples[1] = max;
+        samples[2] = bits == 8 ? 128 : -1;
+        samples[3] = bits == 8 ? 127 : 0;
+        return samples;
+    }
+
+    private void assertChannelsMatch(int bits, int channels, int frames) throws IOException, WavFileException {
+        int[] samples = withExtremes(bits, random(frames * channels, bits, bits * 31 + channels));
+        WavFile wavFile = WavFile.openWavFile(wav(bits, channels, samples));
+        try {
+            assertEquals(frames, wavFile.getNumFrames());
+            assertEquals(channels, wavFile.getNumChannels());
+            float[][] buffer = new float[channels][frames];
+            assertEquals(frames, wavFile.readFrames(buffer, frames, 0));
+            for (int f = 0; f < frames; f++) {
+                for (int c = 0; c < channels; c++) {
+                    assertEquals("frame " + f + " channel " + c,
+                            (float) oldSample(bits, samples[f * channels + c]), buffer[c][f], 0);
+                }
+            }
+        } finally {
+            wavFile.close();
+        }
+    }
+
+    @Test
+    public void everyBitDepthMatchesTheByteWiseDecoding() throws IOException, WavFileException {
+        for (int bits : new int[]{8, 16, 24, 32}) {
+            assertChannelsMatch(bits, 1, 1000);
+            assertChannelsMatch(bits, 2, 1000);
+        }
+    }
+
+    @Test
+    public void negativeExtremesAreSignExtended() throws IOException, WavFileException {
+        int[][] cases = {
+                {16, -32768, -1, 32767},
+                {24, -8388608, -1, 8388607},
+                {32, Integer.MIN_VALUE, -1, Integer.MAX_VALUE}};
+        for (int[] c : cases) {
+            WavFile wavFile = WavFile.openWavFile(wav(c[0], 1, new int[]{c[1], c[2], c[3]}));
+            float[][] buffer = new float[1][3];
+            wavFile.readFrames(buffer, 3, 0);
+            wavFile.close();
+            assertEquals((float) (c[1] / 32767.0D), buffer[0][0], 0);
+            assertEquals((float) (-1 / 32767.0D), buffer[0][1], 0);
+            assertEquals((float) (c[3] / 32767.0D), buffer[0][2], 0);
+        }
+        // 8 bit samples are unsigned
+        WavFile wavFile = WavFile.openWavFile(wav(8, 1, new int[]{0, 255}));
+        float[][] buffer = new float[1][2];
+        wavFile.readFrames(buffer, 2, 0);
+        wavFile.close();
+        assertEquals(0, buffer[0][0], 0);
+        assertEquals((float) (255 / 32767.0D), buffer[0][1], 0);
+    }
+
+    @Test
+    public void interleavedFloatsAreScaled() throws IOException, WavFileException {
+        int[] samples = {-32768, 32767, 100, -100};
+        WavFile wavFile = WavFile.openWavFile(wav(16, 2, samples));
+        float[] buffer = new float[4];
+        assertEquals(2, wavFile.readFrames(buffer, 5));
+        wavFile.close();
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals((float) (samples[i] / 32767.0D) / 32768.0F, buffer[i], 0);
+        }
+    }
+
+    @Test
+    public void readsAcrossTheBufferBoundary() throws IOException, WavFileException {
+        // 64 KB are 21845 frames of 24 bit, 32768 of 16 bit mono
+        assertChannelsMatch(24, 1, 50000);
+        int frames = 70000;
+        int[] samples = withExtremes(16, random(frames, 16, 9));
+        WavFile wavFile = WavFile.openWavFile(wav(16, 1, samples));
+        short[] buffer = new short[frames + 10];
+        // uneven pieces, one of them crosses each 64 KB boundary
+        int read = 0;
+        int[] sizes = {1000, 31767, 3, 40000};
+        for (int k = 0; read < frames; k++) {
+            int n = wavFile.readFrames(buffer, read, sizes[k % sizes.length]);
+            assertTrue(n > 0);
+            read += n;
+        }
+        assertEquals(0, wavFile.readFrames(buffer, read, 10));
+        assertEquals(0, wavFile.getFramesRemaining());
+        wavFile.close();
+        for (int i = 0; i < frames; i++) {
+            assertEquals("sample " + i, samples[i], buffer[i]);
+        }
+    }
+
+    @Test
+    public void seekIntoTheMiddle() throws IOException, WavFileException {
+        int frames = 40000;
+        int[] samples = random(frames * 2, 16, 4);
+        WavFile wavFile = WavFile.openWavFile(wav(16, 2, samples));
+        short[] buffer = new short[200];
+        wavFile.seek(25000);
+        assertEquals(100, wavFile.readFrames(buffer, 100));
+        assertEquals(25100, wavFile.getFramePosition());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(samples[50000 + i], buffer[i]);
+        }
+        // back to a frame read before, and a frame offset skipped on the way
+        wavFile.seek(10);
+        float[][] channels = new float[2][5];
+        assertEquals(5, wavFile.readFrames(channels, 5, 7));
+        for (int f = 0; f < 5; f++) {
+            assertEquals((float) (samples[2 * (17 + f)] / 32767.0D), channels[0][f], 0);
+            assertEquals((float) (samples[2 * (17 + f) + 1] / 32767.0D), channels[1][f], 0);
+        }
+        wavFile.seek(frames);
+        assertEquals(0, wavFile.readFrames(buffer, 1));
+        try {
+            wavFile.seek(frames + 1);
+            fail("Seeked past the end");
+        } catch (WavFileException expected) {
+            assertEquals(frames, wavFile.getFramePosition());
+        }
+        wavFile.close();
+    }
+
+    @Test
+    public void shortsNeedSixteenBitSamples() throws IOException, WavFileException {
+        WavFile wavFile = WavFile.openWavFile(wav(24, 1, new int[]{1, 2}));
+        try {
+            wavFile.readFrames(new short[2], 2);
+            fail("Read 24 bit samples as short");
+        } catch (WavFileException expected) {
+            // the caller has to read floats
+        } finally {
+            wavFile.close();
+        }
+    }
+
+    @Test
+    public void loadAudioRejectsOtherSampleRate() throws IOException, WavFileException {
+        File file = wav(16, 1, new int[]{1, -2, 3});
+        assertArrayEquals(new float[]{(float) (1 / 32767.0D), (float) (-2 / 32767.0D), (float) (3 / 32767.0D)},
+                new WavFile().loadAudio(file.getPath(), SAMPLE_RATE), 0);
+        try {
+            new WavFile().loadAudio(file.getPath(), 8000);
+            fail("Loaded 16 kHz audio as 8 kHz");
+        } catch (WavFileException e) {
+            assertTrue(e.getMessage().contains("8000"));
+        }
+    }
+}